@@ -0,0 +1,99 @@
+package org.gbif.checklistbank;
+
+import com.google.common.io.Files;
+import org.gbif.checklistbank.ids.IdStores;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the batch insert of a synthetic archive and the transactional relation setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class ImportBenchmark {
+
+    @Param({"100000"})
+    public int size;
+
+    @Param({"8"})
+    public int depth;
+
+    @Param({"10"})
+    public int fanout;
+
+    @Param({"MAPPED", "HEAP"})
+    public IdStores.Type idStore;
+
+    private File dir;
+    private File dwca;
+    private File store;
+
+    @Setup(Level.Trial)
+    public void generate() throws IOException {
+        dir = Files.createTempDir();
+        dwca = new TaxonomyGenerator().generate(new File(dir, "dwca"), size, depth, fanout);
+        store = new File(dir, "store");
+    }
+
+    @TearDown(Level.Trial)
+    public void cleanup() {
+        TaxonomyGenerator.delete(dir);
+    }
+
+    @Setup(Level.Iteration)
+    public void cleanStore() {
+        TaxonomyGenerator.delete(store);
+    }
+
+    /**
+     * Nodes only store for the relation benchmark, rebuilt before every iteration of setupRelations only.
+     */
+    @State(Scope.Benchmark)
+    public static class RelationStore {
+        private NeoImport relImport;
+
+        @Setup(Level.Iteration)
+        public void prepareStore(ImportBenchmark bench) throws IOException {
+            File relStore = new File(bench.dir, "store-rel");
+            TaxonomyGenerator.delete(relStore);
+            relImport = new NeoImport(bench.dwca, relStore, false, bench.idStore);
+            relImport.batchInsertData();
+            relImport.initDb();
+            relImport.setupTaxonIdIndex();
+        }
+
+        @TearDown(Level.Iteration)
+        public void closeStore() {
+            relImport.shutdown();
+        }
+    }
+
+    @Benchmark
+    public void batchInsertData() throws IOException {
+        new NeoImport(dwca, store, true, idStore).batchInsertData();
+    }
+
+    @Benchmark
+    public void setupRelations(RelationStore rel) {
+        rel.relImport.setupRelations();
+    }
+}
@@ -0,0 +1,167 @@
+package org.gbif.checklistbank;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import org.gbif.dwc.record.Record;
+import org.gbif.dwc.terms.DwcTerm;
+import org.gbif.dwc.terms.Term;
+import org.gbif.dwc.text.Archive;
+import org.gbif.dwc.text.ArchiveFactory;
+import org.gbif.dwc.text.StarRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Compares the former regex based value normalisation of NeoImport, i.e. the null token pattern and a plain trim,
+ * with the ValueNormalizer applying the same null token and trim rules.
+ * The configured benchmark adds the per term rules of the bulk import profile, so the cost of the scientificName
+ * cleaning can be told apart from the like for like comparison.
+ * Pass a real archive file or directory with -p archive=..., otherwise a synthetic archive is generated
+ * and mixed with padded values, null tokens and dirty names.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class NormalizerBenchmark {
+    private static final Pattern NULL_PATTERN = Pattern.compile("^\\s*(\\\\N|\\\\?NULL)\\s*$");
+    private static final String[] NULLS = {"\\N", "NULL", " \\NULL ", ""};
+    private static final String[] DIRT = {"  ", "\u00A0", "\u200B", "\t", "\uFEFF"};
+    private static final String NAME_RULES = "NULL_TOKENS,TRIM,CONTROL_CHARS,COLLAPSE_WHITESPACE";
+
+    /**
+     * Optional path to a real archive, a synthetic one is generated if empty.
+     */
+    @Param({""})
+    public String archive;
+
+    /**
+     * Number of records to generate or to read at most from a real archive.
+     */
+    @Param({"10000"})
+    public int size;
+
+    private Term[] terms;
+    private String[] values;
+    private ValueNormalizer configured;
+
+    @Setup(Level.Trial)
+    public void load() throws IOException {
+        if (Strings.isNullOrEmpty(archive)) {
+            File dir = Files.createTempDir();
+            try {
+                read(new TaxonomyGenerator().generate(new File(dir, "dwca"), size, 8, 10), true);
+            } finally {
+                TaxonomyGenerator.delete(dir);
+            }
+        } else {
+            read(new File(archive), false);
+        }
+        Properties props = NeoConfiguration.properties(NeoConfiguration.Profile.BULK_IMPORT);
+        final String nameKey = ValueNormalizer.PREFIX + DwcTerm.scientificName.simpleName();
+        if (props.getProperty(nameKey) == null) {
+            props.setProperty(nameKey, NAME_RULES);
+        }
+        configured = ValueNormalizer.create(props);
+    }
+
+    /**
+     * Reads all core values together with their term.
+     * @param dirty if true values are mixed with padding, null tokens and whitespace or control characters in names
+     */
+    private void read(File file, boolean dirty) throws IOException {
+        Archive arch = ArchiveFactory.openArchive(file);
+        Term[] coreTerms = null;
+        List<Term> ts = Lists.newArrayList();
+        List<String> vals = Lists.newArrayList();
+        int records = 0;
+        int x = 0;
+        for (StarRecord star : arch) {
+            if (records++ == size) {
+                break;
+            }
+            Record core = star.core();
+            if (coreTerms == null) {
+                coreTerms = core.terms().toArray(new Term[0]);
+            }
+            for (Term t : coreTerms) {
+                String v = core.value(t);
+                if (dirty) {
+                    switch (x++ % 10) {
+                        case 0:
+                            v = NULLS[x % NULLS.length];
+                            break;
+                        case 1:
+                            v = v == null ? null : "  " + v + " ";
+                            break;
+                        case 2:
+                            if (v != null && t == DwcTerm.scientificName) {
+                                v = v.replace(" ", DIRT[x % DIRT.length]);
+                            }
+                            break;
+                        default:
+                    }
+                }
+                ts.add(t);
+                vals.add(v);
+            }
+        }
+        terms = ts.toArray(new Term[ts.size()]);
+        values = vals.toArray(new String[vals.size()]);
+    }
+
+    /**
+     * The former NeoImport.norm.
+     */
+    @Benchmark
+    public void regex(Blackhole bh) {
+        for (String x : values) {
+            if (Strings.isNullOrEmpty(x) || NULL_PATTERN.matcher(x).find()) {
+                bh.consume(null);
+            } else {
+                bh.consume(x.trim());
+            }
+        }
+    }
+
+    /**
+     * Null tokens and trimming only, as the regex benchmark.
+     */
+    @Benchmark
+    public void normalizer(Blackhole bh) {
+        for (String x : values) {
+            bh.consume(ValueNormalizer.DEFAULT.norm(x));
+        }
+    }
+
+    /**
+     * The rules configured for each term, including the scientificName cleaning.
+     */
+    @Benchmark
+    public void configured(Blackhole bh) {
+        for (int i = 0; i < values.length; i++) {
+            bh.consume(configured.norm(terms[i], values[i]));
+        }
+    }
+}
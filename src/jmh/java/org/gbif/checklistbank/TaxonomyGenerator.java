@@ -0,0 +1,112 @@
+package org.gbif.checklistbank;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Random;
+
+/**
+ * Generates synthetic darwin core archives with a taxonomy of configurable size, depth and fan-out.
+ * Every 5th accepted taxon gets a synonym, every 2nd of these synonyms is the basionym of an additional
+ * homotypic synonym.
+ */
+public class TaxonomyGenerator {
+    private static final String[] RANKS = {"kingdom", "phylum", "class", "order", "family", "genus", "species",
+        "subspecies"};
+    private static final String[] COLUMNS = {"taxonID", "parentNameUsageID", "acceptedNameUsageID",
+        "originalNameUsageID", "scientificName", "taxonRank", "taxonomicStatus"};
+    private static final Joiner TAB = Joiner.on('\t').useForNull("");
+    private final Random random = new Random(17);
+    private int ids = 0;
+
+    /**
+     * Writes a new archive with a taxon core file into the given directory.
+     * @param size   number of accepted taxa
+     * @param depth  max depth of the tree, root nodes being depth 1
+     * @param fanout number of children per node and number of root nodes
+     * @return the archive directory
+     */
+    public File generate(File dir, int size, int depth, int fanout) throws IOException {
+        dir.mkdirs();
+        writeMeta(new File(dir, "meta.xml"));
+        try (Writer w = Files.newWriter(new File(dir, "taxon.txt"), Charsets.UTF_8)) {
+            w.write(TAB.join(COLUMNS) + "\n");
+            // breadth first, each element holds id and depth
+            Deque<int[]> queue = new ArrayDeque<int[]>();
+            int accepted = 0;
+            for (int i = 0; i < fanout && accepted < size; i++) {
+                queue.add(new int[]{write(w, null, 0), 0});
+                accepted++;
+            }
+            while (!queue.isEmpty() && accepted < size) {
+                int[] parent = queue.poll();
+                if (parent[1] + 1 < depth) {
+                    for (int i = 0; i < fanout && accepted < size; i++) {
+                        queue.add(new int[]{write(w, parent[0], parent[1] + 1), parent[1] + 1});
+                        accepted++;
+                    }
+                }
+            }
+        }
+        return dir;
+    }
+
+    private int write(Writer w, Integer parentId, int level) throws IOException {
+        final int id = ids++;
+        final String rank = level < RANKS.length ? RANKS[level] : "unranked";
+        w.write(TAB.join(id, parentId, null, null, name(), rank, "accepted") + "\n");
+        if (id % 5 == 4) {
+            int synId = ids++;
+            w.write(TAB.join(synId, null, id, null, name(), rank, "synonym") + "\n");
+            if (synId % 2 == 0) {
+                int combId = ids++;
+                w.write(TAB.join(combId, null, id, synId, name(), rank, "homotypic synonym") + "\n");
+            }
+        }
+        return id;
+    }
+
+    private String name() {
+        StringBuilder sb = new StringBuilder();
+        sb.append((char) ('A' + random.nextInt(26)));
+        int len = 4 + random.nextInt(8);
+        for (int i = 0; i < len; i++) {
+            sb.append((char) ('a' + random.nextInt(26)));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Deletes a file or directory with all its content.
+     */
+    public static void delete(File f) {
+        File[] children = f.listFiles();
+        if (children != null) {
+            for (File c : children) {
+                delete(c);
+            }
+        }
+        f.delete();
+    }
+
+    private static void writeMeta(File file) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<archive xmlns=\"http://rs.tdwg.org/dwc/text/\">\n");
+        sb.append("  <core encoding=\"UTF-8\" fieldsTerminatedBy=\"\\t\" linesTerminatedBy=\"\\n\" fieldsEnclosedBy=\"\"")
+            .append(" ignoreHeaderLines=\"1\" rowType=\"http://rs.tdwg.org/dwc/terms/Taxon\">\n");
+        sb.append("    <files><location>taxon.txt</location></files>\n");
+        sb.append("    <id index=\"0\"/>\n");
+        for (int i = 0; i < COLUMNS.length; i++) {
+            sb.append("    <field index=\"").append(i).append("\" term=\"http://rs.tdwg.org/dwc/terms/")
+                .append(COLUMNS[i]).append("\"/>\n");
+        }
+        sb.append("  </core>\n</archive>\n");
+        Files.write(sb.toString(), file, Charsets.UTF_8);
+    }
+}
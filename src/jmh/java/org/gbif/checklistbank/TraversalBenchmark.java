@@ -0,0 +1,154 @@
+package org.gbif.checklistbank;
+
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import org.gbif.checklistbank.ids.IdStores;
+import org.gbif.checklistbank.names.NameIndex;
+import org.gbif.checklistbank.names.NameIndexWriter;
+import org.gbif.checklistbank.traverse.StartEndHandler;
+import org.gbif.checklistbank.traverse.TaxonWalker;
+import org.gbif.checklistbank.traverse.TaxonomicOrderExpander;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the hot paths working on an imported synthetic taxonomy:
+ * sorting children, the nested set walk, taxonID lookups, nested set queries and name index lookups.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TraversalBenchmark {
+    private static final int LOOKUPS = 1000;
+
+    @Param({"100000"})
+    public int size;
+
+    @Param({"8"})
+    public int depth;
+
+    @Param({"10"})
+    public int fanout;
+
+    private File dir;
+    private NeoImport imp;
+    private GraphDatabaseService db;
+    private final TaxonomicOrderExpander expander = new TaxonomicOrderExpander();
+    private final List<Node> parents = Lists.newArrayList();
+    private final Random random = new Random(7);
+    private NestedSetIndex nestedSet;
+    private NameIndex names;
+
+    @Setup(Level.Trial)
+    public void importTaxonomy() throws IOException {
+        dir = Files.createTempDir();
+        File dwca = new TaxonomyGenerator().generate(new File(dir, "dwca"), size, depth, fanout);
+        imp = new NeoImport(dwca, new File(dir, "store"), true, IdStores.Type.MAPPED);
+        imp.batchInsertData();
+        imp.initDb();
+        imp.setupTaxonIdIndex();
+        db = imp.getDb();
+        // remember all nodes with children
+        try (Transaction tx = db.beginTx()) {
+            TaxonWalker.walkAll(db, new StartEndHandler() {
+                @Override
+                public void start(Node n) {
+                }
+
+                @Override
+                public void end(Node n) {
+                    if (n.hasRelationship(RelType.PARENT_OF, Direction.OUTGOING)) {
+                        parents.add(n);
+                    }
+                }
+            });
+        }
+        imp.buildMetrics();
+        nestedSet = NestedSetIndex.load(db);
+        File nameFile = new File(dir, NameIndex.FILENAME);
+        NameIndexWriter.write(db, nameFile);
+        names = NameIndex.open(nameFile);
+    }
+
+    @TearDown(Level.Trial)
+    public void cleanup() {
+        imp.shutdown();
+        TaxonomyGenerator.delete(dir);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    public void expand(Blackhole bh) {
+        try (Transaction tx = db.beginTx()) {
+            for (Node p : parents) {
+                bh.consume(expander.children(p));
+            }
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void walkAllNestedSet() {
+        imp.buildMetrics();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OperationsPerInvocation(LOOKUPS)
+    public void nodeByTaxonId(Blackhole bh) {
+        try (Transaction tx = db.beginTx()) {
+            for (int i = 0; i < LOOKUPS; i++) {
+                bh.consume(imp.nodeByTaxonId(String.valueOf(random.nextInt(size))));
+            }
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OperationsPerInvocation(LOOKUPS)
+    public void nestedSetQueries(Blackhole bh) {
+        for (int i = 0; i < LOOKUPS; i++) {
+            long ancestor = parents.get(random.nextInt(parents.size())).getId();
+            long node = parents.get(random.nextInt(parents.size())).getId();
+            bh.consume(nestedSet.isInSubtree(node, ancestor));
+            bh.consume(nestedSet.countDescendants(ancestor));
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OperationsPerInvocation(LOOKUPS)
+    public void nameLookups(Blackhole bh) {
+        for (int i = 0; i < LOOKUPS; i++) {
+            String name = names.name(random.nextInt(names.size()));
+            bh.consume(names.lookup(name));
+            bh.consume(names.prefix(name.substring(0, Math.min(3, name.length())), 10));
+        }
+    }
+}
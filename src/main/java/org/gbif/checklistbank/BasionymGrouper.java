@@ -0,0 +1,141 @@
+package org.gbif.checklistbank;
+
+import com.google.common.base.Preconditions;
+import com.yammer.metrics.Histogram;
+import org.gbif.dwc.terms.DwcTerm;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.tooling.GlobalGraphOperations;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Clusters homotypic names into basionym groups in a single linear pass over all relationships.
+ * Every BASIONYM_OF relation and every SYNONYM_OF relation of a synonym flagged as homotypic joins
+ * the two names in a primitive union-find over node ids.
+ * Heterotypic synonyms are not joined, as they only share the accepted taxon, not the type.
+ *
+ * Names in groups of two or more get the smallest node id of their group as the group key property,
+ * any stale keys of names without a group are removed. Group sizes are tracked in a histogram.
+ */
+public class BasionymGrouper {
+    private static final Logger LOG = LoggerFactory.getLogger(BasionymGrouper.class);
+
+    private final GraphDatabaseService db;
+    private final Histogram groupSizes = Instrumentation.get().histogram("basionym group sizes");
+    private int[] parent;
+    private int[] size;
+    private int[] key;
+    private final BitSet exists = new BitSet();
+    private int groups;
+    private int grouped;
+
+    public BasionymGrouper(GraphDatabaseService db) {
+        this.db = db;
+    }
+
+    /**
+     * Computes all groups and writes their keys.
+     */
+    public void run() {
+        load();
+        write();
+        LOG.info("Found {} basionym groups with {} names", groups, grouped);
+        parent = null;
+        size = null;
+        key = null;
+    }
+
+    private void load() {
+        try (Transaction tx = db.beginTx()) {
+            long maxId = -1;
+            for (Node n : GlobalGraphOperations.at(db).getAllNodes()) {
+                maxId = Math.max(maxId, n.getId());
+                Preconditions.checkState(n.getId() < Integer.MAX_VALUE, "Node ids too large for basionym grouping: %s", n.getId());
+                exists.set((int) n.getId());
+            }
+            parent = new int[(int) maxId + 1];
+            size = new int[parent.length];
+            key = new int[parent.length];
+            for (int i = 0; i < parent.length; i++) {
+                parent[i] = i;
+                key[i] = i;
+            }
+            Arrays.fill(size, 1);
+
+            for (Relationship rel : GlobalGraphOperations.at(db).getAllRelationships()) {
+                if (rel.isType(RelType.BASIONYM_OF)
+                    || rel.isType(RelType.SYNONYM_OF) && isHomotypic(rel.getStartNode())) {
+                    union((int) rel.getStartNode().getId(), (int) rel.getEndNode().getId());
+                }
+            }
+            tx.success();
+        }
+    }
+
+    private static boolean isHomotypic(Node syn) {
+        String status = (String) syn.getProperty(DwcTerm.taxonomicStatus.simpleName(), null);
+        if (status == null) {
+            return false;
+        }
+        status = status.toLowerCase();
+        return status.contains("homotypic") || status.contains("objective");
+    }
+
+    private int find(int x) {
+        while (parent[x] != x) {
+            // path halving
+            parent[x] = parent[parent[x]];
+            x = parent[x];
+        }
+        return x;
+    }
+
+    /**
+     * Joins two sets by size, remembering the smallest node id of the joined set as its group key.
+     */
+    private void union(int a, int b) {
+        int ra = find(a);
+        int rb = find(b);
+        if (ra == rb) {
+            return;
+        }
+        if (size[ra] < size[rb]) {
+            int tmp = ra;
+            ra = rb;
+            rb = tmp;
+        }
+        parent[rb] = ra;
+        size[ra] += size[rb];
+        key[ra] = Math.min(key[ra], key[rb]);
+    }
+
+    private void write() {
+        try (BatchTransaction tx = new BatchTransaction(db)) {
+            for (int id = 0; id < parent.length; id++) {
+                final int root = find(id);
+                if (id == root && size[root] > 1) {
+                    groups++;
+                    groupSizes.update(size[root]);
+                }
+                if (size[root] > 1) {
+                    grouped++;
+                    db.getNodeById(id).setProperty(NeoUtils.PROP_BASIONYM_GROUP, key[root]);
+                    tx.tick();
+                } else if (exists.get(id)) {
+                    Node n = db.getNodeById(id);
+                    if (n.hasProperty(NeoUtils.PROP_BASIONYM_GROUP)) {
+                        n.removeProperty(NeoUtils.PROP_BASIONYM_GROUP);
+                        tx.tick();
+                    }
+                }
+            }
+            tx.success();
+        }
+    }
+}
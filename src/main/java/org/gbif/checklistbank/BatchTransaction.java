@@ -0,0 +1,149 @@
+package org.gbif.checklistbank;
+
+import com.yammer.metrics.Timer;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Array;
+import java.util.Map;
+
+/**
+ * A long running transaction that commits and reopens the underlying neo4j transaction every N operations
+ * or once the estimated transaction state exceeds M megabytes, keeping memory flat for any amount of writes.
+ * Use it like a regular transaction: call tick() after every write, success() at the end and close it.
+ * If success() was not called only the last, not yet committed chunk is rolled back on close.
+ *
+ * Node and relationship objects as well as id based iterators like GlobalGraphOperations.getAllNodes() stay valid
+ * across commits. Iterators bound to a transaction, e.g. label scans or traversals, must be materialised before.
+ */
+public class BatchTransaction implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(BatchTransaction.class);
+    public static final int DEFAULT_OPERATIONS = 10000;
+    public static final int DEFAULT_MEGABYTES = 64;
+    // rough estimate of transaction state needed for a single property change or new relation
+    private static final int BYTES_PER_OPERATION = 100;
+    // rough size of a string in the transaction state besides its characters
+    private static final int BYTES_PER_STRING = 40;
+
+    private final GraphDatabaseService db;
+    private final int maxOperations;
+    private final long maxBytes;
+    private Transaction tx;
+    private boolean success = false;
+    private int operations;
+    private long bytes;
+    private long commits;
+    private Runnable commitListener;
+
+    public BatchTransaction(GraphDatabaseService db) {
+        this(db, DEFAULT_OPERATIONS, DEFAULT_MEGABYTES);
+    }
+
+    /**
+     * @param maxOperations number of operations after which the transaction is committed
+     * @param maxMegabytes  estimated transaction state size in megabytes after which the transaction is committed
+     */
+    public BatchTransaction(GraphDatabaseService db, int maxOperations, int maxMegabytes) {
+        this.db = db;
+        this.maxOperations = maxOperations;
+        this.maxBytes = maxMegabytes * 1024L * 1024L;
+        tx = db.beginTx();
+    }
+
+    /**
+     * @param commitListener called after every intermediate commit, e.g. to save an import checkpoint
+     */
+    public void setCommitListener(Runnable commitListener) {
+        this.commitListener = commitListener;
+    }
+
+    /**
+     * Registers a single write operation of average size.
+     */
+    public void tick() {
+        tick(BYTES_PER_OPERATION);
+    }
+
+    /**
+     * Registers a single write operation.
+     * @param estimatedBytes estimated size of the changed state, e.g. the length of a written string property
+     */
+    public void tick(long estimatedBytes) {
+        operations++;
+        bytes += estimatedBytes;
+        if (operations >= maxOperations || bytes >= maxBytes) {
+            commit();
+        }
+    }
+
+    /**
+     * Estimates the transaction state needed to write the given properties, counting every string and array element.
+     * Used with tick(long) for writes of large properties, e.g. whole records or packed extension arrays.
+     */
+    public static long estimateBytes(Map<String, Object> props) {
+        long bytes = 0;
+        for (Map.Entry<String, Object> e : props.entrySet()) {
+            bytes += BYTES_PER_OPERATION + 2L * e.getKey().length();
+            final Object val = e.getValue();
+            if (val instanceof String) {
+                bytes += BYTES_PER_STRING + 2L * ((String) val).length();
+            } else if (val instanceof String[]) {
+                for (String x : (String[]) val) {
+                    bytes += BYTES_PER_STRING + 2L * x.length();
+                }
+            } else if (val != null && val.getClass().isArray()) {
+                bytes += 8L * Array.getLength(val);
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Commits the current chunk and opens a new transaction.
+     */
+    public void commit() {
+        Timer.Context timer = Instrumentation.get().commits().time();
+        try {
+            tx.success();
+            tx.close();
+        } finally {
+            timer.stop();
+        }
+        commits++;
+        if (commits % 100 == 0) {
+            LOG.debug("{} commits with {} operations each", commits, maxOperations);
+        }
+        operations = 0;
+        bytes = 0;
+        tx = db.beginTx();
+        if (commitListener != null) {
+            commitListener.run();
+        }
+    }
+
+    /**
+     * Marks the last chunk as successful so it gets committed on close.
+     */
+    public void success() {
+        success = true;
+    }
+
+    /**
+     * @return number of chunks committed so far
+     */
+    public long getCommits() {
+        return commits;
+    }
+
+    @Override
+    public void close() {
+        if (success) {
+            tx.success();
+        } else {
+            tx.failure();
+        }
+        tx.close();
+    }
+}
@@ -0,0 +1,102 @@
+package org.gbif.checklistbank;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+import com.yammer.metrics.Gauge;
+import com.yammer.metrics.Meter;
+import org.gbif.api.model.checklistbank.ParsedName;
+import org.gbif.api.vocabulary.NameType;
+import org.gbif.nameparser.NameParser;
+import org.gbif.nameparser.UnparsableException;
+
+import javax.annotation.Nullable;
+
+/**
+ * Parses scientific names with the GBIF NameParser, keeping results in a bounded LRU cache keyed by the raw name
+ * so names repeated across synonyms and misapplied names are only parsed once.
+ * Safe for concurrent use by the import pipeline parser threads, each of them using its own NameParser.
+ * Reports the cache hit rate as the gauge "name cache hit rate" and the actual parses as the meter "name parses".
+ */
+public class CachingNameParser {
+    public static final int DEFAULT_CACHE_SIZE = 100000;
+
+    private final Meter parses = Instrumentation.get().meter("name parses");
+    private final ThreadLocal<NameParser> parser = new ThreadLocal<NameParser>() {
+        @Override
+        protected NameParser initialValue() {
+            return new NameParser();
+        }
+    };
+    private final LoadingCache<String, Result> cache;
+
+    /**
+     * The parsed parts of a name stored on its node.
+     */
+    public static class Result {
+        private final String canonicalName;
+        private final String authorship;
+        private final NameType type;
+
+        private Result(String canonicalName, String authorship, NameType type) {
+            this.canonicalName = canonicalName;
+            this.authorship = authorship;
+            this.type = type;
+        }
+
+        @Nullable
+        public String getCanonicalName() {
+            return canonicalName;
+        }
+
+        @Nullable
+        public String getAuthorship() {
+            return authorship;
+        }
+
+        @Nullable
+        public NameType getType() {
+            return type;
+        }
+    }
+
+    /**
+     * @param cacheSize max number of distinct names kept in the cache
+     */
+    public CachingNameParser(int cacheSize) {
+        cache = CacheBuilder.newBuilder()
+            .maximumSize(cacheSize)
+            .recordStats()
+            .build(new CacheLoader<String, Result>() {
+                @Override
+                public Result load(String name) {
+                    return parseUncached(name);
+                }
+            });
+        Instrumentation.get().gauge("name cache hit rate", new Gauge<Double>() {
+            @Override
+            public Double getValue() {
+                return cache.stats().hitRate();
+            }
+        });
+    }
+
+    public Result parse(String name) {
+        return cache.getUnchecked(name);
+    }
+
+    private Result parseUncached(String name) {
+        parses.mark();
+        try {
+            ParsedName pn = parser.get().parse(name);
+            return new Result(pn.canonicalName(), pn.authorshipComplete(), pn.getType());
+        } catch (UnparsableException e) {
+            return new Result(null, null, e.type);
+        }
+    }
+
+    public CacheStats stats() {
+        return cache.stats();
+    }
+}
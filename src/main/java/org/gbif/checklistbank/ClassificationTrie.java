@@ -0,0 +1,123 @@
+package org.gbif.checklistbank;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import org.gbif.api.vocabulary.Rank;
+import org.gbif.dwc.terms.DwcTerm;
+
+import javax.annotation.Nullable;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds the higher classification of records that only come with denormalised classification columns
+ * like kingdom or family instead of a parentNameUsageID.
+ * An in memory trie of all classification paths seen so far maps every higher taxon to its node,
+ * so each implicit higher taxon node is created exactly once and looking up the parent of a record
+ * costs one hash lookup per classification column.
+ *
+ * Records of a higher rank register themselves in the trie, so they become the parent of all following records
+ * classified below them. If a record of a higher rank follows records using it in their classification
+ * an implicit node has been created already and both nodes will exist.
+ */
+public class ClassificationTrie {
+    public static final long NONE = -1;
+    public static final List<DwcTerm> COLUMNS = ImmutableList.of(
+        DwcTerm.kingdom, DwcTerm.phylum, DwcTerm.class_, DwcTerm.order, DwcTerm.family, DwcTerm.genus);
+    public static final List<Rank> RANKS = ImmutableList.of(
+        Rank.KINGDOM, Rank.PHYLUM, Rank.CLASS, Rank.ORDER, Rank.FAMILY, Rank.GENUS);
+
+    /**
+     * Creates the node for an implicit higher taxon.
+     */
+    public interface NodeCreator {
+        /**
+         * @param parent the node id of the parent or NONE for a new root
+         * @return the id of the new node
+         */
+        long create(Rank rank, String name, long parent);
+    }
+
+    private static class TrieNode {
+        private long id;
+        private final Map<String, TrieNode> children = Maps.newHashMap();
+
+        private TrieNode(long id) {
+            this.id = id;
+        }
+    }
+
+    private final NodeCreator creator;
+    private final TrieNode root = new TrieNode(NONE);
+    private int created;
+
+    public ClassificationTrie(NodeCreator creator) {
+        this.creator = creator;
+    }
+
+    /**
+     * Finds the parent for a record from its classification, creating missing higher taxa on the way.
+     * Columns at or below the rank of the record itself are ignored, except that a record of one of the
+     * classification ranks registers itself as the higher taxon named by its own column or scientific name.
+     *
+     * @param node           the node id of the record
+     * @param rank           the rank of the record, if known
+     * @param name           the scientific name of the record
+     * @param classification the values of all COLUMNS, missing values as null
+     * @return the node id of the parent or NONE if the record has no classification
+     */
+    public long parent(long node, @Nullable Rank rank, @Nullable String name, String[] classification) {
+        TrieNode t = root;
+        for (int i = 0; i < COLUMNS.size(); i++) {
+            final Rank level = RANKS.get(i);
+            if (rank != null && rank.ordinal() <= level.ordinal()) {
+                if (rank == level) {
+                    String key = classification[i] != null ? classification[i] : name;
+                    if (key != null && !t.children.containsKey(key)) {
+                        t.children.put(key, new TrieNode(node));
+                    }
+                }
+                break;
+            }
+            final String higher = classification[i];
+            if (higher == null) {
+                continue;
+            }
+            TrieNode child = t.children.get(higher);
+            if (child == null) {
+                child = new TrieNode(creator.create(level, higher, t.id));
+                t.children.put(higher, child);
+                created++;
+            }
+            t = child;
+        }
+        return t.id;
+    }
+
+    /**
+     * Registers an existing higher taxon node, e.g. an implicit node created during a previous import.
+     * Ancestors not yet registered are kept as placeholders without a node until they are registered themselves.
+     * @param path the names of the higher taxon and all its classification ancestors, starting with the highest
+     */
+    public void register(List<String> path, long node) {
+        TrieNode t = root;
+        for (String name : path) {
+            TrieNode child = t.children.get(name);
+            if (child == null) {
+                child = new TrieNode(NONE);
+                t.children.put(name, child);
+            }
+            t = child;
+        }
+        if (t.id == NONE) {
+            t.id = node;
+        }
+    }
+
+    /**
+     * @return number of implicit nodes created
+     */
+    public int getCreated() {
+        return created;
+    }
+}
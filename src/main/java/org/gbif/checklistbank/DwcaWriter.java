@@ -0,0 +1,170 @@
+package org.gbif.checklistbank;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.yammer.metrics.Meter;
+import org.gbif.checklistbank.traverse.TaxonomicIterator;
+import org.gbif.dwc.terms.DwcTerm;
+import org.gbif.dwc.terms.Term;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Streams a neo checklist into a zipped Darwin Core Archive with a single taxon core file.
+ * Nodes are visited in taxonomic order by the TaxonomicIterator and every row is written straight into the zip stream,
+ * synonyms without a parent right after their accepted taxon. Parent, accepted and basionym ids are resolved
+ * from the relations, so apart from one bit per node marking written rows nothing is kept in memory.
+ * Nodes without a taxonID, e.g. implicit higher taxa, are identified by their node id.
+ * Every node is written once only, even in unrepaired trees with several parents or accepted taxa for a node,
+ * using the first of its relations.
+ */
+public class DwcaWriter {
+    private static final Logger LOG = LoggerFactory.getLogger(DwcaWriter.class);
+    private static final String CORE_FILE = "taxon.txt";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final List<Term> TERMS = ImmutableList.<Term>of(DwcTerm.taxonID, DwcTerm.parentNameUsageID,
+        DwcTerm.acceptedNameUsageID, DwcTerm.originalNameUsageID, DwcTerm.scientificName,
+        DwcTerm.scientificNameAuthorship, DwcTerm.taxonRank, DwcTerm.taxonomicStatus, DwcTerm.nomenclaturalStatus,
+        DwcTerm.kingdom, DwcTerm.phylum, DwcTerm.class_, DwcTerm.order, DwcTerm.family, DwcTerm.genus);
+
+    private final GraphDatabaseService db;
+    private final Meter progress = Instrumentation.get().meter("dwca rows");
+    private Writer out;
+    private BitSet written;
+    private long rows;
+
+    public DwcaWriter(GraphDatabaseService db) {
+        this.db = db;
+    }
+
+    /**
+     * Writes the entire checklist into a new zip archive.
+     * @return number of core rows written
+     */
+    public long write(File archive) throws IOException {
+        rows = 0;
+        written = new BitSet();
+        try (ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(archive), BUFFER_SIZE))) {
+            zip.putNextEntry(new ZipEntry(CORE_FILE));
+            // the writer must not be closed as that would close the zip stream
+            out = new BufferedWriter(new OutputStreamWriter(zip, Charsets.UTF_8), BUFFER_SIZE);
+            writeHeader();
+            try (Transaction tx = db.beginTx(); TaxonomicIterator iter = TaxonomicIterator.create(db)) {
+                while (iter.hasNext()) {
+                    Node n = iter.next().endNode();
+                    writeRow(n);
+                    for (Relationship rel : n.getRelationships(RelType.SYNONYM_OF, Direction.INCOMING)) {
+                        Node syn = rel.getStartNode();
+                        if (first(syn, RelType.PARENT_OF, Direction.INCOMING) == null) {
+                            writeRow(syn);
+                        }
+                    }
+                }
+                tx.success();
+            }
+            out.flush();
+            zip.closeEntry();
+
+            zip.putNextEntry(new ZipEntry("meta.xml"));
+            zip.write(meta().getBytes(Charsets.UTF_8));
+            zip.closeEntry();
+        }
+        LOG.info("Wrote {} taxa to archive {}", rows, archive.getAbsolutePath());
+        return rows;
+    }
+
+    private void writeHeader() throws IOException {
+        out.write("id");
+        for (Term t : TERMS) {
+            out.write('\t');
+            out.write(t.simpleName());
+        }
+        out.write('\n');
+    }
+
+    private void writeRow(Node n) throws IOException {
+        Preconditions.checkState(n.getId() < Integer.MAX_VALUE, "Node id too large for the archive writer: %s", n.getId());
+        if (written.get((int) n.getId())) {
+            LOG.debug("Skip taxon {} written already", n.getId());
+            return;
+        }
+        written.set((int) n.getId());
+        Relationship parent = first(n, RelType.PARENT_OF, Direction.INCOMING);
+        Relationship accepted = first(n, RelType.SYNONYM_OF, Direction.OUTGOING);
+        Relationship basionym = first(n, RelType.BASIONYM_OF, Direction.INCOMING);
+        final String id = id(n);
+        out.write(id);
+        for (Term t : TERMS) {
+            out.write('\t');
+            final String value;
+            if (t == DwcTerm.taxonID) {
+                value = id;
+            } else if (t == DwcTerm.parentNameUsageID) {
+                value = parent == null ? null : id(parent.getStartNode());
+            } else if (t == DwcTerm.acceptedNameUsageID) {
+                value = accepted == null ? null : id(accepted.getEndNode());
+            } else if (t == DwcTerm.originalNameUsageID) {
+                value = basionym == null ? null : id(basionym.getStartNode());
+            } else {
+                value = (String) n.getProperty(t.simpleName(), null);
+            }
+            if (value != null) {
+                out.write(clean(value));
+            }
+        }
+        out.write('\n');
+        rows++;
+        progress.mark();
+    }
+
+    /**
+     * @return the first relation of the given type and direction or null
+     */
+    private static Relationship first(Node n, RelType type, Direction dir) {
+        Iterator<Relationship> rels = n.getRelationships(type, dir).iterator();
+        return rels.hasNext() ? rels.next() : null;
+    }
+
+    private static String id(Node n) {
+        String id = (String) n.getProperty(DwcTerm.taxonID.simpleName(), null);
+        return id == null ? "node:" + n.getId() : id;
+    }
+
+    private static String clean(String x) {
+        return x.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+    }
+
+    private static String meta() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+            .append("<archive xmlns=\"http://rs.tdwg.org/dwc/text/\">\n")
+            .append("  <core encoding=\"UTF-8\" fieldsTerminatedBy=\"\\t\" linesTerminatedBy=\"\\n\" fieldsEnclosedBy=\"\" ")
+            .append("ignoreHeaderLines=\"1\" rowType=\"").append(DwcTerm.Taxon.qualifiedName()).append("\">\n")
+            .append("    <files>\n      <location>").append(CORE_FILE).append("</location>\n    </files>\n")
+            .append("    <id index=\"0\"/>\n");
+        for (int i = 0; i < TERMS.size(); i++) {
+            sb.append("    <field index=\"").append(i + 1).append("\" term=\"").append(TERMS.get(i).qualifiedName()).append("\"/>\n");
+        }
+        sb.append("  </core>\n</archive>\n");
+        return sb.toString();
+    }
+}
@@ -0,0 +1,84 @@
+package org.gbif.checklistbank;
+
+import org.gbif.dwc.terms.DcTerm;
+import org.gbif.dwc.terms.DwcTerm;
+import org.gbif.dwc.terms.GbifTerm;
+import org.gbif.dwc.terms.Term;
+import org.gbif.dwc.terms.TermFactory;
+
+import javax.annotation.Nullable;
+
+/**
+ * Archive extensions imported together with their core taxon record.
+ * Small extensions with few fixed columns are packed into parallel string array properties on the taxon node,
+ * one array per column named [prefix].[term], missing values being empty strings.
+ * Extensions with many or open columns become separate EXTENSION nodes linked to the taxon via HAS_EXTENSION.
+ */
+public enum Extension {
+    VERNACULAR_NAME(GbifTerm.VernacularName, Storage.ARRAY, "vernacular",
+        DwcTerm.vernacularName, DcTerm.language, DwcTerm.countryCode, DwcTerm.locality),
+
+    DISTRIBUTION(GbifTerm.Distribution, Storage.ARRAY, "distribution",
+        DwcTerm.locationID, DwcTerm.locality, DwcTerm.countryCode, DwcTerm.occurrenceStatus, DwcTerm.establishmentMeans),
+
+    REFERENCE(GbifTerm.Reference, Storage.NODE, null);
+
+    public enum Storage {
+        /**
+         * Parallel string arrays on the taxon node.
+         */
+        ARRAY,
+        /**
+         * A linked node per extension record holding all its values.
+         */
+        NODE
+    }
+
+    private final Term rowType;
+    private final Storage storage;
+    private final String prefix;
+    private final Term[] terms;
+
+    private Extension(Term rowType, Storage storage, String prefix, Term... terms) {
+        this.rowType = rowType;
+        this.storage = storage;
+        this.prefix = prefix;
+        this.terms = terms;
+    }
+
+    public Term getRowType() {
+        return rowType;
+    }
+
+    public Storage getStorage() {
+        return storage;
+    }
+
+    /**
+     * @return the columns stored for array extensions, empty for node extensions which keep all columns
+     */
+    public Term[] getTerms() {
+        return terms;
+    }
+
+    /**
+     * @return the name of the array property holding the given column
+     */
+    public String property(Term term) {
+        return prefix + "." + term.simpleName();
+    }
+
+    /**
+     * @return the extension for the given archive row type or null if it is not imported
+     */
+    @Nullable
+    public static Extension fromRowType(String rowType) {
+        Term t = TermFactory.instance().findTerm(rowType);
+        for (Extension ext : values()) {
+            if (ext.rowType.equals(t)) {
+                return ext;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,170 @@
+package org.gbif.checklistbank;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Lists;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Sorts any number of text lines in their natural string order within a bounded memory budget.
+ * Lines are buffered until the estimated buffer size exceeds the budget, then sorted and spilled to a run file.
+ * The sorted result is a k-way merge over all runs.
+ * Lines must not contain line breaks.
+ */
+public class ExternalSorter implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(ExternalSorter.class);
+    // rough java object overhead of a buffered string
+    private static final int BYTES_PER_LINE = 64;
+    private static final int IO_BUFFER = 64 * 1024;
+
+    private final File dir;
+    private final long maxBytes;
+    private final List<String> buffer = Lists.newArrayList();
+    private final List<File> runs = Lists.newArrayList();
+    private final List<BufferedReader> readers = Lists.newArrayList();
+    private long bytes;
+    private long size;
+    private boolean sorted = false;
+
+    /**
+     * @param dir          directory to spill sorted runs to
+     * @param maxMegabytes estimated heap size of buffered lines after which a run is spilled
+     */
+    public ExternalSorter(File dir, int maxMegabytes) {
+        this.dir = dir;
+        this.maxBytes = maxMegabytes * 1024L * 1024L;
+        dir.mkdirs();
+    }
+
+    public void add(String line) throws IOException {
+        Preconditions.checkState(!sorted, "Cannot add lines after sorting");
+        buffer.add(line);
+        size++;
+        bytes += 2L * line.length() + BYTES_PER_LINE;
+        if (bytes >= maxBytes) {
+            spill();
+        }
+    }
+
+    /**
+     * @return number of lines added
+     */
+    public long size() {
+        return size;
+    }
+
+    private void spill() throws IOException {
+        Collections.sort(buffer);
+        File run = new File(dir, "run-" + runs.size());
+        try (Writer w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(run), Charsets.UTF_8), IO_BUFFER)) {
+            for (String line : buffer) {
+                w.write(line);
+                w.write('\n');
+            }
+        }
+        LOG.debug("Spilled sorted run {} with {} lines", runs.size(), buffer.size());
+        runs.add(run);
+        buffer.clear();
+        bytes = 0;
+    }
+
+    /**
+     * Sorts all added lines. Can only be called once.
+     * @return iterator over all lines in sorted order, valid until the sorter is closed
+     */
+    public Iterator<String> sorted() throws IOException {
+        Preconditions.checkState(!sorted, "Lines have been sorted already");
+        sorted = true;
+        if (runs.isEmpty()) {
+            Collections.sort(buffer);
+            return buffer.iterator();
+        }
+        if (!buffer.isEmpty()) {
+            spill();
+        }
+        LOG.debug("Merging {} sorted runs with {} lines", runs.size(), size);
+        final PriorityQueue<Run> queue = new PriorityQueue<Run>(runs.size());
+        for (File f : runs) {
+            BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(f), Charsets.UTF_8), IO_BUFFER);
+            readers.add(r);
+            Run run = new Run(r);
+            if (run.next()) {
+                queue.add(run);
+            }
+        }
+        return new AbstractIterator<String>() {
+            @Override
+            protected String computeNext() {
+                Run run = queue.poll();
+                if (run == null) {
+                    return endOfData();
+                }
+                String line = run.line;
+                try {
+                    if (run.next()) {
+                        queue.add(run);
+                    }
+                } catch (IOException e) {
+                    throw Throwables.propagate(e);
+                }
+                return line;
+            }
+        };
+    }
+
+    /**
+     * A spilled run with its current head line.
+     */
+    private static class Run implements Comparable<Run> {
+        private final BufferedReader reader;
+        private String line;
+
+        private Run(BufferedReader reader) {
+            this.reader = reader;
+        }
+
+        private boolean next() throws IOException {
+            line = reader.readLine();
+            return line != null;
+        }
+
+        @Override
+        public int compareTo(Run o) {
+            return line.compareTo(o.line);
+        }
+    }
+
+    /**
+     * Closes and removes all run files.
+     */
+    @Override
+    public void close() throws IOException {
+        for (BufferedReader r : readers) {
+            r.close();
+        }
+        for (File f : runs) {
+            if (!f.delete()) {
+                LOG.warn("Failed to remove sorted run {}", f.getAbsolutePath());
+            }
+        }
+        buffer.clear();
+    }
+}
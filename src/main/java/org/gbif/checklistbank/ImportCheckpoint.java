@@ -0,0 +1,213 @@
+package org.gbif.checklistbank;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.StandardCopyOption;
+import java.util.EnumSet;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Progress of an import kept in a properties file in the store directory, so a crashed or stopped import
+ * continues where it left off instead of starting from scratch.
+ * Every phase is either done or may hold named progress values like the last archive row inserted,
+ * which are dropped once the phase is done. Checkpoints are only saved for data already committed or flushed,
+ * e.g. from a BatchTransaction commit listener, and are written atomically.
+ * The checkpoint also records the path, size and modification time of the archive it belongs to,
+ * so progress is never applied to a different or changed archive.
+ */
+public class ImportCheckpoint {
+    private static final Logger LOG = LoggerFactory.getLogger(ImportCheckpoint.class);
+    public static final String FILENAME = "checkpoint.properties";
+    private static final String DONE = "done";
+    private static final String ARCHIVE_PATH = "archive.path";
+    private static final String ARCHIVE_SIZE = "archive.size";
+    private static final String ARCHIVE_MODIFIED = "archive.modified";
+
+    /**
+     * The import phases in the order they run.
+     */
+    public enum Phase {
+        INSERT, INDEX, RELATIONS, VALIDATION, NESTED_SET, BASIONYM_GROUPS;
+
+        private String key(String name) {
+            return name().toLowerCase() + "." + name;
+        }
+
+        /**
+         * Parses a comma separated list of phase names or "all".
+         */
+        public static Set<Phase> parse(String phases) {
+            if (phases.equalsIgnoreCase("all")) {
+                return EnumSet.allOf(Phase.class);
+            }
+            Set<Phase> set = EnumSet.noneOf(Phase.class);
+            for (String p : Splitter.on(',').trimResults().omitEmptyStrings().split(phases)) {
+                set.add(Phase.valueOf(p.toUpperCase().replace('-', '_')));
+            }
+            return set;
+        }
+    }
+
+    private final File file;
+    private final Properties props = new Properties();
+
+    private ImportCheckpoint(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Reads the checkpoint of a store, which is empty for new stores.
+     */
+    public static ImportCheckpoint load(File storeDir) {
+        ImportCheckpoint cp = new ImportCheckpoint(new File(storeDir, FILENAME));
+        if (cp.file.exists()) {
+            try (InputStream in = new FileInputStream(cp.file)) {
+                cp.props.load(in);
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to read import checkpoint " + cp.file, e);
+            }
+            LOG.info("Loaded import checkpoint {}", cp.props);
+        }
+        return cp;
+    }
+
+    /**
+     * @return true if no phase has been started or done yet
+     */
+    public boolean isEmpty() {
+        for (String key : props.stringPropertyNames()) {
+            if (!key.startsWith("archive.")) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the checkpoint was recorded for the given archive and the archive is unchanged since
+     */
+    public boolean isFor(File archive) {
+        return archive.getAbsolutePath().equals(props.getProperty(ARCHIVE_PATH))
+            && String.valueOf(size(archive)).equals(props.getProperty(ARCHIVE_SIZE))
+            && String.valueOf(modified(archive)).equals(props.getProperty(ARCHIVE_MODIFIED));
+    }
+
+    /**
+     * Records the archive the checkpoint belongs to in memory, call save() to persist it.
+     */
+    public void setArchive(File archive) {
+        props.setProperty(ARCHIVE_PATH, archive.getAbsolutePath());
+        props.setProperty(ARCHIVE_SIZE, String.valueOf(size(archive)));
+        props.setProperty(ARCHIVE_MODIFIED, String.valueOf(modified(archive)));
+    }
+
+    /**
+     * @return the file size or, for unzipped archive directories, the sum of all file sizes
+     */
+    private static long size(File archive) {
+        long size = 0;
+        for (File f : Files.fileTreeTraverser().preOrderTraversal(archive)) {
+            size += f.isFile() ? f.length() : 0;
+        }
+        return size;
+    }
+
+    /**
+     * @return the last modification time of the archive file or of any file in an archive directory
+     */
+    private static long modified(File archive) {
+        long modified = 0;
+        for (File f : Files.fileTreeTraverser().preOrderTraversal(archive)) {
+            modified = Math.max(modified, f.lastModified());
+        }
+        return modified;
+    }
+
+    public boolean isDone(Phase phase) {
+        return props.containsKey(phase.key(DONE));
+    }
+
+    /**
+     * Marks a phase as done, removing all its progress values, and saves the checkpoint.
+     */
+    public void done(Phase phase) {
+        clear(phase);
+        props.setProperty(phase.key(DONE), "true");
+        save();
+    }
+
+    /**
+     * Forgets that a phase was done or started, so it runs again from the beginning.
+     */
+    public void reset(Phase phase) {
+        clear(phase);
+        save();
+    }
+
+    private void clear(Phase phase) {
+        final String prefix = phase.key("");
+        for (String key : Lists.newArrayList(props.stringPropertyNames())) {
+            if (key.startsWith(prefix)) {
+                props.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Forgets all phases, keeping the archive the checkpoint belongs to.
+     */
+    public void reset() {
+        for (Phase phase : Phase.values()) {
+            clear(phase);
+        }
+        save();
+    }
+
+    public boolean has(Phase phase, String name) {
+        return props.containsKey(phase.key(name));
+    }
+
+    public long get(Phase phase, String name, long defaultValue) {
+        String val = props.getProperty(phase.key(name));
+        return val == null ? defaultValue : Long.parseLong(val);
+    }
+
+    /**
+     * Sets a progress value in memory, call save() once the matching data is committed.
+     */
+    public void set(Phase phase, String name, long value) {
+        props.setProperty(phase.key(name), String.valueOf(value));
+    }
+
+    /**
+     * Writes the checkpoint to a temporary file which then replaces the previous checkpoint.
+     */
+    public void save() {
+        file.getParentFile().mkdirs();
+        File tmp = new File(file.getParentFile(), FILENAME + ".tmp");
+        try {
+            try (OutputStream out = new FileOutputStream(tmp)) {
+                props.store(out, "clbneo import checkpoint");
+            }
+            java.nio.file.Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to write import checkpoint " + file, e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return props.toString();
+    }
+}
@@ -0,0 +1,267 @@
+package org.gbif.checklistbank;
+
+import com.google.common.base.Function;
+import com.google.common.base.Throwables;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.gbif.dwc.record.Record;
+import org.gbif.dwc.terms.Term;
+import org.gbif.dwc.text.Archive;
+import org.gbif.dwc.text.StarRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Pipelined archive reader that parses core records on several worker threads, feeding a single consumer
+ * like the batch inserter with the parsed results in the original archive order.
+ * A reader thread copies the raw values of chunks of records and hands them to the parser pool.
+ * Rows of the imported extensions are copied together with their core record, so they need no extra archive pass.
+ * The pending chunks are kept in a bounded queue so memory stays limited even if the consumer is slower.
+ *
+ * @param <T> the parsed record type
+ */
+public class ImportPipeline<T> implements Iterable<T>, AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(ImportPipeline.class);
+    private static final int CHUNK_SIZE = 1000;
+
+    private final Archive arch;
+    private final Function<RawRecord, T> parser;
+    private final int threads;
+    private final BlockingQueue<Future<List<T>>> queue;
+    private final Future<List<T>> end = Futures.immediateFuture(null);
+    private ExecutorService executor;
+    private Thread reader;
+
+    /**
+     * Raw, not yet normalised values of a single core record and its extension rows.
+     */
+    public static class RawRecord {
+        private final long row;
+        private final Term[] terms;
+        private final String id;
+        private final String[] values;
+        private Map<Extension, Term[]> extensionTerms;
+        private Map<Extension, List<String[]>> extensions;
+
+        private RawRecord(long row, Record core, Term[] terms) {
+            this.row = row;
+            this.terms = terms;
+            id = core.id();
+            values = new String[terms.length];
+            for (int i = 0; i < terms.length; i++) {
+                values[i] = core.value(terms[i]);
+            }
+        }
+
+        /**
+         * @return the zero based position of the record in the archive
+         */
+        public long row() {
+            return row;
+        }
+
+        public String id() {
+            return id;
+        }
+
+        public Term[] terms() {
+            return terms;
+        }
+
+        public String value(int idx) {
+            return values[idx];
+        }
+
+        public String value(Term term) {
+            for (int i = 0; i < terms.length; i++) {
+                if (terms[i].equals(term)) {
+                    return values[i];
+                }
+            }
+            return null;
+        }
+
+        private void addExtension(Extension ext, Term[] extTerms, List<Record> records) {
+            if (extensions == null) {
+                extensionTerms = Maps.newEnumMap(Extension.class);
+                extensions = Maps.newEnumMap(Extension.class);
+            }
+            List<String[]> rows = Lists.newArrayListWithCapacity(records.size());
+            for (Record rec : records) {
+                String[] row = new String[extTerms.length];
+                for (int i = 0; i < extTerms.length; i++) {
+                    row[i] = rec.value(extTerms[i]);
+                }
+                rows.add(row);
+            }
+            extensionTerms.put(ext, extTerms);
+            extensions.put(ext, rows);
+        }
+
+        /**
+         * @return the extensions with at least one row for this record
+         */
+        public Set<Extension> extensions() {
+            return extensions == null ? Collections.<Extension>emptySet() : extensions.keySet();
+        }
+
+        /**
+         * @return the columns of the extension rows
+         */
+        public Term[] extensionTerms(Extension ext) {
+            return extensionTerms.get(ext);
+        }
+
+        /**
+         * @return the raw extension rows with values in the order of extensionTerms
+         */
+        public List<String[]> extension(Extension ext) {
+            return extensions.get(ext);
+        }
+    }
+
+    /**
+     * @param parser     function turning a raw record into the parsed result, called concurrently from several threads
+     * @param threads    number of parser threads
+     * @param queueDepth max number of chunks of records waiting to be consumed
+     */
+    public ImportPipeline(Archive arch, Function<RawRecord, T> parser, int threads, int queueDepth) {
+        this.arch = arch;
+        this.parser = parser;
+        this.threads = Math.max(1, threads);
+        queue = new ArrayBlockingQueue<Future<List<T>>>(Math.max(1, queueDepth));
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        if (reader != null) {
+            throw new IllegalStateException("Pipeline can only be iterated once");
+        }
+        LOG.debug("Start import pipeline with {} parser threads and a queue of {} chunks", threads,
+            queue.remainingCapacity());
+        executor = Executors.newFixedThreadPool(threads,
+            new ThreadFactoryBuilder().setNameFormat("parser-%d").setDaemon(true).build());
+        reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                read();
+            }
+        }, "archive-reader");
+        reader.setDaemon(true);
+        reader.start();
+
+        return new AbstractIterator<T>() {
+            private Iterator<T> chunk = Iterators.emptyIterator();
+
+            @Override
+            protected T computeNext() {
+                try {
+                    while (!chunk.hasNext()) {
+                        Future<List<T>> f = queue.take();
+                        if (f == end) {
+                            return endOfData();
+                        }
+                        chunk = f.get().iterator();
+                    }
+                    return chunk.next();
+
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Import pipeline interrupted", e);
+                } catch (ExecutionException e) {
+                    throw Throwables.propagate(e.getCause());
+                }
+            }
+        };
+    }
+
+    private void read() {
+        try {
+            try {
+                Term[] terms = null;
+                Map<String, Extension> extByRowType = Maps.newHashMap();
+                Map<Extension, Term[]> extTerms = Maps.newEnumMap(Extension.class);
+                List<RawRecord> chunk = Lists.newArrayListWithCapacity(CHUNK_SIZE);
+                long row = 0;
+                for (StarRecord star : arch) {
+                    if (terms == null) {
+                        terms = star.core().terms().toArray(new Term[0]);
+                    }
+                    RawRecord raw = new RawRecord(row++, star.core(), terms);
+                    for (Map.Entry<String, List<Record>> e : star.extensions().entrySet()) {
+                        if (!extByRowType.containsKey(e.getKey())) {
+                            extByRowType.put(e.getKey(), Extension.fromRowType(e.getKey()));
+                        }
+                        final Extension ext = extByRowType.get(e.getKey());
+                        if (ext == null || e.getValue().isEmpty()) {
+                            continue;
+                        }
+                        if (!extTerms.containsKey(ext)) {
+                            extTerms.put(ext, ext.getStorage() == Extension.Storage.ARRAY ? ext.getTerms()
+                                : e.getValue().get(0).terms().toArray(new Term[0]));
+                        }
+                        raw.addExtension(ext, extTerms.get(ext), e.getValue());
+                    }
+                    chunk.add(raw);
+                    if (chunk.size() == CHUNK_SIZE) {
+                        queue.put(submit(chunk));
+                        chunk = Lists.newArrayListWithCapacity(CHUNK_SIZE);
+                    }
+                }
+                if (!chunk.isEmpty()) {
+                    queue.put(submit(chunk));
+                }
+            } catch (InterruptedException e) {
+                throw e;
+            } catch (Throwable e) {
+                // includes errors like OOM, the consumer must not wait forever for the end marker
+                LOG.error("Failed to read archive", e);
+                queue.put(Futures.<List<T>>immediateFailedFuture(e));
+            }
+            queue.put(end);
+
+        } catch (InterruptedException e) {
+            LOG.debug("Archive reader interrupted");
+        }
+    }
+
+    private Future<List<T>> submit(final List<RawRecord> raw) {
+        return executor.submit(new Callable<List<T>>() {
+            @Override
+            public List<T> call() throws Exception {
+                List<T> parsed = Lists.newArrayListWithCapacity(raw.size());
+                for (RawRecord r : raw) {
+                    parsed.add(parser.apply(r));
+                }
+                return parsed;
+            }
+        });
+    }
+
+    @Override
+    public void close() {
+        if (reader != null) {
+            reader.interrupt();
+        }
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -1,44 +1,215 @@
 package org.gbif.checklistbank;
 
+import com.google.common.collect.ImmutableList;
+import com.yammer.metrics.Meter;
+import org.gbif.api.vocabulary.Rank;
 import org.gbif.checklistbank.traverse.StartEndHandler;
+import org.gbif.dwc.terms.DwcTerm;
 import org.gbif.dwc.terms.Term;
+import org.neo4j.graphdb.Direction;
 import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+
 /**
- * Builds a nested set index for parent child related nodes.
+ * Builds a nested set index for parent child related nodes and writes the complete usage metrics for every node.
+ * The classification keys of the current path are kept in a stack indexed by the major ranks,
+ * children are counted as they are walked and synonyms are counted and updated when their accepted taxon ends.
+ * Synonyms inherit the classification keys of their accepted taxon.
+ * Handlers walking subtrees concurrently can defer these synonym updates, as a synonym may be placed
+ * in a different subtree than its accepted taxon, and apply them afterwards in sequential walk order.
  */
 public class ImportTaxonMetricsHandler implements StartEndHandler {
     private static final Logger LOG = LoggerFactory.getLogger(ImportTaxonMetricsHandler.class);
-    private static final String PROP_LFT = "lft";
-    private static final String PROP_RGT = "rgt";
+    private static final String PROP_LFT = NeoUtils.PROP_LFT;
+    private static final String PROP_RGT = NeoUtils.PROP_RGT;
+    // the major ranks in the order of NeoUtils.PROP_CLASSIFICATION
+    private static final List<Rank> MAJOR_RANKS = ImmutableList.of(
+        Rank.KINGDOM, Rank.PHYLUM, Rank.CLASS, Rank.ORDER, Rank.FAMILY, Rank.GENUS, Rank.SPECIES);
 
     private final GraphDatabaseService db;
+    private final Deque<Frame> stack = new ArrayDeque<Frame>();
+    private final int[] rootClassification;
+    private final Meter progress = Instrumentation.get().meter("taxon metrics");
+    private List<SynonymUpdate> deferred;
     int idx = 0;
 
+    /**
+     * A classification to be passed on to a synonym, ordered by the nested set index
+     * at which the sequential walk would have written it.
+     */
+    public static class SynonymUpdate implements Comparable<SynonymUpdate> {
+        private final int rgt;
+        private final long synonym;
+        private final int[] classification;
+
+        private SynonymUpdate(int rgt, long synonym, int[] classification) {
+            this.rgt = rgt;
+            this.synonym = synonym;
+            this.classification = classification;
+        }
+
+        @Override
+        public int compareTo(SynonymUpdate o) {
+            return Integer.compare(rgt, o.rgt);
+        }
+    }
+
+    /**
+     * Metrics of a node currently open on the walked path.
+     */
+    private static class Frame {
+        private final Node node;
+        private final int lft;
+        private final int[] classification;
+        private int children;
+
+        private Frame(Node node, int lft, int[] classification) {
+            this.node = node;
+            this.lft = lft;
+            this.classification = classification;
+        }
+    }
+
     public ImportTaxonMetricsHandler(GraphDatabaseService db) {
+        this(db, 0, ImmutableList.<Node>of());
+    }
+
+    /**
+     * @param startIdx  the first nested set index to use, e.g. for subtrees walked in parallel
+     * @param ancestors all ancestors of the first node to be walked, starting with the root
+     */
+    public ImportTaxonMetricsHandler(GraphDatabaseService db, int startIdx, List<Node> ancestors) {
         this.db = db;
+        idx = startIdx;
+        rootClassification = emptyClassification();
+        for (Node a : ancestors) {
+            classify(a, rootClassification);
+        }
+    }
+
+    /**
+     * Collects the classifications of synonyms in the given thread safe list instead of writing them to the synonyms.
+     */
+    public void deferSynonyms(List<SynonymUpdate> updates) {
+        this.deferred = updates;
+    }
+
+    /**
+     * Writes deferred synonym classifications in the order of the sequential walk,
+     * so synonyms of several accepted taxa end up with the same keys as after a sequential walk.
+     */
+    public static void updateSynonyms(GraphDatabaseService db, List<SynonymUpdate> updates) {
+        Collections.sort(updates);
+        try (BatchTransaction tx = new BatchTransaction(db)) {
+            for (SynonymUpdate u : updates) {
+                NeoUtils.setClassification(db.getNodeById(u.synonym), u.classification);
+                tx.tick();
+            }
+            tx.success();
+        }
+        LOG.info("Updated the classification of {} synonyms", updates.size());
     }
 
     @Override
     public void start(Node n) {
-        if (idx % 5000 == 0) {
-            LOG.debug("idx = {}", idx);
+        progress.mark();
+        Frame parent = stack.peek();
+        if (parent != null) {
+            parent.children++;
         }
+        int[] cl = Arrays.copyOf(parent == null ? rootClassification : parent.classification, MAJOR_RANKS.size());
+        classify(n, cl);
+        stack.push(new Frame(n, idx, cl));
         n.setProperty(PROP_LFT, idx++);
     }
 
     @Override
     public void end(Node n) {
-        if (idx % 5000 == 0) {
-            LOG.debug("idx = {}", idx);
+        Frame f;
+        if (!stack.isEmpty() && stack.peek().node.equals(n)) {
+            f = stack.pop();
+        } else {
+            // the node was started by a different handler, e.g. in a parallel walk
+            int[] cl = Arrays.copyOf(rootClassification, MAJOR_RANKS.size());
+            classify(n, cl);
+            f = new Frame(n, (Integer) n.getProperty(PROP_LFT), cl);
+            for (Relationship rel : n.getRelationships(RelType.PARENT_OF, Direction.OUTGOING)) {
+                f.children++;
+            }
+        }
+
+        UsageMetrics m = new UsageMetrics();
+        m.setLft(f.lft);
+        m.setRgt(idx++);
+        m.setChildren(f.children);
+        m.setSynonyms(updateSynonyms(n, m.getRgt(), f.classification));
+        if (n.hasLabel(Labels.SYNONYM)) {
+            // synonyms keep the classification inherited from their accepted taxon
+            n.setProperty(PROP_LFT, m.getLft());
+            n.setProperty(PROP_RGT, m.getRgt());
+            n.setProperty(NeoUtils.PROP_CHILDREN, m.getChildren());
+            n.setProperty(NeoUtils.PROP_SYNONYMS, m.getSynonyms());
+        } else {
+            setClassification(m, f.classification);
+            NeoUtils.setMetrics(n, m);
         }
-        n.setProperty(PROP_RGT, idx++);
         //LOG.debug("[{}] {}   {}-{}", prop(n, DwcTerm.taxonRank), prop(n, DwcTerm.scientificName), n.getProperty(PROP_LFT), n.getProperty(PROP_RGT));
     }
 
+    /**
+     * Passes the classification on to all synonyms of the accepted node or defers it.
+     * @return the number of synonyms
+     */
+    private int updateSynonyms(Node accepted, int rgt, int[] classification) {
+        int counter = 0;
+        for (Relationship rel : accepted.getRelationships(RelType.SYNONYM_OF, Direction.INCOMING)) {
+            if (deferred != null) {
+                deferred.add(new SynonymUpdate(rgt, rel.getStartNode().getId(), classification));
+            } else {
+                NeoUtils.setClassification(rel.getStartNode(), classification);
+            }
+            counter++;
+        }
+        return counter;
+    }
+
+    /**
+     * Sets the node as the classification key for its rank if it is an accepted major rank.
+     */
+    private void classify(Node n, int[] classification) {
+        if (!n.hasLabel(Labels.SYNONYM)) {
+            int rankIdx = MAJOR_RANKS.indexOf(Ranks.parse(prop(n, DwcTerm.taxonRank)));
+            if (rankIdx >= 0) {
+                classification[rankIdx] = (int) n.getId();
+            }
+        }
+    }
+
+    private static int[] emptyClassification() {
+        int[] cl = new int[MAJOR_RANKS.size()];
+        Arrays.fill(cl, NeoUtils.NO_KEY);
+        return cl;
+    }
+
+    private static void setClassification(UsageMetrics m, int[] cl) {
+        m.setkKey(cl[0]);
+        m.setpKey(cl[1]);
+        m.setcKey(cl[2]);
+        m.setoKey(cl[3]);
+        m.setfKey(cl[4]);
+        m.setgKey(cl[5]);
+        m.setsKey(cl[6]);
+    }
+
     private String prop(Node n, Term prop) {
         return (String) n.getProperty(prop.simpleName(), null);
     }
@@ -0,0 +1,228 @@
+package org.gbif.checklistbank;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
+import com.yammer.metrics.ConsoleReporter;
+import com.yammer.metrics.CsvReporter;
+import com.yammer.metrics.Gauge;
+import com.yammer.metrics.Histogram;
+import com.yammer.metrics.JmxReporter;
+import com.yammer.metrics.Meter;
+import com.yammer.metrics.MetricRegistry;
+import com.yammer.metrics.ScheduledReporter;
+import com.yammer.metrics.Timer;
+import com.yammer.metrics.jvm.GarbageCollectorMetricSet;
+import com.yammer.metrics.jvm.MemoryUsageGaugeSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shared metrics for all import, traversal and export jobs.
+ * Provides a timer per job phase, latency timers for id lookups and transaction commits,
+ * meters for progress and gauges for heap, garbage collection, memory mapped store buffers and store size.
+ * Reporters writing to the console, csv files or JMX can be started for long running jobs.
+ * Configured via system properties when using startFromSystemProperties():
+ * <ul>
+ *   <li>clbneo.reporters: comma separated list of console, csv, jmx</li>
+ *   <li>clbneo.reportInterval: seconds between reports, default 60</li>
+ *   <li>clbneo.csvDir: directory for csv reports, default ./metrics</li>
+ * </ul>
+ */
+public class Instrumentation {
+    private static final Logger LOG = LoggerFactory.getLogger(Instrumentation.class);
+    private static final Instrumentation INSTANCE = new Instrumentation();
+
+    public enum Phase {
+        PARSE, INSERT, INDEX, RELATIONS, VALIDATION, NESTED_SET, BASIONYM_GROUPS, EXPORT
+    }
+
+    public enum ReporterType {
+        CONSOLE, CSV, JMX
+    }
+
+    private final MetricRegistry registry = new MetricRegistry("clbneo");
+    private final Gauge<?> heap;
+    private final List<ScheduledReporter> reporters = Lists.newArrayList();
+    private JmxReporter jmxReporter;
+
+    private Instrumentation() {
+        MemoryUsageGaugeSet mgs = new MemoryUsageGaugeSet();
+        registry.registerAll(mgs);
+        heap = (Gauge<?>) mgs.getMetrics().get("heap.usage");
+        registry.registerAll(new GarbageCollectorMetricSet());
+        // neo4j memory maps its store files, the mapped buffer pool shows how much of the stores is paged in
+        for (final BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            registry.register(MetricRegistry.name("buffers", pool.getName(), "used"), new Gauge<Long>() {
+                @Override
+                public Long getValue() {
+                    return pool.getMemoryUsed();
+                }
+            });
+            registry.register(MetricRegistry.name("buffers", pool.getName(), "count"), new Gauge<Long>() {
+                @Override
+                public Long getValue() {
+                    return pool.getCount();
+                }
+            });
+        }
+    }
+
+    public static Instrumentation get() {
+        return INSTANCE;
+    }
+
+    public MetricRegistry getRegistry() {
+        return registry;
+    }
+
+    /**
+     * @return the timer for an entire job phase
+     */
+    public Timer phase(Phase phase) {
+        return registry.timer(MetricRegistry.name("phase", phase.name().toLowerCase()));
+    }
+
+    /**
+     * @return latency timer for taxonID to node lookups
+     */
+    public Timer lookups() {
+        return registry.timer("lookup");
+    }
+
+    /**
+     * @return latency timer for transaction commits
+     */
+    public Timer commits() {
+        return registry.timer("commit");
+    }
+
+    /**
+     * @return a progress meter
+     */
+    public Meter meter(String name) {
+        return registry.meter(name);
+    }
+
+    /**
+     * @return a histogram of values like group sizes
+     */
+    public Histogram histogram(String name) {
+        return registry.histogram(name);
+    }
+
+    /**
+     * Registers a gauge, replacing any previous gauge of the same name.
+     */
+    public <T> void gauge(String name, Gauge<T> gauge) {
+        registry.remove(name);
+        registry.register(name, gauge);
+    }
+
+    public Object heapUsage() {
+        return heap.getValue();
+    }
+
+    /**
+     * Registers a gauge with the total size of all files in a neo4j store directory.
+     */
+    public void registerStore(final File storeDir) {
+        final String name = MetricRegistry.name("store", storeDir.getName(), "bytes");
+        if (!registry.getGauges().containsKey(name)) {
+            registry.register(name, new Gauge<Long>() {
+                @Override
+                public Long getValue() {
+                    return size(storeDir);
+                }
+            });
+        }
+    }
+
+    private static long size(File f) {
+        File[] children = f.listFiles();
+        if (children == null) {
+            return f.length();
+        }
+        long size = 0;
+        for (File c : children) {
+            size += size(c);
+        }
+        return size;
+    }
+
+    /**
+     * Starts reporters as configured by system properties, see class docs.
+     */
+    public void startFromSystemProperties() {
+        String types = System.getProperty("clbneo.reporters");
+        if (types != null) {
+            List<ReporterType> reporterTypes = Lists.newArrayList();
+            for (String type : Splitter.on(',').trimResults().omitEmptyStrings().split(types)) {
+                reporterTypes.add(ReporterType.valueOf(type.toUpperCase()));
+            }
+            start(reporterTypes,
+                Integer.parseInt(System.getProperty("clbneo.reportInterval", "60")),
+                new File(System.getProperty("clbneo.csvDir", "metrics")));
+        }
+    }
+
+    /**
+     * Starts the given reporters.
+     * @param intervalSeconds seconds between reports for the console and csv reporter
+     * @param csvDir          directory to write csv reports to
+     */
+    public synchronized void start(List<ReporterType> types, int intervalSeconds, File csvDir) {
+        for (ReporterType type : types) {
+            switch (type) {
+                case CONSOLE:
+                    ScheduledReporter console = ConsoleReporter.forRegistry(registry)
+                        .convertRatesTo(TimeUnit.SECONDS)
+                        .convertDurationsTo(TimeUnit.MILLISECONDS)
+                        .build();
+                    console.start(intervalSeconds, TimeUnit.SECONDS);
+                    reporters.add(console);
+                    break;
+                case CSV:
+                    csvDir.mkdirs();
+                    ScheduledReporter csv = CsvReporter.forRegistry(registry)
+                        .convertRatesTo(TimeUnit.SECONDS)
+                        .convertDurationsTo(TimeUnit.MILLISECONDS)
+                        .build(csvDir);
+                    csv.start(intervalSeconds, TimeUnit.SECONDS);
+                    reporters.add(csv);
+                    break;
+                case JMX:
+                    if (jmxReporter == null) {
+                        jmxReporter = JmxReporter.forRegistry(registry).build();
+                        jmxReporter.start();
+                    }
+                    break;
+            }
+            LOG.info("Started {} metrics reporter", type);
+        }
+    }
+
+    /**
+     * Writes a final report to the console and stops all reporters.
+     */
+    public synchronized void stop() {
+        ConsoleReporter.forRegistry(registry)
+            .convertRatesTo(TimeUnit.SECONDS)
+            .convertDurationsTo(TimeUnit.MILLISECONDS)
+            .build()
+            .report();
+        for (ScheduledReporter r : reporters) {
+            r.stop();
+        }
+        reporters.clear();
+        if (jmxReporter != null) {
+            jmxReporter.stop();
+            jmxReporter = null;
+        }
+    }
+}
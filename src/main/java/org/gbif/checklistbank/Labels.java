@@ -8,5 +8,13 @@ import org.neo4j.graphdb.Label;
 public enum Labels implements Label {
   TAXON,
   SYNONYM,
-  ROOT
+  ROOT,
+  /**
+   * Higher taxa not present as records but derived from the denormalised classification of records.
+   */
+  IMPLICIT,
+  /**
+   * Extension records stored as nodes linked to their taxon.
+   */
+  EXTENSION
 }
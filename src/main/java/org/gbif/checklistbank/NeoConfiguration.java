@@ -0,0 +1,146 @@
+package org.gbif.checklistbank;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.Maps;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+import org.neo4j.unsafe.batchinsert.BatchInserter;
+import org.neo4j.unsafe.batchinsert.BatchInserters;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Neo4j store settings organised in named profiles, each sized for a different kind of work on the store.
+ * A profile is merged from the following sources, later ones overriding earlier ones:
+ * <ol>
+ *   <li>neo/default.properties and neo/[profile].properties on the classpath</li>
+ *   <li>default.properties and [profile].properties in the directory given by the system property clbneo.config</li>
+ *   <li>system properties named clbneo.[profile].[key], e.g. -Dclbneo.export.cache_type=soft</li>
+ * </ol>
+ * Keys starting with clbneo. are used by clbneo itself, all others are neo4j settings.
+ * Neo4j 2.1 has no separate page cache, the mapped_memory settings per store file take its role.
+ * The store directory is shared by all profiles and can also be set with the system property clbneo.store_dir.
+ */
+public class NeoConfiguration {
+    private static final Logger LOG = LoggerFactory.getLogger(NeoConfiguration.class);
+    public static final String PREFIX = "clbneo.";
+    public static final String STORE_DIR = PREFIX + "store_dir";
+    public static final String CONFIG_DIR = PREFIX + "config";
+    private static final String DEFAULT = "default";
+
+    public enum Profile {
+        /**
+         * Batch insert of nodes and relations.
+         */
+        BULK_IMPORT("bulk-import"),
+        /**
+         * Transactional relation setup, validation and nested set walks.
+         */
+        TRAVERSAL("traversal"),
+        /**
+         * Read only walks exporting the entire store.
+         */
+        EXPORT("export");
+
+        private final String name;
+
+        Profile(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    private NeoConfiguration() {
+    }
+
+    /**
+     * @return all merged settings of a profile
+     */
+    public static Properties properties(Profile profile) {
+        Properties props = new Properties();
+        load(props, DEFAULT);
+        load(props, profile.getName());
+        final String sysPrefix = PREFIX + profile.getName() + ".";
+        for (String key : System.getProperties().stringPropertyNames()) {
+            if (key.startsWith(sysPrefix)) {
+                props.setProperty(key.substring(sysPrefix.length()), System.getProperty(key));
+            }
+        }
+        return props;
+    }
+
+    private static void load(Properties props, String name) {
+        final String file = name + ".properties";
+        try (InputStream in = NeoConfiguration.class.getResourceAsStream("/neo/" + file)) {
+            if (in != null) {
+                props.load(in);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to read neo configuration " + file, e);
+        }
+        final String dir = System.getProperty(CONFIG_DIR);
+        if (dir != null && new File(dir, file).exists()) {
+            try (InputStream in = new FileInputStream(new File(dir, file))) {
+                props.load(in);
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to read neo configuration " + file + " in " + dir, e);
+            }
+        }
+    }
+
+    /**
+     * @return the neo4j settings of a profile
+     */
+    public static Map<String, String> neoSettings(Profile profile) {
+        Map<String, String> settings = Maps.newHashMap();
+        Properties props = properties(profile);
+        for (String key : props.stringPropertyNames()) {
+            if (!key.startsWith(PREFIX)) {
+                settings.put(key, props.getProperty(key));
+            }
+        }
+        return settings;
+    }
+
+    /**
+     * @return the store directory of the named checklist
+     */
+    public static File storeDir(String name) {
+        String dir = System.getProperty(STORE_DIR);
+        if (Strings.isNullOrEmpty(dir)) {
+            Properties props = new Properties();
+            load(props, DEFAULT);
+            dir = props.getProperty(STORE_DIR);
+        }
+        File root = Strings.isNullOrEmpty(dir) ? new File(System.getProperty("user.home"), "neodbs") : new File(dir);
+        return new File(root, name);
+    }
+
+    /**
+     * Opens an embedded database with the settings of the given profile.
+     */
+    public static GraphDatabaseService open(File storeDir, Profile profile) {
+        LOG.info("Open neo4j store {} with {} profile", storeDir.getAbsolutePath(), profile.getName());
+        return new GraphDatabaseFactory().newEmbeddedDatabaseBuilder(storeDir.getAbsolutePath())
+            .setConfig(neoSettings(profile))
+            .newGraphDatabase();
+    }
+
+    /**
+     * Opens a batch inserter with the settings of the bulk import profile.
+     */
+    public static BatchInserter inserter(File storeDir) {
+        LOG.info("Open neo4j batch inserter for {} with {} profile", storeDir.getAbsolutePath(), Profile.BULK_IMPORT.getName());
+        return BatchInserters.inserter(storeDir.getAbsolutePath(), neoSettings(Profile.BULK_IMPORT));
+    }
+}
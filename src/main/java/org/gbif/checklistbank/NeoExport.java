@@ -1,67 +1,347 @@
 package org.gbif.checklistbank;
 
+import com.yammer.metrics.Meter;
+import com.yammer.metrics.Timer;
+import org.gbif.api.vocabulary.Rank;
+import org.gbif.checklistbank.names.NameIndex;
+import org.gbif.checklistbank.names.NameIndexWriter;
+import org.gbif.checklistbank.snapshot.TreeSnapshot;
+import org.gbif.checklistbank.snapshot.TreeSnapshotWriter;
+import org.gbif.checklistbank.traverse.StartEndHandler;
+import org.gbif.checklistbank.traverse.TaxonWalker;
 import org.gbif.dwc.terms.DwcTerm;
 import org.gbif.dwc.terms.Term;
+import org.neo4j.graphdb.Direction;
 import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Path;
+import org.neo4j.graphdb.Relationship;
 import org.neo4j.graphdb.Transaction;
-import org.neo4j.graphdb.factory.GraphDatabaseFactory;
 import org.neo4j.graphdb.schema.Schema;
 import org.neo4j.helpers.collection.IteratorUtil;
+import org.neo4j.tooling.GlobalGraphOperations;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.Deque;
 import java.util.List;
+import java.util.UUID;
 
 /**
- * Reads a neo checklist and writes it to a postgres checklistbank.
+ * Reads a neo checklist and writes it to a postgres checklistbank, a Darwin Core Archive, a tree snapshot or a name index.
+ * All usages are streamed in taxonomic order straight from the graph walk into postgres using the COPY protocol.
  */
 public class NeoExport {
   private static final Logger LOG = LoggerFactory.getLogger(NeoExport.class);
+  // temporary staging table in the export transaction, the checklistbank tables are only written by set based inserts
+  private static final String TABLE_STAGE = "clbneo_usage";
+  private static final String TABLE_STAGE_NAME = "clbneo_name";
+  private static final String[] STAGE_COLUMNS = {"node", "parent_node", "basionym_node", "is_synonym", "rank",
+    "scientific_name", "canonical_name", "taxon_id", "lft", "rgt", "kingdom_node", "phylum_node", "class_node",
+    "order_node", "family_node", "genus_node", "species_node", "count_children", "count_synonyms"};
+  private static final String SQL_STAGE = "CREATE TEMP TABLE " + TABLE_STAGE + " ("
+    + "node bigint NOT NULL, parent_node bigint, basionym_node bigint, is_synonym boolean NOT NULL, rank text, "
+    + "scientific_name text NOT NULL, canonical_name text, taxon_id text, lft integer, rgt integer, "
+    + "kingdom_node bigint, phylum_node bigint, class_node bigint, order_node bigint, family_node bigint, "
+    + "genus_node bigint, species_node bigint, count_children integer, count_synonyms integer) ON COMMIT DROP";
+  private static final String SQL_DELETE_METRICS = "DELETE FROM name_usage_metrics WHERE dataset_key = ?";
+  private static final String SQL_DELETE_USAGES = "DELETE FROM name_usage WHERE dataset_key = ?";
+  // blocks concurrent writers while a block of ids is reserved from the name_usage sequence
+  private static final String SQL_LOCK = "LOCK TABLE name_usage IN SHARE ROW EXCLUSIVE MODE";
+  private static final String SQL_INSERT_NAMES = "INSERT INTO name (scientific_name, canonical_name) "
+    + "SELECT DISTINCT ON (s.scientific_name) s.scientific_name, s.canonical_name FROM " + TABLE_STAGE + " s "
+    + "WHERE NOT EXISTS (SELECT 1 FROM name n WHERE n.scientific_name = s.scientific_name)";
+  private static final String SQL_STAGE_NAMES = "CREATE TEMP TABLE " + TABLE_STAGE_NAME + " ON COMMIT DROP AS "
+    + "SELECT scientific_name, min(id) AS id FROM name "
+    + "WHERE scientific_name IN (SELECT scientific_name FROM " + TABLE_STAGE + ") GROUP BY scientific_name";
+  private static final String SQL_INSERT_USAGES = "INSERT INTO name_usage (id, dataset_key, name_fk, rank, "
+    + "parent_fk, basionym_fk, is_synonym, taxon_id, lft, rgt, "
+    + "kingdom_fk, phylum_fk, class_fk, order_fk, family_fk, genus_fk, species_fk) "
+    + "SELECT {0}+s.node, ?, n.id, s.rank::rank, {0}+s.parent_node, {0}+s.basionym_node, s.is_synonym, s.taxon_id, "
+    + "s.lft, s.rgt, {0}+s.kingdom_node, {0}+s.phylum_node, {0}+s.class_node, {0}+s.order_node, "
+    + "{0}+s.family_node, {0}+s.genus_node, {0}+s.species_node "
+    + "FROM " + TABLE_STAGE + " s JOIN " + TABLE_STAGE_NAME + " n USING (scientific_name)";
+  private static final String SQL_INSERT_METRICS = "INSERT INTO name_usage_metrics (usage_fk, dataset_key, "
+    + "count_children, count_synonyms) SELECT {0}+s.node, ?, s.count_children, s.count_synonyms FROM " + TABLE_STAGE + " s";
+
   private GraphDatabaseService db;
-  private static final String PROP_LFT = "lft";
-  private static final String PROP_RGT = "rgt";
-  private int idx = 0;
-
-  public void exportDwca(String name) {
-    initNeo(name);
-    initClb();
-    syncClb();
-    db.shutdown();
+  private final String jdbcUrl;
+  private final String user;
+  private final String password;
+  private Connection con;
+
+  public NeoExport(String jdbcUrl, String user, String password) {
+    this.jdbcUrl = jdbcUrl;
+    this.user = user;
+    this.password = password;
   }
 
-  private void initClb() {
-    //TODO: setup simple direct JDBC prepared statements
+  /**
+   * Exports the neo checklist with the given name into the name_usage, name and name_usage_metrics tables
+   * of the checklistbank postgres database, replacing all previous usages of the dataset in a single transaction.
+   */
+  public void exportClb(String name, UUID datasetKey) throws SQLException {
+    initNeo(name, NeoConfiguration.Profile.EXPORT);
+    try {
+      initClb();
+      syncClb(datasetKey);
+    } finally {
+      closeClb();
+      db.shutdown();
+    }
   }
 
-  private void syncClb() {
+  /**
+   * Writes the tree of the neo checklist with the given name into a memory mapped snapshot file
+   * in its store directory, see TreeSnapshot.
+   */
+  public void exportSnapshot(String name) throws IOException {
+    initNeo(name, NeoConfiguration.Profile.EXPORT);
+    try {
+      TreeSnapshotWriter.write(db, new File(NeoUtils.neoDir(name), TreeSnapshot.FILENAME));
+    } finally {
+      db.shutdown();
+    }
+  }
 
+  /**
+   * Writes the canonical names of the neo checklist with the given name into a memory mapped name index
+   * in its store directory, see NameIndex.
+   */
+  public void exportNameIndex(String name) throws IOException {
+    initNeo(name, NeoConfiguration.Profile.EXPORT);
+    try {
+      NameIndexWriter.write(db, new File(NeoUtils.neoDir(name), NameIndex.FILENAME));
+    } finally {
+      db.shutdown();
+    }
+  }
 
+  /**
+   * Writes the neo checklist with the given name into a zipped Darwin Core Archive.
+   */
+  public void exportDwca(String name, File archive) throws IOException {
+    initNeo(name, NeoConfiguration.Profile.EXPORT);
+    Timer.Context timer = Instrumentation.get().phase(Instrumentation.Phase.EXPORT).time();
+    try {
+      new DwcaWriter(db).write(archive);
+    } finally {
+      timer.stop();
+      db.shutdown();
+    }
+  }
+
+  private void initClb() throws SQLException {
+    LOG.info("Connect to checklistbank at {}", jdbcUrl);
+    con = DriverManager.getConnection(jdbcUrl, user, password);
+    con.setAutoCommit(false);
   }
 
-  private void syncNameUsage(Node n){
-      // for the end event
+  private void closeClb() throws SQLException {
+    if (con != null) {
+      con.close();
+      con = null;
+    }
+  }
+
+  /**
+   * Copies all usages into a temporary staging table and replaces the usages of the dataset with them.
+   * Usage ids are the neo node ids shifted into a block reserved from the name_usage sequence,
+   * so parent, accepted, basionym and classification keys are known while walking.
+   * Any failure rolls back the whole transaction and is rethrown.
+   */
+  private void syncClb(UUID datasetKey) throws SQLException {
+    Timer.Context timer = Instrumentation.get().phase(Instrumentation.Phase.EXPORT).time();
+    try (Transaction tx = db.beginTx()) {
+      execute(SQL_STAGE);
+      long copied = copyUsages();
+      replaceDataset(datasetKey);
+      con.commit();
+      LOG.info("Exported {} name usages", copied);
 
+    } catch (SQLException | RuntimeException e) {
+      try {
+        con.rollback();
+      } catch (SQLException e2) {
+        e.addSuppressed(e2);
+      }
+      throw e;
+
+    } finally {
+      timer.stop();
+    }
+  }
+
+  /**
+   * Streams all taxa into the staging table, first in taxonomic order and then all taxa the walk did not reach,
+   * e.g. synonyms of taxa outside the tree.
+   * @return number of copied usages
+   */
+  private long copyUsages() throws SQLException {
+    PgCopyWriter stage = new PgCopyWriter(con, TABLE_STAGE, STAGE_COLUMNS);
+    try {
+      CopyHandler handler = new CopyHandler(stage);
+      TaxonWalker.walkAll(db, handler);
+      handler.copyUnwalked();
+      stage.close();
+      return stage.getRows();
+
+    } catch (SQLException | RuntimeException e) {
+      // the walk wraps sql errors of the handler
+      final SQLException sqlCause = e.getCause() instanceof SQLException ? (SQLException) e.getCause() : null;
+      try {
+        stage.cancel();
+      } catch (SQLException e2) {
+        (sqlCause == null ? e : sqlCause).addSuppressed(e2);
+      }
+      if (sqlCause != null) {
+        throw sqlCause;
+      }
+      throw e;
+    }
+  }
+
+  private void replaceDataset(UUID datasetKey) throws SQLException {
+    int deleted = update(SQL_DELETE_METRICS, datasetKey);
+    deleted += update(SQL_DELETE_USAGES, datasetKey);
+    LOG.debug("Removed {} existing usage and metrics rows of dataset {}", deleted, datasetKey);
+    execute(SQL_LOCK);
+    final long base = reserveIds();
+    execute(SQL_INSERT_NAMES);
+    execute(SQL_STAGE_NAMES);
+    int usages = update(SQL_INSERT_USAGES.replace("{0}", String.valueOf(base)), datasetKey);
+    update(SQL_INSERT_METRICS.replace("{0}", String.valueOf(base)), datasetKey);
+    LOG.info("Inserted {} name usages of dataset {} with ids from {}", usages, datasetKey, base);
+  }
+
+  /**
+   * @return the first of a block of name_usage ids, one for every node id up to the largest copied one
+   */
+  private long reserveIds() throws SQLException {
+    try (Statement st = con.createStatement();
+         ResultSet rs = st.executeQuery("SELECT nextval('name_usage_id_seq'), (SELECT max(node) FROM " + TABLE_STAGE + ")")) {
+      rs.next();
+      final long base = rs.getLong(1);
+      final long maxNode = rs.getLong(2);
+      st.execute("SELECT setval('name_usage_id_seq', " + (base + maxNode) + ")");
+      return base;
+    }
   }
+
+  private void execute(String sql) throws SQLException {
+    try (Statement st = con.createStatement()) {
+      st.execute(sql);
+    }
+  }
+
+  private int update(String sql, UUID datasetKey) throws SQLException {
+    try (PreparedStatement st = con.prepareStatement(sql)) {
+      st.setObject(1, datasetKey);
+      return st.executeUpdate();
+    }
+  }
+
+  /**
+   * Writes a staging row with usage and metrics columns for each node as it is entered in the walk.
+   * Synonyms outside of the parent child tree are written right after their accepted taxon.
+   * Synonyms point to their accepted taxon as their parent, as checklistbank expects.
+   */
+  private class CopyHandler implements StartEndHandler {
+    private final PgCopyWriter stage;
+    private final Deque<Long> parents = new ArrayDeque<Long>();
+    private final BitSet copied = new BitSet();
+    private final Meter progress = Instrumentation.get().meter("usages exported");
+
+    private CopyHandler(PgCopyWriter stage) {
+      this.stage = stage;
+    }
+
+    @Override
+    public void start(Node n) {
+      copy(n, parents.peek());
+      for (Relationship rel : n.getRelationships(RelType.SYNONYM_OF, Direction.INCOMING)) {
+        Node syn = rel.getStartNode();
+        if (syn.getSingleRelationship(RelType.PARENT_OF, Direction.INCOMING) == null) {
+          copy(syn, null);
+        }
+      }
+      parents.push(n.getId());
+    }
+
+    @Override
+    public void end(Node n) {
+      parents.pop();
+    }
+
+    /**
+     * Copies all taxa the walk has not reached, e.g. synonyms whose accepted taxon is no part of the tree.
+     */
+    private void copyUnwalked() {
+      int count = 0;
+      for (Node n : GlobalGraphOperations.at(db).getAllNodesWithLabel(Labels.TAXON)) {
+        if (!copied.get((int) n.getId())) {
+          Relationship parent = n.getSingleRelationship(RelType.PARENT_OF, Direction.INCOMING);
+          copy(n, parent == null ? null : parent.getStartNode().getId());
+          count++;
+        }
+      }
+      if (count > 0) {
+        LOG.warn("Exported {} usages outside the taxonomic tree", count);
+      }
+    }
+
+    private void copy(Node n, Long parentId) {
+      if (copied.get((int) n.getId())) {
+        return;
+      }
+      try {
+        Relationship acc = n.getSingleRelationship(RelType.SYNONYM_OF, Direction.OUTGOING);
+        Relationship bas = n.getSingleRelationship(RelType.BASIONYM_OF, Direction.INCOMING);
+        UsageMetrics m = NeoUtils.getMetrics(n);
+        Rank rank = Ranks.parse(prop(n, DwcTerm.taxonRank));
+        String name = prop(n, DwcTerm.scientificName);
+        stage.write(n.getId(), acc == null ? parentId : acc.getEndNode().getId(),
+          bas == null ? null : bas.getStartNode().getId(),
+          acc != null || n.hasLabel(Labels.SYNONYM), rank == null ? null : rank.name(),
+          name == null ? "" : name, n.getProperty(NeoUtils.PROP_CANONICAL_NAME, null), prop(n, DwcTerm.taxonID),
+          n.hasProperty(NeoUtils.PROP_LFT) ? m.getLft() : null,
+          n.hasProperty(NeoUtils.PROP_RGT) ? m.getRgt() : null,
+          key(m.getkKey()), key(m.getpKey()), key(m.getcKey()), key(m.getoKey()),
+          key(m.getfKey()), key(m.getgKey()), key(m.getsKey()),
+          m.getChildren(), m.getSynonyms());
+        copied.set((int) n.getId());
+        progress.mark();
+      } catch (SQLException e) {
+        throw new IllegalStateException("Failed to copy name usage " + n.getId(), e);
+      }
+    }
+
+    private Integer key(int key) {
+      return key == NeoUtils.NO_KEY ? null : key;
+    }
+  }
+
   private String prop(Node n, Term prop) {
     return (String) n.getProperty(prop.simpleName(), null);
   }
 
 
-  private void initNeo(String name) {
-    File storeDir = NeoUtils.neoDir(name);
-    LOG.info("Connect to neo4j in {}", storeDir.getAbsolutePath());
-    GraphDatabaseFactory factory = new GraphDatabaseFactory();
-    db = factory.newEmbeddedDatabaseBuilder(storeDir.getAbsolutePath())
-      //.setConfig()
-      .newGraphDatabase();
+  private void initNeo(String name, NeoConfiguration.Profile profile) {
+    db = NeoConfiguration.open(NeoUtils.neoDir(name), profile);
   }
 
   public void cleanup(String name) {
-    initNeo(name);
+    initNeo(name, NeoConfiguration.Profile.TRAVERSAL);
     try (Transaction tx = db.beginTx()) {
       LOG.info("Create index");
       Schema schema = db.schema();
@@ -83,9 +363,21 @@ public class NeoExport {
   }
 
 
-  public static void main (String[] args) throws IOException {
-    NeoExport neo = new NeoExport();
-    neo.exportDwca(args[0]);
+  /**
+   * @param args neo checklist name, followed by either the checklistbank dataset key, jdbc url, db user and db password
+   *             or the file name of a zipped dwc archive to write
+   */
+  public static void main (String[] args) throws IOException, SQLException {
+    Instrumentation.get().startFromSystemProperties();
+    try {
+      if (args.length == 2) {
+        new NeoExport(null, null, null).exportDwca(args[0], new File(args[1]));
+      } else {
+        new NeoExport(args[2], args[3], args[4]).exportClb(args[0], UUID.fromString(args[1]));
+      }
+    } finally {
+      Instrumentation.get().stop();
+    }
 //    neo.cleanup(args[0]);
   }
 
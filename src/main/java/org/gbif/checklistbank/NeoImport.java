@@ -1,21 +1,38 @@
 package org.gbif.checklistbank;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
-import com.yammer.metrics.*;
-import com.yammer.metrics.jvm.MemoryUsageGaugeSet;
+import com.google.common.collect.Sets;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Closeables;
+import com.google.common.io.Files;
+import com.yammer.metrics.Meter;
+import com.yammer.metrics.Timer;
+import org.gbif.api.vocabulary.Rank;
+import org.gbif.checklistbank.ids.IdStore;
+import org.gbif.checklistbank.ids.IdStores;
+import org.gbif.checklistbank.traverse.ParallelTaxonWalker;
+import org.gbif.checklistbank.traverse.StartEndHandler;
 import org.gbif.checklistbank.traverse.TaxonWalker;
+import org.gbif.checklistbank.traverse.TaxonomicOrderExpander;
 import org.gbif.dwc.record.Record;
 import org.gbif.dwc.terms.DwcTerm;
 import org.gbif.dwc.terms.Term;
 import org.gbif.dwc.text.Archive;
 import org.gbif.dwc.text.ArchiveFactory;
 import org.gbif.dwc.text.StarRecord;
+import org.neo4j.graphdb.Direction;
 import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Relationship;
 import org.neo4j.graphdb.Transaction;
-import org.neo4j.graphdb.factory.GraphDatabaseFactory;
 import org.neo4j.graphdb.schema.Schema;
 import org.neo4j.helpers.collection.IteratorUtil;
 import org.neo4j.helpers.collection.MapUtil;
@@ -26,15 +43,23 @@ import org.neo4j.tooling.GlobalGraphOperations;
 import org.neo4j.unsafe.batchinsert.BatchInserter;
 import org.neo4j.unsafe.batchinsert.BatchInserterIndex;
 import org.neo4j.unsafe.batchinsert.BatchInserterIndexProvider;
-import org.neo4j.unsafe.batchinsert.BatchInserters;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
-import java.util.regex.Pattern;
 
 /**
  * Reads a good id based dwc archive and produces a neo4j graph from it.
@@ -42,126 +67,1119 @@ import java.util.regex.Pattern;
 public class NeoImport {
     private static final Logger LOG = LoggerFactory.getLogger(NeoImport.class);
 
-    private static final Pattern NULL_PATTERN = Pattern.compile("^\\s*(\\\\N|\\\\?NULL)\\s*$");
+    private static final Map<String, Object> NO_PROPS = Collections.emptyMap();
+    private static final String PROP_HASH = "hash";
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+    // max number of parents to follow when looking for the root of a node, protecting against cycles
+    private static final int MAX_DEPTH = 1000;
+    private static final int NONE = -1;
+    // names of the checkpoint progress values
+    private static final String CP_STARTED = "started";
+    private static final String CP_ROW = "row";
+    private static final String CP_EXTENSION_NODES = "extensionNodes";
+    private static final String CP_BATCH = "batch";
+    private static final String CP_NODE = "node";
+    private static final String CP_ROOT = "root";
+    private static final String CP_LFT = "lft";
     private final File dwca;
     private final File storeDir;
+    private final boolean batchRelations;
+    private final IdStores.Type idStoreType;
     private GraphDatabaseService db;
+    private NeoConfiguration.Profile dbProfile;
     private boolean useCoreID = false;
+    private int parseThreads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+    private int queueDepth = 2 * parseThreads;
+    private int walkerThreads = 1;
+    private int walkerSplitDepth = 0;
+    private boolean sortArchive = true;
+    private int sortMegabytes = 256;
+    private boolean repairTree = true;
+    private boolean flushedCopies = false;
+    private int checkpointRows = 10000000;
+    private ImportCheckpoint checkpoint;
+    private Set<ImportCheckpoint.Phase> phases = EnumSet.allOf(ImportCheckpoint.Phase.class);
+    // archive rows already flushed by an interrupted insert
+    private long resumeRow = 0;
+    private ClassificationTrie classification;
+    private int nameCacheSize = CachingNameParser.DEFAULT_CACHE_SIZE;
+    private CachingNameParser nameParser;
+    private final ValueNormalizer normalizer = ValueNormalizer.create(NeoConfiguration.properties(NeoConfiguration.Profile.BULK_IMPORT));
     private int idx = 0;
     private final int BATCH_SIZE = 10000;
-    private final MetricRegistry registry = new MetricRegistry("clbneo");
-    private final Meter insertMeter = registry.meter("taxon inserts");
-    private final Meter relationMeter = registry.meter("taxon relations");
-    private final Meter metricsMeter = registry.meter("taxon metrics");
-    private final Gauge memory;
-    private final ScheduledReporter reporter;
+    private final Instrumentation metrics = Instrumentation.get();
+    private final Meter insertMeter = metrics.meter("taxon inserts");
+    private final Meter relationMeter = metrics.meter("taxon relations");
+    private final Meter extensionMeter = metrics.meter("extension rows");
+    private final Timer parseTimer = metrics.phase(Instrumentation.Phase.PARSE);
 
     public NeoImport(File dwca) {
+        this(dwca, true, IdStores.Type.MAPPED);
+    }
+
+    /**
+     * @param batchRelations if true all relations are created by the batch inserter straight after the nodes,
+     *                       otherwise a separate transactional pass resolves them via the taxonID schema index
+     * @param idStoreType    the kind of id store used to resolve taxonIDs in batch relation mode
+     */
+    public NeoImport(File dwca, boolean batchRelations, IdStores.Type idStoreType) {
+        this(dwca, NeoUtils.neoDir(dwca.getName()), batchRelations, idStoreType);
+    }
+
+    /**
+     * @param storeDir the neo4j store directory to import into
+     */
+    public NeoImport(File dwca, File storeDir, boolean batchRelations, IdStores.Type idStoreType) {
         this.dwca = dwca;
-        storeDir = NeoUtils.neoDir(dwca.getName());
-        // Sets up performance metrics reporting
-        MemoryUsageGaugeSet mgs = new MemoryUsageGaugeSet();
-        registry.registerAll(mgs);
-        memory = (Gauge) mgs.getMetrics().get("heap.usage");
-        reporter = ConsoleReporter.forRegistry(registry)
-            .convertRatesTo(TimeUnit.SECONDS)
-            .convertDurationsTo(TimeUnit.MILLISECONDS)
-            .build();
-        //reporter.start(60, TimeUnit.SECONDS);
+        this.storeDir = storeDir;
+        this.batchRelations = batchRelations;
+        this.idStoreType = idStoreType;
+        metrics.registerStore(storeDir);
+        checkpoint = ImportCheckpoint.load(storeDir);
     }
 
-    public void run() throws IOException {
-//        batchInsertData();
-        initDb();
-        setupTaxonIdIndex();
-//        setupRelations();
-        buildMetrics();
+    /**
+     * @param nameCacheSize max number of distinct scientific names kept in the name parser cache
+     */
+    public void setNameCacheSize(int nameCacheSize) {
+        this.nameCacheSize = nameCacheSize;
+    }
+
+    /**
+     * @param parseThreads number of threads parsing archive records concurrently during the batch insert
+     */
+    public void setParseThreads(int parseThreads) {
+        this.parseThreads = parseThreads;
+    }
+
+    /**
+     * @param queueDepth max number of parsed chunks of records queued for the single batch inserter
+     */
+    public void setQueueDepth(int queueDepth) {
+        this.queueDepth = queueDepth;
+    }
+
+    /**
+     * Builds the nested set with several threads walking independent subtrees concurrently.
+     * @param threads    number of walker threads, 1 for a sequential walk
+     * @param splitDepth depth of the subtrees to walk in parallel, 0 for the root nodes
+     */
+    public void setParallelWalk(int threads, int splitDepth) {
+        this.walkerThreads = threads;
+        this.walkerSplitDepth = splitDepth;
+    }
+
+    /**
+     * Inserts records in depth first taxonomic order, so parents and children are stored close to each other.
+     * @param sort      if false records are inserted in archive order
+     * @param megabytes memory budget for the external sort
+     */
+    public void setSortArchive(boolean sort, int megabytes) {
+        this.sortArchive = sort;
+        this.sortMegabytes = megabytes;
+    }
+
+    /**
+     * @param repair if true parent cycles found during validation are broken and orphaned subtrees become roots.
+     *               Without repair a cycle reachable from a root stalls the nested set walk
+     */
+    public void setRepairTree(boolean repair) {
+        this.repairTree = repair;
+    }
 
-        reporter.report(registry.getGauges(), registry.getCounters(), registry.getHistograms(), registry.getMeters(), registry.getTimers());
+    /**
+     * Keeps copies of the flushed store during a sorted batch insert, so an interrupted insert or batch relation pass
+     * can resume instead of starting again with an empty store.
+     * Every copy takes as much disk space and time as copying the whole store at that point,
+     * so the total copy cost grows quadratically with the store size.
+     * @param copies if true the store is copied every checkpointRows archive rows and before the batch relation pass
+     * @param rows   number of archive rows after which the batch inserter is flushed and the insert checkpointed
+     */
+    public void setFlushedCopies(boolean copies, int rows) {
+        this.flushedCopies = copies;
+        this.checkpointRows = rows;
     }
 
+    /**
+     * Forgets the given phases in the store checkpoint, so they run again from scratch.
+     */
+    public void resetPhases(Set<ImportCheckpoint.Phase> phases) {
+        for (ImportCheckpoint.Phase p : phases) {
+            checkpoint.reset(p);
+        }
+    }
+
+    /**
+     * Runs all import phases not yet done according to the store checkpoint.
+     */
+    public void run() throws IOException {
+        run(EnumSet.allOf(ImportCheckpoint.Phase.class));
+    }
+
+    /**
+     * Runs the selected import phases in their natural order.
+     * Phases the store checkpoint lists as done are skipped and interrupted phases continue from their last checkpoint.
+     * Phases depending on unselected ones expect them to be done already.
+     * A store with a checkpoint of a different or since modified archive is emptied first.
+     */
+    public void run(Set<ImportCheckpoint.Phase> phases) throws IOException {
+        metrics.startFromSystemProperties();
+        this.phases = phases;
+        try {
+            if (!checkpoint.isEmpty() && !checkpoint.isFor(dwca)) {
+                Preconditions.checkState(phases.contains(ImportCheckpoint.Phase.INSERT),
+                    "Store %s was imported from a different or modified archive, run all phases", storeDir);
+                wipeStore("Store {} was imported from a different or modified archive, start again with an empty store");
+            }
+            checkpoint.setArchive(dwca);
+            checkpoint.save();
+            if (checkpoint.has(ImportCheckpoint.Phase.RELATIONS, CP_BATCH) && !restoreFlushedStore()) {
+                wipeStore("Batch relation pass in {} was interrupted and no flushed store exists, start again with an empty store");
+            }
+            if (pending(ImportCheckpoint.Phase.INSERT)) {
+                batchInsertData();
+            }
+            initDb(NeoConfiguration.Profile.BULK_IMPORT);
+            if (pending(ImportCheckpoint.Phase.INDEX)) {
+                setupTaxonIdIndex();
+            }
+            if (pending(ImportCheckpoint.Phase.RELATIONS)) {
+                setupRelations();
+            }
+            initDb(NeoConfiguration.Profile.TRAVERSAL);
+            if (pending(ImportCheckpoint.Phase.VALIDATION)) {
+                validate();
+            }
+            if (pending(ImportCheckpoint.Phase.NESTED_SET)) {
+                buildMetrics();
+            }
+            if (pending(ImportCheckpoint.Phase.BASIONYM_GROUPS)) {
+                buildBasionymGroups();
+            }
+            shutdown();
+        } finally {
+            metrics.stop();
+        }
+    }
 
-    private void batchInsertData() throws IOException {
-        Archive arch = ArchiveFactory.openArchive(dwca);
-        if (!arch.getCore().hasTerm(DwcTerm.taxonID)) {
-            LOG.warn("Using core ID for TAXON_ID_PROP");
-            useCoreID = true;
+    private boolean pending(ImportCheckpoint.Phase phase) {
+        if (!phases.contains(phase)) {
+            return false;
         }
+        if (checkpoint.isDone(phase)) {
+            LOG.info("Skip {} phase, done already", phase);
+            return false;
+        }
+        return true;
+    }
 
-        final BatchInserter inserter = BatchInserters.inserter(storeDir.getAbsolutePath());
+    @VisibleForTesting
+    GraphDatabaseService getDb() {
+        return db;
+    }
 
-        final BatchInserterIndexProvider indexProvider = new LuceneBatchInserterIndexProvider(inserter);
-        final BatchInserterIndex taxonIdx = indexProvider.nodeIndex(DwcTerm.taxonID.simpleName(), MapUtil.stringMap("type", "exact"));
-        taxonIdx.setCacheCapacity(DwcTerm.taxonID.simpleName(), 10000);
+    @VisibleForTesting
+    void shutdown() {
+        if (db != null) {
+            db.shutdown();
+            db = null;
+            dbProfile = null;
+        }
+    }
 
-        final long startSort = System.currentTimeMillis();
-        LOG.debug("Sorted archive in {} seconds", (System.currentTimeMillis() - startSort) / 1000);
 
+    /**
+     * Inserts all archive records with the batch inserter and, in batch relation mode, creates all relations.
+     * With flushed copies enabled, sorted archives and batch relations the inserter is flushed every checkpointRows
+     * records and a copy of the flushed store is kept next to it. An interrupted insert restores that copy,
+     * as the batch inserter leaves an inconsistent store behind, and continues after its last row.
+     * Otherwise an interrupted insert starts over in an emptied store.
+     * With flushed copies an interrupted batch relation pass restores the store as flushed after the insert
+     * and the relations are then created transactionally by setupRelations, otherwise the import starts over.
+     */
+    @VisibleForTesting
+    void batchInsertData() throws IOException {
+        Timer.Context timer = metrics.phase(Instrumentation.Phase.INSERT).time();
+        Archive arch;
+        TaxonomicOrder order = null;
+        BatchInserter inserter;
+        BatchInserterIndexProvider indexProvider = null;
+        IdStore ids = null;
+        File idDir = null;
         int counter = 0;
-        for (StarRecord star : arch) {
-            counter++;
+        try {
+            try {
+                arch = ArchiveFactory.openArchive(dwca);
+                if (!arch.getCore().hasTerm(DwcTerm.taxonID)) {
+                    LOG.warn("Using core ID for TAXON_ID_PROP");
+                    useCoreID = true;
+                }
 
-            Record core = star.core();
-            Map<String, Object> props = Maps.newHashMap();
+                // node ids follow the taxonomic order of the sorted records
+                order = sortArchive ? TaxonomicOrder.build(arch, useCoreID, idStoreType, sortMegabytes) : null;
+                // only explicit ordinal node ids can be rewritten after an interruption
+                final boolean resumable = flushedCopies && order != null && batchRelations;
+                resumeRow = 0;
+                if (checkpoint.has(ImportCheckpoint.Phase.INSERT, CP_STARTED)) {
+                    if (resumable && checkpoint.has(ImportCheckpoint.Phase.INSERT, CP_ROW) && restoreFlushedStore()) {
+                        resumeRow = checkpoint.get(ImportCheckpoint.Phase.INSERT, CP_ROW, 0);
+                        LOG.info("Resume insert after archive row {}", resumeRow);
+                    } else {
+                        wipeStore("Previous insert into {} was interrupted and cannot be resumed, start again with an empty store");
+                    }
+                }
+                checkpoint.set(ImportCheckpoint.Phase.INSERT, CP_STARTED, 1);
+                checkpoint.save();
+
+                inserter = NeoConfiguration.inserter(storeDir);
+
+                BatchInserterIndex taxonIdx = null;
+                if (batchRelations) {
+                    // we resolve all relations ourselves, no need for a lucene index
+                    idDir = Files.createTempDir();
+                    ids = IdStores.create(idStoreType, arch.getCore().getLocationFile().length() / 100, idDir);
+                } else {
+                    indexProvider = new LuceneBatchInserterIndexProvider(inserter);
+                    taxonIdx = indexProvider.nodeIndex(DwcTerm.taxonID.simpleName(), MapUtil.stringMap("type", "exact"));
+                    taxonIdx.setCacheCapacity(DwcTerm.taxonID.simpleName(), 10000);
+                }
+
+                // explicit extension node ids follow all ordinals
+                long extNodes = order != null ? checkpoint.get(ImportCheckpoint.Phase.INSERT, CP_EXTENSION_NODES, order.size()) : 0;
+                try (ImportPipeline<ParsedRecord> pipeline = pipeline(arch)) {
+
+                    for (ParsedRecord rec : pipeline) {
+                        // ... and into neo
+                        long node;
+                        if (counter < resumeRow) {
+                            // flushed before the interruption, only its id is needed
+                            node = order.ordinal(counter);
+                        } else {
+                            if (order != null) {
+                                node = order.ordinal(counter);
+                                inserter.createNode(node, rec.props, Labels.TAXON);
+                            } else {
+                                node = inserter.createNode(rec.props, Labels.TAXON);
+                            }
+                            for (Map<String, Object> extProps : rec.extensions) {
+                                long extNode;
+                                if (order != null) {
+                                    extNode = extNodes++;
+                                    inserter.createNode(extNode, extProps, Labels.EXTENSION);
+                                } else {
+                                    extNode = inserter.createNode(extProps, Labels.EXTENSION);
+                                }
+                                inserter.createRelationship(node, extNode, RelType.HAS_EXTENSION, NO_PROPS);
+                            }
+                            insertMeter.mark();
+                        }
+                        counter++;
+                        if (batchRelations) {
+                            if (rec.taxonID != null) {
+                                ids.put(rec.taxonID, node);
+                            }
+                        } else {
+                            taxonIdx.add(node, rec.props);
+                        }
+                        if (resumable && counter > resumeRow && counter % checkpointRows == 0) {
+                            inserter.shutdown();
+                            checkpoint.set(ImportCheckpoint.Phase.INSERT, CP_ROW, counter);
+                            checkpoint.set(ImportCheckpoint.Phase.INSERT, CP_EXTENSION_NODES, extNodes);
+                            checkpoint.save();
+                            saveFlushedStore();
+                            inserter = NeoConfiguration.inserter(storeDir);
+                        }
+                    }
+                }
+                resumeRow = 0;
+                LOG.info("Data insert completed, {} nodes created", counter);
+                LOG.info("Name parser cache: {}", nameParser.stats());
+                LOG.info("Insert metrics: {}", insertMeter.getMeanRate());
+            } finally {
+                timer.stop();
+            }
 
-            for (Term t : core.terms()) {
-                String val = norm(core.value(t));
+            final boolean relations = batchRelations && phases.contains(ImportCheckpoint.Phase.RELATIONS)
+                && !checkpoint.isDone(ImportCheckpoint.Phase.RELATIONS);
+            if (relations) {
+                inserter.shutdown();
+                checkpoint.done(ImportCheckpoint.Phase.INSERT);
+                if (flushedCopies) {
+                    saveFlushedStore();
+                }
+                // an interrupted pass restores the flushed store, which has no relations yet, or wipes the store
+                checkpoint.set(ImportCheckpoint.Phase.RELATIONS, CP_BATCH, 1);
+                checkpoint.save();
+                inserter = NeoConfiguration.inserter(storeDir);
+                Timer.Context relTimer = metrics.phase(Instrumentation.Phase.RELATIONS).time();
+                try {
+                    if (order != null) {
+                        batchInsertRelations(inserter, ids, counter);
+                    } else {
+                        batchInsertRelations(arch, inserter, ids);
+                    }
+                } finally {
+                    relTimer.stop();
+                }
+            }
+            if (!batchRelations) {
+                indexProvider.shutdown();
+            }
+            inserter.shutdown();
+            LOG.info("Neo shutdown, data flushed to disk", counter);
+            checkpoint.done(ImportCheckpoint.Phase.INSERT);
+            if (relations) {
+                checkpoint.done(ImportCheckpoint.Phase.RELATIONS);
+            }
+            removeFlushedStore();
+        } finally {
+            // a failed import must not leave the store sized id tables, order files or sort runs behind
+            if (order != null) {
+                order.close();
+            }
+            if (ids != null) {
+                Closeables.close(ids, true);
+            }
+            if (idDir != null) {
+                deleteTree(idDir);
+            }
+        }
+    }
+
+    /**
+     * @return directory next to the store holding a copy of the store as of the last batch inserter flush
+     */
+    private File flushedStore(String suffix) {
+        return new File(storeDir.getAbsoluteFile().getParentFile(), storeDir.getName() + ".flushed" + suffix);
+    }
+
+    /**
+     * Copies the cleanly shut down store, including its checkpoint, replacing the previous copy.
+     * The previous copy is kept as .old until the new one is complete.
+     */
+    private void saveFlushedStore() throws IOException {
+        final long start = System.currentTimeMillis();
+        File tmp = flushedStore(".tmp");
+        File copy = flushedStore("");
+        File old = flushedStore(".old");
+        deleteTree(tmp);
+        copyTree(storeDir, tmp);
+        if (copy.exists()) {
+            deleteTree(old);
+            java.nio.file.Files.move(copy.toPath(), old.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        }
+        java.nio.file.Files.move(tmp.toPath(), copy.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        deleteTree(old);
+        LOG.info("Copied flushed store to {} in {} ms", copy.getAbsolutePath(), System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Replaces the store with its last flushed copy and reloads the checkpoint of that copy.
+     * @return false if there is no copy
+     */
+    private boolean restoreFlushedStore() throws IOException {
+        File copy = flushedStore("");
+        if (!copy.exists()) {
+            copy = flushedStore(".old");
+            if (!copy.exists()) {
+                return false;
+            }
+        }
+        LOG.warn("Restore store {} as flushed before the interruption from {}", storeDir.getAbsolutePath(),
+            copy.getAbsolutePath());
+        deleteTree(storeDir);
+        copyTree(copy, storeDir);
+        checkpoint = ImportCheckpoint.load(storeDir);
+        return true;
+    }
+
+    private void removeFlushedStore() {
+        for (String suffix : new String[]{"", ".old", ".tmp"}) {
+            deleteTree(flushedStore(suffix));
+        }
+    }
+
+    private static void copyTree(File from, File to) throws IOException {
+        final URI root = from.toURI();
+        for (File f : Files.fileTreeTraverser().preOrderTraversal(from)) {
+            File target = new File(to, root.relativize(f.toURI()).getPath());
+            if (f.isDirectory()) {
+                if (!target.isDirectory() && !target.mkdirs()) {
+                    throw new IOException("Failed to create directory " + target.getAbsolutePath());
+                }
+            } else {
+                Files.copy(f, target);
+            }
+        }
+    }
+
+    private static void deleteTree(File dir) {
+        if (dir.exists()) {
+            for (File f : Files.fileTreeTraverser().postOrderTraversal(dir)) {
+                if (!f.delete()) {
+                    LOG.warn("Failed to remove {}", f.getAbsolutePath());
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes all store files and resets the checkpoint.
+     * @param reason log message explaining why, with the store directory as its only parameter
+     */
+    private void wipeStore(String reason) {
+        LOG.warn(reason, storeDir.getAbsolutePath());
+        deleteTree(storeDir);
+        removeFlushedStore();
+        checkpoint.reset();
+    }
+
+    /**
+     * A normalised core record with all neo properties prepared for the batch inserter,
+     * including packed array extensions, and the properties of its extension nodes.
+     * The properties are kept as maps rather than term indexed arrays, as the batch inserter only accepts maps
+     * and the record hash is computed over them: converting arrays would move that work onto the single inserter thread.
+     */
+    private static class ParsedRecord {
+        private final String taxonID;
+        private final Map<String, Object> props;
+        private final List<Map<String, Object>> extensions;
+
+        private ParsedRecord(String taxonID, Map<String, Object> props, List<Map<String, Object>> extensions) {
+            this.taxonID = taxonID;
+            this.props = props;
+            this.extensions = extensions;
+        }
+    }
+
+    private ImportPipeline<ParsedRecord> pipeline(Archive arch) {
+        nameParser = new CachingNameParser(nameCacheSize);
+        return new ImportPipeline<ParsedRecord>(arch,
+            new Function<ImportPipeline.RawRecord, ParsedRecord>() {
+                @Override
+                public ParsedRecord apply(ImportPipeline.RawRecord raw) {
+                    return parse(raw);
+                }
+            }, parseThreads, queueDepth);
+    }
+
+    /**
+     * Normalises all values of a raw record and its extensions, parses the scientific name
+     * and adds a hash of all its values.
+     * Called concurrently by the import pipeline parser threads.
+     */
+    private ParsedRecord parse(ImportPipeline.RawRecord raw) {
+        if (raw.row() < resumeRow) {
+            // inserted before an interruption, only the taxonID is needed for the id store
+            return new ParsedRecord(useCoreID ? norm(raw.id()) : norm(raw.value(DwcTerm.taxonID)), null,
+                Collections.<Map<String, Object>>emptyList());
+        }
+        Timer.Context timer = parseTimer.time();
+        try {
+            Term[] terms = raw.terms();
+            // room for the parsed name, the hash and a few packed extension columns without rehashing
+            Map<String, Object> props = Maps.newHashMapWithExpectedSize(terms.length + 8);
+            for (int i = 0; i < terms.length; i++) {
+                String val = normalizer.norm(terms[i], raw.value(i));
                 if (val != null) {
-                    props.put(t.simpleName(), val);
+                    props.put(terms[i].simpleName(), val);
+                }
+            }
+            final String sciname = (String) props.get(DwcTerm.scientificName.simpleName());
+            if (sciname != null) {
+                CachingNameParser.Result pn = nameParser.parse(sciname);
+                putIfNotEmpty(props, NeoUtils.PROP_CANONICAL_NAME, pn.getCanonicalName());
+                putIfNotEmpty(props, NeoUtils.PROP_AUTHORSHIP, pn.getAuthorship());
+                if (pn.getType() != null) {
+                    props.put(NeoUtils.PROP_NAME_TYPE, pn.getType().name());
+                }
+            }
+            List<Map<String, Object>> extensions = Collections.emptyList();
+            for (Extension ext : raw.extensions()) {
+                List<String[]> rows = raw.extension(ext);
+                extensionMeter.mark(rows.size());
+                if (ext.getStorage() == Extension.Storage.ARRAY) {
+                    packExtension(props, ext, raw.extensionTerms(ext), rows);
+                } else {
+                    if (extensions.isEmpty()) {
+                        extensions = Lists.newArrayList();
+                    }
+                    extensionNodes(extensions, ext, raw.extensionTerms(ext), rows);
                 }
             }
             // make sure this is last to override already put taxonID keys
-            props.put(DwcTerm.taxonID.simpleName(), taxonID(core));
-            // ... and into neo
-            long node = inserter.createNode(props, Labels.TAXON);
-            taxonIdx.add(node, props);
+            final String taxonID = useCoreID ? norm(raw.id()) : norm(raw.value(DwcTerm.taxonID));
+            props.put(DwcTerm.taxonID.simpleName(), taxonID);
+            long hash = hash(props);
+            for (Map<String, Object> extProps : extensions) {
+                hash += hash(extProps);
+            }
+            props.put(PROP_HASH, hash);
+            return new ParsedRecord(taxonID, props, extensions);
+        } finally {
+            timer.stop();
+        }
+    }
+
+    private static void putIfNotEmpty(Map<String, Object> props, String key, String value) {
+        if (!Strings.isNullOrEmpty(value)) {
+            props.put(key, value);
+        }
+    }
 
-            insertMeter.mark();
-            if (counter % (BATCH_SIZE*10) == 0) {
-                LOG.debug("insert: {}", counter);
+    /**
+     * Packs the normalised extension rows into one string array property per column, skipping empty rows.
+     */
+    private void packExtension(Map<String, Object> props, Extension ext, Term[] terms, List<String[]> rows) {
+        String[][] columns = new String[terms.length][rows.size()];
+        int size = 0;
+        for (String[] row : rows) {
+            boolean empty = true;
+            for (int i = 0; i < terms.length; i++) {
+                String val = normalizer.norm(terms[i], row[i]);
+                // neo arrays cannot hold nulls
+                columns[i][size] = val == null ? "" : val;
+                empty = empty && val == null;
+            }
+            if (!empty) {
+                size++;
             }
         }
-        LOG.info("Data insert completed, {} nodes created", counter);
-        LOG.info("Insert metrics: {}", insertMeter.getMeanRate());
+        if (size > 0) {
+            for (int i = 0; i < terms.length; i++) {
+                props.put(ext.property(terms[i]), size == rows.size() ? columns[i] : Arrays.copyOf(columns[i], size));
+            }
+        }
+    }
 
-        indexProvider.shutdown();
-        inserter.shutdown();
-        LOG.info("Neo shutdown, data flushed to disk", counter);
+    private void extensionNodes(List<Map<String, Object>> nodes, Extension ext, Term[] terms, List<String[]> rows) {
+        for (String[] row : rows) {
+            Map<String, Object> props = Maps.newHashMapWithExpectedSize(terms.length + 1);
+            for (int i = 0; i < terms.length; i++) {
+                String val = normalizer.norm(terms[i], row[i]);
+                if (val != null) {
+                    props.put(terms[i].simpleName(), val);
+                }
+            }
+            if (!props.isEmpty()) {
+                props.put(NeoUtils.PROP_ROW_TYPE, ext.getRowType().qualifiedName());
+                nodes.add(props);
+            }
+        }
     }
 
-    private void initDb() throws IOException {
-        GraphDatabaseFactory factory = new GraphDatabaseFactory();
-        db = factory.newEmbeddedDatabaseBuilder(storeDir.getAbsolutePath())
-            //TODO: make this configurable
-            .loadPropertiesFromFile("src/main/resources/neo.properties")
-            .newGraphDatabase();
-        LOG.info("Starting neo4j database from {}", storeDir.getAbsolutePath());
+    /**
+     * @return an order independent hash of all properties
+     */
+    private static long hash(Map<String, Object> props) {
+        long hash = 0;
+        for (Map.Entry<String, Object> e : props.entrySet()) {
+            if (e.getValue() != null) {
+                final Object val = e.getValue();
+                hash += HASH_FUNCTION.newHasher()
+                    .putString(e.getKey(), Charsets.UTF_8)
+                    .putChar('=')
+                    .putString(val instanceof String[] ? Arrays.toString((String[]) val) : val.toString(), Charsets.UTF_8)
+                    .hash().asLong();
+            }
+        }
+        return hash;
     }
 
-    private void setupTaxonIdIndex() {
-        // setup unique index for TAXON_ID if not yet existing
+    /**
+     * Second pass over the archive creating all relations and the SYNONYM and ROOT labels with the batch inserter.
+     * Ids are resolved through the id store built during the node insert.
+     */
+    private void batchInsertRelations(Archive arch, BatchInserter inserter, IdStore ids) {
+        LOG.debug("Start batch relation processing ...");
+        long counter = 0;
+        classification = new ClassificationTrie(batchNodeCreator(inserter));
+        for (StarRecord star : arch) {
+            final Record core = star.core();
+            final String taxonID = taxonID(core);
+            final long node = taxonID == null ? IdStore.NOT_FOUND : ids.get(taxonID);
+            if (node == IdStore.NOT_FOUND) {
+                LOG.warn("No node for taxonID {}", taxonID);
+                continue;
+            }
+            batchInsertRelations(inserter, ids, node, taxonID, new Function<Term, String>() {
+                @Override
+                public String apply(Term term) {
+                    return norm(core.value(term));
+                }
+            });
+            counter++;
+        }
+        LOG.info("Batch relation setup completed, {} nodes processed, {} implicit nodes created", counter, classification.getCreated());
+        LOG.info("Relation setup metrics: {}", relationMeter.getMeanRate());
+    }
+
+    /**
+     * Creates all relations and the SYNONYM and ROOT labels with the batch inserter, visiting nodes by their id.
+     * With node ids in taxonomic order this reads the node store sequentially and allocates
+     * relationship records in the same depth first order.
+     * @param nodes number of nodes with consecutive ids starting at 0
+     */
+    private void batchInsertRelations(BatchInserter inserter, IdStore ids, int nodes) {
+        LOG.debug("Start batch relation processing in node order ...");
+        classification = new ClassificationTrie(batchNodeCreator(inserter));
+        for (long node = 0; node < nodes; node++) {
+            final Map<String, Object> props = inserter.getNodeProperties(node);
+            final String taxonID = (String) props.get(DwcTerm.taxonID.simpleName());
+            if (taxonID == null) {
+                LOG.warn("No taxonID for node {}", node);
+                continue;
+            }
+            batchInsertRelations(inserter, ids, node, taxonID, new Function<Term, String>() {
+                @Override
+                public String apply(Term term) {
+                    return (String) props.get(term.simpleName());
+                }
+            });
+        }
+        LOG.info("Batch relation setup completed, {} nodes processed, {} implicit nodes created", nodes, classification.getCreated());
+        LOG.info("Relation setup metrics: {}", relationMeter.getMeanRate());
+    }
+
+    private void batchInsertRelations(BatchInserter inserter, IdStore ids, long node, String taxonID,
+                                      Function<Term, String> values) {
+        // accepted
+        boolean isSynonym = false;
+        final String aId = values.apply(DwcTerm.acceptedNameUsageID);
+        if (aId != null && !aId.equals(taxonID)) {
+            isSynonym = true;
+            long accepted = ids.get(aId);
+            if (accepted != IdStore.NOT_FOUND) {
+                inserter.createRelationship(node, accepted, RelType.SYNONYM_OF, NO_PROPS);
+                inserter.setNodeLabels(node, Labels.TAXON, Labels.SYNONYM);
+            } else {
+                LOG.warn("acceptedNameUsageID {} not existing", aId);
+            }
+        }
+
+        // parent
+        final String pId = values.apply(DwcTerm.parentNameUsageID);
+        if (pId != null && !pId.equals(taxonID)) {
+            long parent = ids.get(pId);
+            if (parent != IdStore.NOT_FOUND) {
+                inserter.createRelationship(parent, node, RelType.PARENT_OF, NO_PROPS);
+            } else {
+                LOG.warn("parentNameUsageID {} not existing", pId);
+            }
+        } else if (!isSynonym) {
+            long parent = classification.parent(node, Ranks.parse(values.apply(DwcTerm.taxonRank)),
+                values.apply(DwcTerm.scientificName), classification(values));
+            if (parent != ClassificationTrie.NONE) {
+                inserter.createRelationship(parent, node, RelType.PARENT_OF, NO_PROPS);
+            } else {
+                inserter.setNodeLabels(node, Labels.TAXON, Labels.ROOT);
+            }
+        }
+
+        // basionym
+        final String bId = values.apply(DwcTerm.originalNameUsageID);
+        if (bId != null && !bId.equals(taxonID)) {
+            long basionym = ids.get(bId);
+            if (basionym != IdStore.NOT_FOUND) {
+                inserter.createRelationship(basionym, node, RelType.BASIONYM_OF, NO_PROPS);
+            } else {
+                LOG.warn("originalNameUsageID {} not existing", bId);
+            }
+        }
+        relationMeter.mark();
+    }
+
+    private static String[] classification(Function<Term, String> values) {
+        String[] cl = new String[ClassificationTrie.COLUMNS.size()];
+        for (int i = 0; i < cl.length; i++) {
+            cl[i] = values.apply(ClassificationTrie.COLUMNS.get(i));
+        }
+        return cl;
+    }
+
+    private static Map<String, Object> implicitProperties(Rank rank, String name) {
+        Map<String, Object> props = Maps.newHashMap();
+        props.put(DwcTerm.scientificName.simpleName(), name);
+        props.put(DwcTerm.taxonRank.simpleName(), rank.name().toLowerCase());
+        return props;
+    }
+
+    /**
+     * Creates implicit higher taxon nodes with the batch inserter.
+     */
+    private static ClassificationTrie.NodeCreator batchNodeCreator(final BatchInserter inserter) {
+        return new ClassificationTrie.NodeCreator() {
+            @Override
+            public long create(Rank rank, String name, long parent) {
+                if (parent == ClassificationTrie.NONE) {
+                    return inserter.createNode(implicitProperties(rank, name), Labels.TAXON, Labels.IMPLICIT, Labels.ROOT);
+                }
+                long node = inserter.createNode(implicitProperties(rank, name), Labels.TAXON, Labels.IMPLICIT);
+                inserter.createRelationship(parent, node, RelType.PARENT_OF, NO_PROPS);
+                return node;
+            }
+        };
+    }
+
+    /**
+     * Creates implicit higher taxon nodes in the current transaction.
+     */
+    private ClassificationTrie.NodeCreator dbNodeCreator() {
+        return new ClassificationTrie.NodeCreator() {
+            @Override
+            public long create(Rank rank, String name, long parent) {
+                Node n = db.createNode(Labels.TAXON, Labels.IMPLICIT);
+                setProperties(n, implicitProperties(rank, name));
+                if (parent == ClassificationTrie.NONE) {
+                    n.addLabel(Labels.ROOT);
+                } else {
+                    db.getNodeById(parent).createRelationshipTo(n, RelType.PARENT_OF);
+                }
+                return n.getId();
+            }
+        };
+    }
+
+    /**
+     * Loads all implicit higher taxa and their classification ancestors of an existing checklist into a new trie.
+     */
+    private void loadClassification() {
+        classification = new ClassificationTrie(dbNodeCreator());
         try (Transaction tx = db.beginTx()) {
-            Schema schema = db.schema();
-            if (IteratorUtil.count(schema.getIndexes(Labels.TAXON)) == 0) {
-                LOG.debug("Create db indices ...");
-                schema.constraintFor(Labels.TAXON).assertPropertyIsUnique(DwcTerm.taxonID.simpleName()).create();
-                schema.indexFor(Labels.TAXON).on(DwcTerm.scientificName.simpleName()).create();
+            for (Node n : GlobalGraphOperations.at(db).getAllNodesWithLabel(Labels.IMPLICIT)) {
+                List<Node> path = Lists.newArrayList();
+                Node p = n;
+                while (p != null) {
+                    if (ClassificationTrie.RANKS.contains(Ranks.parse(value(p, DwcTerm.taxonRank)))) {
+                        path.add(p);
+                    }
+                    Relationship rel = p.getSingleRelationship(RelType.PARENT_OF, Direction.INCOMING);
+                    p = rel == null ? null : rel.getStartNode();
+                }
+                List<String> names = Lists.newArrayList();
+                for (Node a : Lists.reverse(path)) {
+                    Rank rank = Ranks.parse(value(a, DwcTerm.taxonRank));
+                    String name = value(a, ClassificationTrie.COLUMNS.get(ClassificationTrie.RANKS.indexOf(rank)));
+                    names.add(name != null ? name : value(a, DwcTerm.scientificName));
+                    classification.register(names, a.getId());
+                }
+            }
+            tx.success();
+        }
+    }
+
+    /**
+     * Incrementally updates an existing neo checklist with a new version of the archive.
+     * Records are matched to existing nodes by their taxonID and compared via a hash of all their values.
+     * Only new, changed and deleted records and the relations of their neighbours are touched.
+     * Implicit higher taxa left without children are removed.
+     * The nested set is recomputed only for root subtrees that contain changes or whose nested set offset moved.
+     * Unchanged records pointing to previously missing parents, accepted or basionym ids are not revisited.
+     */
+    public void update() throws IOException {
+        metrics.startFromSystemProperties();
+        try {
+            Archive arch = ArchiveFactory.openArchive(dwca);
+            useCoreID = !arch.getCore().hasTerm(DwcTerm.taxonID);
+            initDb(NeoConfiguration.Profile.BULK_IMPORT);
+            setupTaxonIdIndex();
+            loadClassification();
+
+            final BitSet seen = new BitSet();
+            final BitSet dirty = new BitSet();
+            final Set<Long> dirtyRoots = Sets.newHashSet();
+            int created = 0;
+            int updated = 0;
+            int deleted = 0;
+            try (BatchTransaction tx = new BatchTransaction(db, BATCH_SIZE, BatchTransaction.DEFAULT_MEGABYTES)) {
+                // create or update nodes
+                try (ImportPipeline<ParsedRecord> pipeline = pipeline(arch)) {
+                    for (ParsedRecord rec : pipeline) {
+                        if (rec.taxonID == null) {
+                            LOG.warn("Ignore record without taxonID");
+                            continue;
+                        }
+                        Node n = nodeByTaxonId(rec.taxonID);
+                        long bytes = 0;
+                        if (n == null) {
+                            n = db.createNode(Labels.TAXON);
+                            bytes += setProperties(n, rec.props);
+                            bytes += createExtensions(n, rec.extensions);
+                            dirty.set(bit(n));
+                            created++;
+                        } else if (!rec.props.get(PROP_HASH).equals(n.getProperty(PROP_HASH, null))) {
+                            dirtyRoots.add(root(n).getId());
+                            for (String key : Lists.newArrayList(n.getPropertyKeys())) {
+                                n.removeProperty(key);
+                            }
+                            bytes += setProperties(n, rec.props);
+                            deleteExtensions(n);
+                            bytes += createExtensions(n, rec.extensions);
+                            dirty.set(bit(n));
+                            updated++;
+                        }
+                        seen.set(bit(n));
+                        tx.tick(bytes);
+                    }
+                }
+                LOG.info("{} new and {} updated records", created, updated);
+                LOG.info("Name parser cache: {}", nameParser.stats());
+
+                // remove deleted records, marking their neighbours for relation updates
+                List<Long> obsolete = Lists.newArrayList();
+                for (Node n : GlobalGraphOperations.at(db).getAllNodes()) {
+                    if (!seen.get(bit(n)) && !n.hasLabel(Labels.IMPLICIT) && !n.hasLabel(Labels.EXTENSION)) {
+                        obsolete.add(n.getId());
+                    }
+                }
+                for (Long id : obsolete) {
+                    Node n = db.getNodeById(id);
+                    Node root = root(n);
+                    if (!root.equals(n)) {
+                        dirtyRoots.add(root.getId());
+                    }
+                    deleteExtensions(n);
+                    for (Relationship rel : n.getRelationships()) {
+                        Node other = rel.getOtherNode(n);
+                        if (!rel.isType(RelType.PARENT_OF) || rel.getStartNode().equals(n)) {
+                            dirty.set(bit(other));
+                        }
+                        rel.delete();
+                        tx.tick();
+                    }
+                    n.delete();
+                    dirty.clear(id.intValue());
+                    deleted++;
+                    tx.tick();
+                }
+                LOG.info("{} deleted records", deleted);
+
+                // renew relations of all changed nodes
+                for (int id = dirty.nextSetBit(0); id >= 0; id = dirty.nextSetBit(id + 1)) {
+                    Node n = db.getNodeById(id);
+                    renewRelations(n);
+                    dirtyRoots.add(root(n).getId());
+                    tx.tick();
+                }
+                LOG.info("Relations updated for {} nodes", dirty.cardinality());
+
+                LOG.info("{} implicit higher taxa without children removed", deleteChildlessImplicitNodes(dirtyRoots, tx));
                 tx.success();
-            } else {
-                LOG.debug("Neo indices existing already");
             }
+
+            initDb(NeoConfiguration.Profile.TRAVERSAL);
+            validate();
+            Timer.Context timer = metrics.phase(Instrumentation.Phase.NESTED_SET).time();
+            try {
+                updateMetrics(dirtyRoots);
+            } finally {
+                timer.stop();
+            }
+            buildBasionymGroups();
+            shutdown();
+            // the store now reflects the new archive version
+            checkpoint.setArchive(dwca);
+            checkpoint.save();
+        } finally {
+            metrics.stop();
+        }
+    }
+
+    /**
+     * @return the node id as an index into the bit sets of the update
+     */
+    private static int bit(Node n) {
+        Preconditions.checkState(n.getId() < Integer.MAX_VALUE, "Node id too large for an update: %s", n.getId());
+        return (int) n.getId();
+    }
+
+    /**
+     * Removes implicit higher taxa without children, bottom up, so ancestors left without children go too.
+     * @param dirtyRoots receives the roots of the subtrees losing implicit taxa
+     * @return number of removed nodes
+     */
+    private int deleteChildlessImplicitNodes(Set<Long> dirtyRoots, BatchTransaction tx) {
+        Deque<Node> childless = new ArrayDeque<Node>();
+        for (Node n : GlobalGraphOperations.at(db).getAllNodesWithLabel(Labels.IMPLICIT)) {
+            if (!n.hasRelationship(RelType.PARENT_OF, Direction.OUTGOING)) {
+                childless.add(n);
+            }
+        }
+        int counter = 0;
+        while (!childless.isEmpty()) {
+            Node n = childless.poll();
+            Node parent = null;
+            for (Relationship rel : n.getRelationships()) {
+                if (rel.isType(RelType.PARENT_OF)) {
+                    parent = rel.getStartNode();
+                }
+                rel.delete();
+                tx.tick();
+            }
+            n.delete();
+            counter++;
+            tx.tick();
+            if (parent != null) {
+                dirtyRoots.add(root(parent).getId());
+                if (parent.hasLabel(Labels.IMPLICIT) && !parent.hasRelationship(RelType.PARENT_OF, Direction.OUTGOING)) {
+                    childless.add(parent);
+                }
+            }
+        }
+        return counter;
+    }
+
+    /**
+     * Replaces the accepted, parent and basionym relations and the SYNONYM and ROOT labels of a node.
+     */
+    private void renewRelations(Node n) {
+        for (Relationship rel : n.getRelationships(RelType.SYNONYM_OF, Direction.OUTGOING)) {
+            rel.delete();
+        }
+        for (Relationship rel : n.getRelationships(RelType.PARENT_OF, Direction.INCOMING)) {
+            rel.delete();
+        }
+        for (Relationship rel : n.getRelationships(RelType.BASIONYM_OF, Direction.INCOMING)) {
+            rel.delete();
+        }
+        n.removeLabel(Labels.SYNONYM);
+        n.removeLabel(Labels.ROOT);
+        final String taxonID = (String) n.getProperty(DwcTerm.taxonID.simpleName());
+        boolean isSynonym = setupAcceptedRel(n, taxonID);
+        setupParentRel(n, isSynonym, taxonID);
+        setupBasionymRel(n, taxonID);
+    }
+
+    /**
+     * Rebuilds the nested set and metrics for the given root subtrees and all subtrees that need to be shifted.
+     */
+    private void updateMetrics(Set<Long> dirtyRoots) {
+        int walked = 0;
+        try (BatchTransaction tx = new BatchTransaction(db, BATCH_SIZE, BatchTransaction.DEFAULT_MEGABYTES)) {
+            TaxonomicOrderExpander expander = new TaxonomicOrderExpander();
+            BitSet visited = new BitSet();
+            int idx = 0;
+            for (Node root : TaxonWalker.roots(db, expander)) {
+                Integer lft = (Integer) root.getProperty(NeoUtils.PROP_LFT, null);
+                if (dirtyRoots.contains(root.getId()) || lft == null || lft != idx || !root.hasProperty(NeoUtils.PROP_RGT)) {
+                    ImportTaxonMetricsHandler handler = new ImportTaxonMetricsHandler(db, idx, ImmutableList.<Node>of());
+                    if (!TaxonWalker.walk(root, expander, TaxonWalker.committing(handler, tx), visited)) {
+                        continue;
+                    }
+                    walked++;
+                }
+                idx = (Integer) root.getProperty(NeoUtils.PROP_RGT) + 1;
+            }
+            tx.success();
+        }
+        LOG.info("Nested set rebuilt for {} root subtrees", walked);
+    }
+
+    /**
+     * @return the root of the classification the node or its accepted taxon belongs to
+     */
+    private Node root(Node n) {
+        Relationship acc = n.getSingleRelationship(RelType.SYNONYM_OF, Direction.OUTGOING);
+        if (acc != null && n.getSingleRelationship(RelType.PARENT_OF, Direction.INCOMING) == null) {
+            n = acc.getEndNode();
+        }
+        Relationship rel = n.getSingleRelationship(RelType.PARENT_OF, Direction.INCOMING);
+        int depth = 0;
+        while (rel != null && depth++ < MAX_DEPTH) {
+            n = rel.getStartNode();
+            rel = n.getSingleRelationship(RelType.PARENT_OF, Direction.INCOMING);
+        }
+        return n;
+    }
+
+    /**
+     * @return estimated transaction state size of the new extension nodes
+     */
+    private long createExtensions(Node n, List<Map<String, Object>> extensions) {
+        long bytes = 0;
+        for (Map<String, Object> extProps : extensions) {
+            Node ext = db.createNode(Labels.EXTENSION);
+            bytes += setProperties(ext, extProps);
+            n.createRelationshipTo(ext, RelType.HAS_EXTENSION);
+        }
+        return bytes;
+    }
+
+    private static void deleteExtensions(Node n) {
+        for (Relationship rel : n.getRelationships(RelType.HAS_EXTENSION, Direction.OUTGOING)) {
+            Node ext = rel.getEndNode();
+            rel.delete();
+            ext.delete();
+        }
+    }
+
+    /**
+     * @return estimated transaction state size of the written properties
+     */
+    private static long setProperties(Node n, Map<String, Object> props) {
+        for (Map.Entry<String, Object> e : props.entrySet()) {
+            if (e.getValue() != null) {
+                n.setProperty(e.getKey(), e.getValue());
+            }
+        }
+        return BatchTransaction.estimateBytes(props);
+    }
+
+    @VisibleForTesting
+    void initDb() throws IOException {
+        initDb(NeoConfiguration.Profile.TRAVERSAL);
+    }
+
+    /**
+     * Opens the embedded database with the settings of the given profile,
+     * reopening an already open database only if it uses a different profile.
+     */
+    @VisibleForTesting
+    void initDb(NeoConfiguration.Profile profile) throws IOException {
+        if (db != null && profile == dbProfile) {
+            return;
+        }
+        shutdown();
+        db = NeoConfiguration.open(storeDir, profile);
+        dbProfile = profile;
+    }
+
+    @VisibleForTesting
+    void setupTaxonIdIndex() {
+        Timer.Context timer = metrics.phase(Instrumentation.Phase.INDEX).time();
+        try {
+            // setup unique index for TAXON_ID if not yet existing
+            try (Transaction tx = db.beginTx()) {
+                Schema schema = db.schema();
+                if (IteratorUtil.count(schema.getIndexes(Labels.TAXON)) == 0) {
+                    LOG.debug("Create db indices ...");
+                    schema.constraintFor(Labels.TAXON).assertPropertyIsUnique(DwcTerm.taxonID.simpleName()).create();
+                    schema.indexFor(Labels.TAXON).on(DwcTerm.scientificName.simpleName()).create();
+                    tx.success();
+                } else {
+                    LOG.debug("Neo indices existing already");
+                }
+            }
+            // lookups before the index is populated fall back to label scans
+            try (Transaction tx = db.beginTx()) {
+                db.schema().awaitIndexesOnline(1, TimeUnit.HOURS);
+                tx.success();
+            }
+            checkpoint.done(ImportCheckpoint.Phase.INDEX);
+        } finally {
+            timer.stop();
         }
     }
 
     private void deleteAllRelations() {
         LOG.debug("Delete any existing relations");
-        try (Transaction tx = db.beginTx()) {
+        try (BatchTransaction tx = new BatchTransaction(db, BATCH_SIZE, BatchTransaction.DEFAULT_MEGABYTES)) {
             int counter = 0;
             for (Relationship rel : GlobalGraphOperations.at(db).getAllRelationships()) {
                 rel.delete();
+                tx.tick();
                 counter++;
                 if (counter % BATCH_SIZE == 0) {
-                    tx.success();
                     LOG.debug("Deleted {} relations", counter);
                 }
             }
@@ -171,56 +1189,158 @@ public class NeoImport {
     }
 
     /**
-     * Creates implicit nodes and sets up relations between taxa.
+     * Creates implicit nodes and sets up relations between taxa, checkpointing the last processed node with every commit.
+     * If a previous relation pass was interrupted the relations of all nodes after its checkpoint are renewed.
      */
-    private void setupRelations() {
+    @VisibleForTesting
+    void setupRelations() {
         LOG.debug("Start processing ...");
+        Timer.Context timer = metrics.phase(Instrumentation.Phase.RELATIONS).time();
         long counter = 0;
-
-        Transaction tx = db.beginTx();
         try {
-            for (Node n : GlobalGraphOperations.at(db).getAllNodes()) {
-                if (counter % BATCH_SIZE == 0) {
-                    tx.success();
-                    tx.close();
-                    LOG.debug("Relations processed for taxa: {}", counter);
-                    logMemory();
-                    tx = db.beginTx();
-                }
-
-                final String taxonID = (String) n.getProperty(DwcTerm.taxonID.simpleName());
+            final boolean resume = checkpoint.has(ImportCheckpoint.Phase.RELATIONS, CP_NODE);
+            final long resumeNode = checkpoint.get(ImportCheckpoint.Phase.RELATIONS, CP_NODE, NONE);
+            if (resume) {
+                LOG.info("Resume relation setup after node {}", resumeNode);
+                loadClassification();
+            } else {
+                classification = new ClassificationTrie(dbNodeCreator());
+                checkpoint.set(ImportCheckpoint.Phase.RELATIONS, CP_NODE, NONE);
+                checkpoint.save();
+            }
 
-                boolean isSynonym = setupAcceptedRel(n, taxonID);
-                setupParentRel(n, isSynonym, taxonID);
-                setupBasionymRel(n, taxonID);
+            final long[] last = {resumeNode};
+            try (BatchTransaction tx = new BatchTransaction(db, BATCH_SIZE, BatchTransaction.DEFAULT_MEGABYTES)) {
+                tx.setCommitListener(new Runnable() {
+                    @Override
+                    public void run() {
+                        checkpoint.set(ImportCheckpoint.Phase.RELATIONS, CP_NODE, last[0]);
+                        checkpoint.save();
+                    }
+                });
+                for (Node n : GlobalGraphOperations.at(db).getAllNodes()) {
+                    if (n.getId() <= resumeNode || n.hasLabel(Labels.IMPLICIT) || n.hasLabel(Labels.EXTENSION)) {
+                        continue;
+                    }
+                    if (resume) {
+                        renewRelations(n);
+                    } else {
+                        final String taxonID = (String) n.getProperty(DwcTerm.taxonID.simpleName());
+                        boolean isSynonym = setupAcceptedRel(n, taxonID);
+                        setupParentRel(n, isSynonym, taxonID);
+                        setupBasionymRel(n, taxonID);
+                    }
+                    last[0] = n.getId();
 
-                counter++;
-                relationMeter.mark();
+                    counter++;
+                    relationMeter.mark();
+                    tx.tick();
+                }
+                tx.success();
             }
-
+            checkpoint.done(ImportCheckpoint.Phase.RELATIONS);
         } finally {
-            tx.close();
+            timer.stop();
         }
         LOG.info("Import completed, {} nodes processed", counter);
         LOG.info("Relation setup metrics: {}", relationMeter.getMeanRate());
     }
 
-    private void buildMetrics() {
-        ImportTaxonMetricsHandler handler = new ImportTaxonMetricsHandler(db);
-
-        Transaction tx = db.beginTx();
+    /**
+     * Checks the tree for cycles, orphans and chained synonyms, writing a report into the store directory.
+     */
+    @VisibleForTesting
+    void validate() throws IOException {
+        Timer.Context timer = metrics.phase(Instrumentation.Phase.VALIDATION).time();
         try {
-            TaxonWalker.walkAll(db, handler);
-            tx.success();
+            File report = new File(storeDir, "validation.txt");
+            if (!new TreeValidator(db, repairTree).validate(report)) {
+                LOG.warn("Checklist tree has issues, see {}", report.getAbsolutePath());
+            }
+            checkpoint.done(ImportCheckpoint.Phase.VALIDATION);
         } finally {
-            tx.close();
+            timer.stop();
         }
     }
 
+    /**
+     * Clusters all homotypic names into basionym groups.
+     */
+    @VisibleForTesting
+    void buildBasionymGroups() {
+        Timer.Context timer = metrics.phase(Instrumentation.Phase.BASIONYM_GROUPS).time();
+        try {
+            new BasionymGrouper(db).run();
+            checkpoint.done(ImportCheckpoint.Phase.BASIONYM_GROUPS);
+        } finally {
+            timer.stop();
+        }
+    }
 
+    /**
+     * Builds the nested set, committing the lft and rgt writes in chunks so memory stays flat.
+     * A single threaded walk continues after the last root completed by an interrupted walk.
+     */
+    @VisibleForTesting
+    void buildMetrics() {
+        Timer.Context timer = metrics.phase(Instrumentation.Phase.NESTED_SET).time();
+        try {
+            final int resumeRoot = (int) checkpoint.get(ImportCheckpoint.Phase.NESTED_SET, CP_ROOT, NONE);
+            if (walkerThreads > 1 && resumeRoot == NONE) {
+                // synonyms can be placed in another subtree than their accepted taxon, so update them afterwards
+                final List<ImportTaxonMetricsHandler.SynonymUpdate> synonyms =
+                    Collections.synchronizedList(Lists.<ImportTaxonMetricsHandler.SynonymUpdate>newArrayList());
+                new ParallelTaxonWalker(db, walkerThreads, walkerSplitDepth).walkAll(new ParallelTaxonWalker.HandlerFactory() {
+                    @Override
+                    public StartEndHandler create(int startIdx, List<Node> ancestors) {
+                        ImportTaxonMetricsHandler handler = new ImportTaxonMetricsHandler(db, startIdx, ancestors);
+                        handler.deferSynonyms(synonyms);
+                        return handler;
+                    }
+                });
+                ImportTaxonMetricsHandler.updateSynonyms(db, synonyms);
+            } else {
+                walkRoots(resumeRoot);
+            }
+            checkpoint.done(ImportCheckpoint.Phase.NESTED_SET);
+        } finally {
+            timer.stop();
+        }
+    }
 
-    private void logMemory() {
-        LOG.debug("Heap usage: {}", memory.getValue());
+    /**
+     * Walks one root subtree after the other, checkpointing the last completed root and the next nested set index
+     * with every commit.
+     * @param resumeRoot index of the last root completed before or NONE
+     */
+    private void walkRoots(int resumeRoot) {
+        if (resumeRoot != NONE) {
+            LOG.info("Resume nested set after root {}", resumeRoot);
+        }
+        final int[] completed = {resumeRoot};
+        final int[] next = {(int) checkpoint.get(ImportCheckpoint.Phase.NESTED_SET, CP_LFT, 0)};
+        try (BatchTransaction tx = new BatchTransaction(db, BATCH_SIZE, BatchTransaction.DEFAULT_MEGABYTES)) {
+            tx.setCommitListener(new Runnable() {
+                @Override
+                public void run() {
+                    checkpoint.set(ImportCheckpoint.Phase.NESTED_SET, CP_ROOT, completed[0]);
+                    checkpoint.set(ImportCheckpoint.Phase.NESTED_SET, CP_LFT, next[0]);
+                    checkpoint.save();
+                }
+            });
+            TaxonomicOrderExpander expander = new TaxonomicOrderExpander();
+            BitSet visited = new BitSet();
+            List<Node> roots = TaxonWalker.roots(db, expander);
+            for (int i = resumeRoot + 1; i < roots.size(); i++) {
+                Node root = roots.get(i);
+                ImportTaxonMetricsHandler handler = new ImportTaxonMetricsHandler(db, next[0], ImmutableList.<Node>of());
+                if (TaxonWalker.walk(root, expander, TaxonWalker.committing(handler, tx), visited)) {
+                    next[0] = (Integer) root.getProperty(NeoUtils.PROP_RGT) + 1;
+                }
+                completed[0] = i;
+            }
+            tx.success();
+        }
     }
 
     @Deprecated
@@ -254,7 +1374,19 @@ public class NeoImport {
                 LOG.warn("parentNameUsageID {} not existing", pId);
             }
         } else if (!isSynonym) {
-            n.addLabel(Labels.ROOT);
+            final Node node = n;
+            long parent = classification.parent(n.getId(), Ranks.parse(value(n, DwcTerm.taxonRank)),
+                value(n, DwcTerm.scientificName), classification(new Function<Term, String>() {
+                    @Override
+                    public String apply(Term term) {
+                        return value(node, term);
+                    }
+                }));
+            if (parent != ClassificationTrie.NONE) {
+                db.getNodeById(parent).createRelationshipTo(n, RelType.PARENT_OF);
+            } else {
+                n.addLabel(Labels.ROOT);
+            }
         }
     }
 
@@ -282,20 +1414,39 @@ public class NeoImport {
         }
     }
 
-    private Node nodeByTaxonId(String taxonID) {
-        return IteratorUtil.firstOrNull(db.findNodesByLabelAndProperty(Labels.TAXON, DwcTerm.taxonID.simpleName(), taxonID));
+    @VisibleForTesting
+    Node nodeByTaxonId(String taxonID) {
+        Timer.Context timer = metrics.lookups().time();
+        try {
+            return IteratorUtil.firstOrNull(db.findNodesByLabelAndProperty(Labels.TAXON, DwcTerm.taxonID.simpleName(), taxonID));
+        } finally {
+            timer.stop();
+        }
     }
 
-    private String norm(String x) {
-        if (Strings.isNullOrEmpty(x) || NULL_PATTERN.matcher(x).find()) {
-            return null;
-        }
-        return x.trim();
+    /**
+     * Normalises identifiers and other values with the default rules, independent of any configuration.
+     */
+    static String norm(String x) {
+        return ValueNormalizer.DEFAULT.norm(x);
     }
 
+    /**
+     * @param args dwca file, optionally followed by either update or a comma separated list of phases to run,
+     *             e.g. nested_set,basionym_groups, and force to rerun the listed phases even if done already
+     */
     public static void main(String[] args) throws IOException {
         File dwca = new File(args[0]);
         NeoImport neo = new NeoImport(dwca);
-        neo.run();
+        if (args.length > 1 && args[1].equalsIgnoreCase("update")) {
+            neo.update();
+        } else {
+            Set<ImportCheckpoint.Phase> phases = args.length > 1 ? ImportCheckpoint.Phase.parse(args[1])
+                : EnumSet.allOf(ImportCheckpoint.Phase.class);
+            if (args.length > 2 && args[2].equalsIgnoreCase("force")) {
+                neo.resetPhases(phases);
+            }
+            neo.run(phases);
+        }
     }
 }
@@ -1,13 +1,92 @@
 package org.gbif.checklistbank;
 
+import org.neo4j.graphdb.Node;
+
 import java.io.File;
 
 /**
  *
  */
 public class NeoUtils {
+    public static final String PROP_LFT = "lft";
+    public static final String PROP_RGT = "rgt";
+    public static final String PROP_CHILDREN = "children";
+    public static final String PROP_SYNONYMS = "synonyms";
+    /**
+     * Smallest node id of the basionym group a name belongs to.
+     */
+    public static final String PROP_BASIONYM_GROUP = "basionymGroup";
+    /**
+     * Parsed name parts of the scientificName, see CachingNameParser.
+     */
+    public static final String PROP_CANONICAL_NAME = "canonicalName";
+    public static final String PROP_AUTHORSHIP = "authorship";
+    public static final String PROP_NAME_TYPE = "nameType";
+    /**
+     * Row type of extension nodes.
+     */
+    public static final String PROP_ROW_TYPE = "rowType";
+    /**
+     * Property names of the classification keys kingdom, phylum, class, order, family, genus and species.
+     */
+    public static final String[] PROP_CLASSIFICATION = {"kKey", "pKey", "cKey", "oKey", "fKey", "gKey", "sKey"};
+    /**
+     * Value used for classification keys that do not exist.
+     */
+    public static final int NO_KEY = -1;
+
+    /**
+     * @return the store directory of the named checklist as configured in NeoConfiguration
+     */
     public static File neoDir(String name) {
-        return new File("/Users/markus/neodbs/" + name);
+        return NeoConfiguration.storeDir(name);
+    }
+
+    /**
+     * Writes all usage metrics as node properties. Classification keys set to NO_KEY are removed.
+     */
+    public static void setMetrics(Node n, UsageMetrics m) {
+        n.setProperty(PROP_LFT, m.getLft());
+        n.setProperty(PROP_RGT, m.getRgt());
+        n.setProperty(PROP_CHILDREN, m.getChildren());
+        n.setProperty(PROP_SYNONYMS, m.getSynonyms());
+        setClassification(n, classification(m));
+    }
+
+    /**
+     * Writes the classification keys in the order of PROP_CLASSIFICATION. Keys set to NO_KEY are removed.
+     */
+    public static void setClassification(Node n, int[] keys) {
+        for (int i = 0; i < PROP_CLASSIFICATION.length; i++) {
+            if (keys[i] == NO_KEY) {
+                n.removeProperty(PROP_CLASSIFICATION[i]);
+            } else {
+                n.setProperty(PROP_CLASSIFICATION[i], keys[i]);
+            }
+        }
+    }
+
+    /**
+     * Reads all usage metrics from the node properties, using NO_KEY for missing classification keys.
+     */
+    public static UsageMetrics getMetrics(Node n) {
+        UsageMetrics m = new UsageMetrics();
+        m.setLft((Integer) n.getProperty(PROP_LFT, 0));
+        m.setRgt((Integer) n.getProperty(PROP_RGT, 0));
+        m.setChildren((Integer) n.getProperty(PROP_CHILDREN, 0));
+        m.setSynonyms((Integer) n.getProperty(PROP_SYNONYMS, 0));
+        m.setkKey((Integer) n.getProperty(PROP_CLASSIFICATION[0], NO_KEY));
+        m.setpKey((Integer) n.getProperty(PROP_CLASSIFICATION[1], NO_KEY));
+        m.setcKey((Integer) n.getProperty(PROP_CLASSIFICATION[2], NO_KEY));
+        m.setoKey((Integer) n.getProperty(PROP_CLASSIFICATION[3], NO_KEY));
+        m.setfKey((Integer) n.getProperty(PROP_CLASSIFICATION[4], NO_KEY));
+        m.setgKey((Integer) n.getProperty(PROP_CLASSIFICATION[5], NO_KEY));
+        m.setsKey((Integer) n.getProperty(PROP_CLASSIFICATION[6], NO_KEY));
+        return m;
+    }
+
+    private static int[] classification(UsageMetrics m) {
+        return new int[]{m.getkKey(), m.getpKey(), m.getcKey(), m.getoKey(), m.getfKey(), m.getgKey(), m.getsKey()};
     }
 
 }
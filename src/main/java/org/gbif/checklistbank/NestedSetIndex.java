@@ -0,0 +1,218 @@
+package org.gbif.checklistbank;
+
+import com.google.common.base.Preconditions;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.tooling.GlobalGraphOperations;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+
+/**
+ * Answers subtree, descendant and ancestor questions from the nested set written by the ImportTaxonMetricsHandler
+ * without traversing the graph.
+ * All nodes with lft and rgt values are kept in primitive arrays sorted by lft, so descendants of a node form
+ * a contiguous range and every query is a binary search, O(log n), plus the size of the result for lists.
+ * Nodes are addressed by their neo4j node id which is resolved through a second sorted array.
+ *
+ * The index is an immutable snapshot and safe for concurrent use. Load a new one after the nested set changed.
+ */
+public class NestedSetIndex {
+    private static final Logger LOG = LoggerFactory.getLogger(NestedSetIndex.class);
+    public static final int NOT_FOUND = -1;
+
+    // sorted by lft
+    private final int[] lft;
+    private final int[] rgt;
+    private final long[] nodes;
+    private final int[] parent;
+    // node id << 32 | position, sorted
+    private final long[] byNode;
+
+    private NestedSetIndex(int[] lft, int[] rgt, long[] nodes, int[] parent, long[] byNode) {
+        this.lft = lft;
+        this.rgt = rgt;
+        this.nodes = nodes;
+        this.parent = parent;
+        this.byNode = byNode;
+    }
+
+    /**
+     * Reads the nested set of all nodes into a new index.
+     */
+    public static NestedSetIndex load(GraphDatabaseService db) {
+        final long start = System.currentTimeMillis();
+        int size = 0;
+        int[] l = new int[1024];
+        int[] r = new int[1024];
+        long[] ids = new long[1024];
+        try (Transaction tx = db.beginTx()) {
+            for (Node n : GlobalGraphOperations.at(db).getAllNodes()) {
+                Integer nl = (Integer) n.getProperty(NeoUtils.PROP_LFT, null);
+                Integer nr = (Integer) n.getProperty(NeoUtils.PROP_RGT, null);
+                if (nl != null && nr != null) {
+                    Preconditions.checkState(n.getId() < Integer.MAX_VALUE, "Node id too large for the nested set index: %s", n.getId());
+                    if (size == l.length) {
+                        l = Arrays.copyOf(l, size * 2);
+                        r = Arrays.copyOf(r, size * 2);
+                        ids = Arrays.copyOf(ids, size * 2);
+                    }
+                    l[size] = nl;
+                    r[size] = nr;
+                    ids[size] = n.getId();
+                    size++;
+                }
+            }
+            tx.success();
+        }
+
+        // sort by lft via packed keys
+        long[] keys = new long[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = ((long) l[i] << 32) | i;
+        }
+        Arrays.sort(keys);
+        final int[] lft = new int[size];
+        final int[] rgt = new int[size];
+        final long[] nodes = new long[size];
+        for (int i = 0; i < size; i++) {
+            int idx = (int) keys[i];
+            lft[i] = l[idx];
+            rgt[i] = r[idx];
+            nodes[i] = ids[idx];
+        }
+
+        // parents are the closest enclosing interval, found with a stack sweep in lft order
+        final int[] parent = new int[size];
+        int[] stack = new int[64];
+        int depth = 0;
+        for (int i = 0; i < size; i++) {
+            while (depth > 0 && rgt[stack[depth - 1]] < lft[i]) {
+                depth--;
+            }
+            parent[i] = depth == 0 ? NOT_FOUND : stack[depth - 1];
+            if (depth == stack.length) {
+                stack = Arrays.copyOf(stack, depth * 2);
+            }
+            stack[depth++] = i;
+        }
+
+        final long[] byNode = new long[size];
+        for (int i = 0; i < size; i++) {
+            byNode[i] = (nodes[i] << 32) | i;
+        }
+        Arrays.sort(byNode);
+        LOG.info("Loaded nested set index with {} nodes in {} ms", size, System.currentTimeMillis() - start);
+        return new NestedSetIndex(lft, rgt, nodes, parent, byNode);
+    }
+
+    /**
+     * @return number of indexed nodes
+     */
+    public int size() {
+        return nodes.length;
+    }
+
+    /**
+     * @return the position of a node in lft order or NOT_FOUND
+     */
+    private int position(long nodeId) {
+        int low = 0;
+        int high = byNode.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long id = byNode[mid] >>> 32;
+            if (id < nodeId) {
+                low = mid + 1;
+            } else if (id > nodeId) {
+                high = mid - 1;
+            } else {
+                return (int) byNode[mid];
+            }
+        }
+        return NOT_FOUND;
+    }
+
+    private int checkedPosition(long nodeId) {
+        int pos = position(nodeId);
+        if (pos == NOT_FOUND) {
+            throw new IllegalArgumentException("Node " + nodeId + " is not part of the nested set");
+        }
+        return pos;
+    }
+
+    /**
+     * @return the position after the last descendant of the node at pos
+     */
+    private int end(int pos) {
+        int idx = Arrays.binarySearch(lft, pos + 1, lft.length, rgt[pos]);
+        // rgt values never equal an lft, so this is always the insertion point
+        return idx < 0 ? -idx - 1 : idx;
+    }
+
+    public boolean contains(long nodeId) {
+        return position(nodeId) != NOT_FOUND;
+    }
+
+    /**
+     * @return true if the node is a descendant of the ancestor or the ancestor itself
+     */
+    public boolean isInSubtree(long nodeId, long ancestorId) {
+        int n = checkedPosition(nodeId);
+        int a = checkedPosition(ancestorId);
+        return lft[a] <= lft[n] && rgt[n] <= rgt[a];
+    }
+
+    /**
+     * @return number of descendants of a node in the nested set
+     */
+    public int countDescendants(long nodeId) {
+        int pos = checkedPosition(nodeId);
+        return end(pos) - pos - 1;
+    }
+
+    /**
+     * @return the node ids of all descendants in depth first order
+     */
+    public long[] descendants(long nodeId) {
+        int pos = checkedPosition(nodeId);
+        return Arrays.copyOfRange(nodes, pos + 1, end(pos));
+    }
+
+    /**
+     * @return the node id of the parent or NOT_FOUND for roots
+     */
+    public long parent(long nodeId) {
+        int p = parent[checkedPosition(nodeId)];
+        return p == NOT_FOUND ? NOT_FOUND : nodes[p];
+    }
+
+    /**
+     * @return the node ids of all ancestors, starting with the root
+     */
+    public long[] ancestors(long nodeId) {
+        long[] result = new long[16];
+        int size = 0;
+        for (int p = parent[checkedPosition(nodeId)]; p != NOT_FOUND; p = parent[p]) {
+            if (size == result.length) {
+                result = Arrays.copyOf(result, size * 2);
+            }
+            result[size++] = nodes[p];
+        }
+        long[] rootFirst = new long[size];
+        for (int i = 0; i < size; i++) {
+            rootFirst[i] = result[size - 1 - i];
+        }
+        return rootFirst;
+    }
+
+    /**
+     * @return the node id with the given lft value or NOT_FOUND
+     */
+    public long nodeByLft(int lftValue) {
+        int idx = Arrays.binarySearch(lft, lftValue);
+        return idx < 0 ? NOT_FOUND : nodes[idx];
+    }
+}
@@ -0,0 +1,128 @@
+package org.gbif.checklistbank;
+
+import com.google.common.base.Charsets;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Streams rows into a postgres table using the text format of the COPY protocol.
+ * Rows are encoded into a fixed size byte buffer which is handed to the server whenever it is full,
+ * so no rows are ever kept in memory.
+ */
+public class PgCopyWriter implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(PgCopyWriter.class);
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final String table;
+    private final CopyIn copy;
+    private final StringBuilder row = new StringBuilder();
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int pos = 0;
+    private long rows = 0;
+
+    /**
+     * Starts a COPY for the given table columns on the connection.
+     * Only one COPY can be active per connection at a time.
+     */
+    public PgCopyWriter(Connection con, String table, String... columns) throws SQLException {
+        this.table = table;
+        StringBuilder sql = new StringBuilder("COPY ").append(table).append(" (");
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                sql.append(',');
+            }
+            sql.append(columns[i]);
+        }
+        sql.append(") FROM STDIN");
+        copy = ((PGConnection) con).getCopyAPI().copyIn(sql.toString());
+    }
+
+    /**
+     * Writes a single row. Null values are written as SQL NULL, all others as their string representation.
+     */
+    public void write(Object... values) throws SQLException {
+        row.setLength(0);
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                row.append('\t');
+            }
+            append(values[i]);
+        }
+        row.append('\n');
+        byte[] bytes = row.toString().getBytes(Charsets.UTF_8);
+        if (pos + bytes.length > BUFFER_SIZE) {
+            flush();
+        }
+        if (bytes.length > BUFFER_SIZE) {
+            copy.writeToCopy(bytes, 0, bytes.length);
+        } else {
+            System.arraycopy(bytes, 0, buffer, pos, bytes.length);
+            pos += bytes.length;
+        }
+        rows++;
+    }
+
+    private void append(Object value) {
+        if (value == null) {
+            row.append("\\N");
+            return;
+        }
+        String x = value.toString();
+        for (int i = 0; i < x.length(); i++) {
+            char c = x.charAt(i);
+            switch (c) {
+                case '\\':
+                    row.append("\\\\");
+                    break;
+                case '\t':
+                    row.append("\\t");
+                    break;
+                case '\n':
+                    row.append("\\n");
+                    break;
+                case '\r':
+                    row.append("\\r");
+                    break;
+                default:
+                    row.append(c);
+            }
+        }
+    }
+
+    private void flush() throws SQLException {
+        if (pos > 0) {
+            copy.writeToCopy(buffer, 0, pos);
+            pos = 0;
+        }
+    }
+
+    public long getRows() {
+        return rows;
+    }
+
+    /**
+     * Flushes all remaining rows and ends the COPY.
+     */
+    @Override
+    public void close() throws SQLException {
+        if (copy.isActive()) {
+            flush();
+            long copied = copy.endCopy();
+            LOG.info("Copied {} rows into {}", copied, table);
+        }
+    }
+
+    /**
+     * Cancels the COPY, discarding all rows written so far.
+     */
+    public void cancel() throws SQLException {
+        if (copy.isActive()) {
+            copy.cancelCopy();
+        }
+    }
+}
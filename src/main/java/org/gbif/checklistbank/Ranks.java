@@ -0,0 +1,58 @@
+package org.gbif.checklistbank;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.Maps;
+import org.gbif.api.vocabulary.Rank;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Maps the verbatim rank strings found in archives to the GBIF Rank enum.
+ * As a checklist only uses a handful of distinct rank values all parsed strings are cached.
+ */
+public class Ranks {
+    /**
+     * Ordinal used for missing or unknown ranks, sorting after all known ones.
+     */
+    public static final int UNKNOWN_ORDINAL = Integer.MAX_VALUE;
+
+    private static final Rank[] RANKS = Rank.values();
+    private static final ConcurrentMap<String, Integer> ORDINALS = Maps.newConcurrentMap();
+
+    private Ranks() {
+    }
+
+    @Nullable
+    public static Rank parse(@Nullable String rank) {
+        int ord = ordinal(rank);
+        return ord == UNKNOWN_ORDINAL ? null : RANKS[ord];
+    }
+
+    /**
+     * @return the ordinal of the matching Rank enum or UNKNOWN_ORDINAL
+     */
+    public static int ordinal(@Nullable String rank) {
+        if (Strings.isNullOrEmpty(rank)) {
+            return UNKNOWN_ORDINAL;
+        }
+        Integer ord = ORDINALS.get(rank);
+        if (ord == null) {
+            ord = lookup(rank);
+            ORDINALS.putIfAbsent(rank, ord);
+        }
+        return ord;
+    }
+
+    private static int lookup(String rank) {
+        String name = rank.trim().toUpperCase().replace(' ', '_').replace('-', '_');
+        if (name.endsWith(".")) {
+            name = name.substring(0, name.length() - 1);
+        }
+        try {
+            return Rank.valueOf(name).ordinal();
+        } catch (IllegalArgumentException e) {
+            return UNKNOWN_ORDINAL;
+        }
+    }
+}
@@ -8,5 +8,6 @@ import org.neo4j.graphdb.RelationshipType;
 public enum RelType implements RelationshipType{
   PARENT_OF,
   SYNONYM_OF,
-  BASIONYM_OF
+  BASIONYM_OF,
+  HAS_EXTENSION
 }
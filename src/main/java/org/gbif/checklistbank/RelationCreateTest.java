@@ -1,14 +1,9 @@
 package org.gbif.checklistbank;
 
-import com.yammer.metrics.Gauge;
 import com.yammer.metrics.Meter;
-import com.yammer.metrics.MetricRegistry;
-import com.yammer.metrics.jvm.MemoryUsageGaugeSet;
 import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.RelationshipType;
-import org.neo4j.graphdb.Transaction;
-import org.neo4j.graphdb.factory.GraphDatabaseFactory;
 import org.neo4j.tooling.GlobalGraphOperations;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -24,24 +19,16 @@ public class RelationCreateTest {
 
     private GraphDatabaseService db;
 
-    private final MetricRegistry registry = new MetricRegistry("neotest");
-    private final Meter meter = registry.meter("relation meter");
-    private final Gauge memory;
+    private final Instrumentation metrics = Instrumentation.get();
+    private final Meter meter = metrics.meter("relation meter");
 
     enum RelType implements RelationshipType{ PREVIOUS }
 
     public RelationCreateTest(File neoDir) {
         LOG.debug("Setting up embeeded neo database in dir {}", neoDir.getAbsolutePath());
 
-        GraphDatabaseFactory factory = new GraphDatabaseFactory();
-        db = factory.newEmbeddedDatabaseBuilder(neoDir.getAbsolutePath())
-            .loadPropertiesFromFile("src/main/resources/neo.properties")
-            .newGraphDatabase();
-
-        // Sets up performance metrics reporting
-        MemoryUsageGaugeSet mgs = new MemoryUsageGaugeSet();
-        registry.registerAll(mgs);
-        memory = (Gauge) mgs.getMetrics().get("heap.usage");
+        db = NeoConfiguration.open(neoDir, NeoConfiguration.Profile.TRAVERSAL);
+        metrics.registerStore(neoDir);
     }
 
     /**
@@ -52,65 +39,49 @@ public class RelationCreateTest {
         long counter = 0;
         Node prev = null;
 
-        Transaction tx = db.beginTx();
-        try {
+        try (BatchTransaction tx = new BatchTransaction(db)) {
             for (Node n : GlobalGraphOperations.at(db).getAllNodes()) {
-                if (counter % 10000 == 0) {
-                    tx.success();
-                    LOG.debug("Relations created={}, rate={}", counter, meter.getMeanRate());
-                    LOG.debug("Heap usage: {}", memory.getValue());
-                }
                 // create relation to previous
                 if (prev != null){
                     n.createRelationshipTo(prev, RelType.PREVIOUS);
+                    tx.tick();
                     counter++;
                     meter.mark();
                 }
                 prev = n;
             }
             tx.success();
-
-        } finally {
-            tx.close();
         }
 
         LOG.info("All nodes processed, {} relations created", counter);
         LOG.info("Relation metrics: {}", meter.getMeanRate());
-        LOG.debug("Heap usage: {}", memory.getValue());
+        LOG.debug("Heap usage: {}", metrics.heapUsage());
     }
 
     public void createNodes(int amount) {
         LOG.debug("Start creating {} nodes");
 
-        Transaction tx = db.beginTx();
-        try {
+        try (BatchTransaction tx = new BatchTransaction(db)) {
             for (int idx=1; idx<=amount; idx++) {
-                if (idx % 10000 == 0) {
-                    tx.success();
-//                    tx.close();
-                    LOG.debug("Node created={}, rate={}", idx, meter.getMeanRate());
-                    LOG.debug("Heap usage: {}", memory.getValue());
-//                    tx = db.beginTx();
-                }
                 Node n = db.createNode();
+                tx.tick();
                 meter.mark();
             }
             tx.success();
-
-        } finally {
-            tx.close();
         }
 
         LOG.info("All {} nodes created", amount);
         LOG.info("Mean creation rate={}", meter.getMeanRate());
-        LOG.debug("Heap usage={}", memory.getValue());
+        LOG.debug("Heap usage={}", metrics.heapUsage());
 
         db.shutdown();
     }
 
     public static void main(String[] args) throws IOException {
+        Instrumentation.get().startFromSystemProperties();
         RelationCreateTest neo = new RelationCreateTest(NeoUtils.neoDir("test"));
         //neo.createRelations();
         neo.createNodes(10000000);
+        Instrumentation.get().stop();
     }
 }
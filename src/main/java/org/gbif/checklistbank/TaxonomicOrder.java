@@ -0,0 +1,221 @@
+package org.gbif.checklistbank;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.google.common.io.Files;
+import org.gbif.checklistbank.ids.IdStore;
+import org.gbif.checklistbank.ids.IdStores;
+import org.gbif.dwc.record.Record;
+import org.gbif.dwc.terms.DwcTerm;
+import org.gbif.dwc.text.Archive;
+import org.gbif.dwc.text.StarRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * The depth first, taxonomic order of all core records of an archive, computed with bounded memory.
+ * Records are external merge sorted by their parent, or accepted taxon for synonyms, and then walked depth first
+ * from the roots, assigning every record row its position in the walk.
+ * Siblings are ordered by rank and name like the TaxonomicOrderExpander, with synonyms first.
+ * Records caught in parent cycles are appended at the end.
+ *
+ * The ordinals are dense, start with 0 and are used as node ids by the batch insert,
+ * so that parents, children and their relations are stored close to each other.
+ * All intermediate data lives in memory mapped files, limiting a single archive to 2^28 records.
+ */
+public class TaxonomicOrder implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(TaxonomicOrder.class);
+    private static final int MAX_ROWS = Integer.MAX_VALUE / 8;
+
+    private final File dir;
+    private final int size;
+    // ordinal + 1 for every row, 0 if not yet walked
+    private final IntBuffer ordinals;
+
+    private TaxonomicOrder(File dir, int size, IntBuffer ordinals) {
+        this.dir = dir;
+        this.size = size;
+        this.ordinals = ordinals;
+    }
+
+    /**
+     * Reads the archive core twice and computes the taxonomic order of its records.
+     * @param useCoreID     if true the core id is used as the taxonID
+     * @param idStoreType   the id store resolving taxonIDs to record rows
+     * @param sortMegabytes memory budget of the external sort
+     */
+    public static TaxonomicOrder build(Archive arch, boolean useCoreID, IdStores.Type idStoreType, int sortMegabytes)
+        throws IOException {
+        final File dir = Files.createTempDir();
+        final long start = System.currentTimeMillis();
+
+        // row of every taxonID
+        int rows = 0;
+        boolean built = false;
+        try (IdStore ids = IdStores.create(idStoreType, arch.getCore().getLocationFile().length() / 100, dir);
+             ExternalSorter sorter = new ExternalSorter(new File(dir, "sort"), sortMegabytes)) {
+            for (StarRecord star : arch) {
+                String taxonID = taxonID(star.core(), useCoreID);
+                if (taxonID != null) {
+                    ids.put(taxonID, rows);
+                }
+                rows++;
+                Preconditions.checkState(rows <= MAX_ROWS, "Archives with more than %s records cannot be sorted", MAX_ROWS);
+            }
+
+            // sort rows by parent, synonym status, rank and name
+            int row = 0;
+            StringBuilder sb = new StringBuilder();
+            for (StarRecord star : arch) {
+                Record core = star.core();
+                String taxonID = taxonID(core, useCoreID);
+                String aId = NeoImport.norm(core.value(DwcTerm.acceptedNameUsageID));
+                boolean synonym = aId != null && !aId.equals(taxonID);
+                String pId = synonym ? aId : NeoImport.norm(core.value(DwcTerm.parentNameUsageID));
+                long parent = pId == null || pId.equals(taxonID) ? IdStore.NOT_FOUND : ids.get(pId);
+                String name = NeoImport.norm(core.value(DwcTerm.scientificName));
+
+                sb.setLength(0);
+                hex(sb, (int) parent + 1);
+                sb.append(synonym ? '0' : '1');
+                hex(sb, Ranks.ordinal(NeoImport.norm(core.value(DwcTerm.taxonRank))));
+                if (name == null) {
+                    sb.append('1');
+                } else {
+                    sb.append('0').append(name.replace('\t', ' ').replace('\n', ' ').replace('\r', ' '));
+                }
+                sb.append('\t').append(row++);
+                sorter.add(sb.toString());
+            }
+
+            // children of every parent, with the roots stored under the virtual parent -1
+            IntBuffer children = map(new File(dir, "children"), rows);
+            IntBuffer links = map(new File(dir, "links"), 2L * (rows + 1));
+            Iterator<String> iter = sorter.sorted();
+            int idx = 0;
+            int last = -1;
+            while (iter.hasNext()) {
+                String line = iter.next();
+                int p = Integer.parseInt(line.substring(0, 8), 16);
+                if (p != last) {
+                    links.put(2 * p, idx);
+                    last = p;
+                }
+                links.put(2 * p + 1, links.get(2 * p + 1) + 1);
+                children.put(idx++, Integer.parseInt(line.substring(line.lastIndexOf('\t') + 1)));
+            }
+
+            // walk depth first from the roots, then from any record not reached, i.e. in a cycle
+            IntBuffer ordinals = map(new File(dir, "ordinals"), rows);
+            int next = walk(-1, 0, ordinals, children, links);
+            for (int r = 0; r < rows; r++) {
+                if (ordinals.get(r) == 0) {
+                    LOG.warn("Record {} not reachable from any root, likely a parent cycle", r);
+                    ordinals.put(r, ++next);
+                    next = walk(r, next, ordinals, children, links);
+                }
+            }
+            Preconditions.checkState(next == rows, "Taxonomic order covers %s of %s records", next, rows);
+            LOG.info("Sorted {} records taxonomically in {} seconds", rows, (System.currentTimeMillis() - start) / 1000);
+            built = true;
+            return new TaxonomicOrder(dir, rows, ordinals);
+        } finally {
+            if (!built) {
+                delete(dir);
+            }
+        }
+    }
+
+    /**
+     * Walks all not yet walked descendants of a parent row depth first.
+     * @param parent the row to start with or -1 for all roots
+     * @param next   number of ordinals assigned so far
+     * @return number of ordinals assigned after the walk
+     */
+    private static int walk(int parent, int next, IntBuffer ordinals, IntBuffer children, IntBuffer links) {
+        int[] nodes = new int[64];
+        int[] positions = new int[64];
+        int depth = 1;
+        nodes[0] = parent;
+        while (depth > 0) {
+            final int p = nodes[depth - 1] + 1;
+            final int pos = positions[depth - 1];
+            if (pos >= links.get(2 * p + 1)) {
+                depth--;
+                continue;
+            }
+            positions[depth - 1] = pos + 1;
+            final int child = children.get(links.get(2 * p) + pos);
+            if (ordinals.get(child) != 0) {
+                continue;
+            }
+            ordinals.put(child, ++next);
+            if (depth == nodes.length) {
+                nodes = Arrays.copyOf(nodes, depth * 2);
+                positions = Arrays.copyOf(positions, depth * 2);
+            }
+            nodes[depth] = child;
+            positions[depth] = 0;
+            depth++;
+        }
+        return next;
+    }
+
+    private static String taxonID(Record core, boolean useCoreID) {
+        return NeoImport.norm(useCoreID ? core.id() : core.value(DwcTerm.taxonID));
+    }
+
+    /**
+     * Appends an int as 8 hex digits so the string order equals the numerical order of positive ints.
+     */
+    private static void hex(StringBuilder sb, int x) {
+        String h = Integer.toHexString(x);
+        sb.append(Strings.repeat("0", 8 - h.length())).append(h);
+    }
+
+    private static IntBuffer map(File f, long ints) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+            return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, ints * 4).asIntBuffer();
+        }
+    }
+
+    /**
+     * @return number of records
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param row the zero based position of the record in the archive core file
+     * @return the position of the record in the taxonomic order
+     */
+    public long ordinal(int row) {
+        return ordinals.get(row) - 1;
+    }
+
+    /**
+     * Removes all temporary files.
+     */
+    @Override
+    public void close() {
+        delete(dir);
+    }
+
+    private static void delete(File dir) {
+        for (File f : Files.fileTreeTraverser().postOrderTraversal(dir)) {
+            if (!f.delete()) {
+                LOG.warn("Failed to remove {}", f.getAbsolutePath());
+            }
+        }
+    }
+}
@@ -0,0 +1,278 @@
+package org.gbif.checklistbank;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import org.gbif.dwc.terms.DwcTerm;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.tooling.GlobalGraphOperations;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Validates the parent and accepted relations of a checklist before it is walked.
+ * Relations are copied into primitive arrays indexed by node id, so memory is bounded by the highest node id,
+ * and all checks run in linear time:
+ * <ul>
+ *   <li>PARENT_OF cycles are found by colour marking the parent chains</li>
+ *   <li>nodes with more than one parent, which would be walked twice and can hide cycles</li>
+ *   <li>nodes labeled as a root that also have a parent, which would be walked twice as well</li>
+ *   <li>orphaned subtrees, i.e. accepted taxa without a parent that are not labeled as a root</li>
+ *   <li>chained synonyms, i.e. synonyms of synonyms</li>
+ * </ul>
+ * All issues are written to a tab delimited report. In repair mode surplus parent relations are removed,
+ * cycles are broken by removing the parent relation of the first cycle node found,
+ * cycle and orphan subtree roots are labeled as roots and roots with a parent lose their root label,
+ * so the walker visits them exactly once.
+ */
+public class TreeValidator {
+    private static final Logger LOG = LoggerFactory.getLogger(TreeValidator.class);
+    private static final int NONE = -1;
+    private static final byte WHITE = 0;
+    private static final byte GREY = 1;
+    private static final byte BLACK = 2;
+    private static final byte FLAG_EXISTS = 1;
+    private static final byte FLAG_ROOT = 2;
+    private static final byte FLAG_SYNONYM = 4;
+    private static final byte FLAG_NEW_ROOT = 8;
+
+    private final GraphDatabaseService db;
+    private final boolean repair;
+    private int[] parent;
+    private int[] accepted;
+    private byte[] flags;
+    private final List<Long> surplusParentRels = Lists.newArrayList();
+    private final List<Integer> newRoots = Lists.newArrayList();
+    private final List<Integer> parentedRoots = Lists.newArrayList();
+    private int cycles;
+    private int orphans;
+    private int chainedSynonyms;
+    private int multipleParents;
+    private int rootsWithParent;
+
+    /**
+     * @param repair if true cycles are broken and orphaned subtrees become roots
+     */
+    public TreeValidator(GraphDatabaseService db, boolean repair) {
+        this.db = db;
+        this.repair = repair;
+    }
+
+    /**
+     * Validates the entire graph and writes all issues found to the report file.
+     * @return true if no issues were found
+     */
+    public boolean validate(File report) throws IOException {
+        load();
+        try (Writer w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(report), Charsets.UTF_8))) {
+            try (Transaction tx = db.beginTx()) {
+                for (Long relId : surplusParentRels) {
+                    Relationship rel = db.getRelationshipById(relId);
+                    report(w, "MULTIPLE_PARENTS", rel.getEndNode().getId(), "additional parent " + rel.getStartNode().getId());
+                }
+                findCycles(w);
+                findRootsWithParent(w);
+                findOrphans(w);
+                findChainedSynonyms(w);
+                tx.success();
+            }
+        }
+        if (repair) {
+            repair();
+        }
+        LOG.info("Tree validation found {} cycles, {} orphaned subtrees, {} chained synonyms, {} nodes with multiple parents and {} roots with a parent",
+            cycles, orphans, chainedSynonyms, multipleParents, rootsWithParent);
+        parent = null;
+        accepted = null;
+        flags = null;
+        return cycles + orphans + chainedSynonyms + multipleParents + rootsWithParent == 0;
+    }
+
+    private void load() {
+        try (Transaction tx = db.beginTx()) {
+            long maxId = NONE;
+            for (Node n : GlobalGraphOperations.at(db).getAllNodes()) {
+                maxId = Math.max(maxId, n.getId());
+            }
+            Preconditions.checkState(maxId < Integer.MAX_VALUE, "Node ids too large for validation: %s", maxId);
+            final int size = (int) maxId + 1;
+            parent = new int[size];
+            accepted = new int[size];
+            flags = new byte[size];
+            Arrays.fill(parent, NONE);
+            Arrays.fill(accepted, NONE);
+
+            for (Node n : GlobalGraphOperations.at(db).getAllNodes()) {
+                if (!n.hasLabel(Labels.EXTENSION)) {
+                    flags[(int) n.getId()] = FLAG_EXISTS;
+                }
+            }
+            for (Node n : GlobalGraphOperations.at(db).getAllNodesWithLabel(Labels.ROOT)) {
+                flags[(int) n.getId()] |= FLAG_ROOT;
+            }
+            for (Relationship rel : GlobalGraphOperations.at(db).getAllRelationships()) {
+                final int start = (int) rel.getStartNode().getId();
+                final int end = (int) rel.getEndNode().getId();
+                if (rel.isType(RelType.PARENT_OF)) {
+                    if (parent[end] == NONE) {
+                        parent[end] = start;
+                    } else {
+                        surplusParentRels.add(rel.getId());
+                        multipleParents++;
+                    }
+                } else if (rel.isType(RelType.SYNONYM_OF)) {
+                    flags[start] |= FLAG_SYNONYM;
+                    accepted[start] = end;
+                }
+            }
+            tx.success();
+        }
+    }
+
+    /**
+     * Follows the parent chain of every node, marking nodes on the current chain grey and finished chains black.
+     * Reaching a grey node closes a cycle.
+     */
+    private void findCycles(Writer w) throws IOException {
+        final byte[] colour = new byte[parent.length];
+        int[] path = new int[64];
+        for (int start = 0; start < parent.length; start++) {
+            if (colour[start] != WHITE) {
+                continue;
+            }
+            int len = 0;
+            int n = start;
+            while (n != NONE && colour[n] == WHITE) {
+                colour[n] = GREY;
+                if (len == path.length) {
+                    path = Arrays.copyOf(path, len * 2);
+                }
+                path[len++] = n;
+                n = parent[n];
+            }
+            if (n != NONE && colour[n] == GREY) {
+                cycles++;
+                StringBuilder sb = new StringBuilder();
+                for (int i = len - 1; i >= 0 && path[i] != n; i--) {
+                    sb.append(path[i]).append(' ');
+                }
+                sb.append(n);
+                report(w, "CYCLE", n, sb.toString());
+                // break the cycle above n
+                parent[n] = NONE;
+                flags[n] |= FLAG_NEW_ROOT;
+                newRoots.add(n);
+            }
+            for (int i = 0; i < len; i++) {
+                colour[path[i]] = BLACK;
+            }
+        }
+    }
+
+    /**
+     * Nodes labeled as roots that have a parent, not counting nodes whose parent relation breaks a cycle.
+     */
+    private void findRootsWithParent(Writer w) throws IOException {
+        for (int n = 0; n < parent.length; n++) {
+            if (parent[n] != NONE && (flags[n] & FLAG_ROOT) != 0) {
+                rootsWithParent++;
+                report(w, "ROOT_WITH_PARENT", n, "root with parent " + parent[n]);
+                parentedRoots.add(n);
+            }
+        }
+    }
+
+    /**
+     * Accepted taxa without a parent that are not labeled as roots, e.g. pointing to a missing parent.
+     * Nodes broken out of cycles are roots already.
+     */
+    private void findOrphans(Writer w) throws IOException {
+        for (int n = 0; n < parent.length; n++) {
+            if (parent[n] == NONE && flags[n] == FLAG_EXISTS) {
+                orphans++;
+                report(w, "ORPHAN", n, "accepted taxon without parent");
+                newRoots.add(n);
+            }
+        }
+    }
+
+    private void findChainedSynonyms(Writer w) throws IOException {
+        for (int n = 0; n < accepted.length; n++) {
+            final int acc = accepted[n];
+            if (acc != NONE && accepted[acc] != NONE) {
+                chainedSynonyms++;
+                report(w, "CHAINED_SYNONYM", n, "synonym of synonym " + acc);
+            }
+        }
+    }
+
+    private void repair() {
+        try (BatchTransaction tx = new BatchTransaction(db)) {
+            for (Long relId : surplusParentRels) {
+                db.getRelationshipById(relId).delete();
+                tx.tick();
+            }
+            for (int id : newRoots) {
+                Node n = db.getNodeById(id);
+                for (Relationship rel : n.getRelationships(RelType.PARENT_OF, Direction.INCOMING)) {
+                    rel.delete();
+                    tx.tick();
+                }
+                n.addLabel(Labels.ROOT);
+                tx.tick();
+            }
+            for (int id : parentedRoots) {
+                db.getNodeById(id).removeLabel(Labels.ROOT);
+                tx.tick();
+            }
+            tx.success();
+        }
+        LOG.info("Removed {} surplus parent relations, labeled {} new roots and unlabeled {} roots with a parent",
+            surplusParentRels.size(), newRoots.size(), parentedRoots.size());
+    }
+
+    private void report(Writer w, String issue, long nodeId, String details) throws IOException {
+        Node n = db.getNodeById(nodeId);
+        w.write(issue);
+        w.write('\t');
+        w.write(String.valueOf(nodeId));
+        w.write('\t');
+        w.write(String.valueOf(n.getProperty(DwcTerm.taxonID.simpleName(), "")));
+        w.write('\t');
+        w.write(details);
+        w.write('\n');
+    }
+
+    public int getCycles() {
+        return cycles;
+    }
+
+    public int getOrphans() {
+        return orphans;
+    }
+
+    public int getChainedSynonyms() {
+        return chainedSynonyms;
+    }
+
+    public int getMultipleParents() {
+        return multipleParents;
+    }
+
+    public int getRootsWithParent() {
+        return rootsWithParent;
+    }
+}
@@ -0,0 +1,220 @@
+package org.gbif.checklistbank;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.Maps;
+import org.gbif.dwc.terms.Term;
+import org.gbif.dwc.terms.TermFactory;
+
+import javax.annotation.Nullable;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Normalises verbatim archive values by scanning their characters once, without regular expressions.
+ * Values are only copied if a rule actually changes them, so clean values pass without any allocation.
+ * The rules to apply can be configured per term with a default for all other terms, e.g. in the neo configuration:
+ * <pre>
+ * clbneo.norm.default=NULL_TOKENS,TRIM
+ * clbneo.norm.scientificName=NULL_TOKENS,TRIM,CONTROL_CHARS,COLLAPSE_WHITESPACE
+ * </pre>
+ * Instances are immutable and safe for concurrent use by the parser threads.
+ */
+public class ValueNormalizer {
+    public static final String PREFIX = NeoConfiguration.PREFIX + "norm.";
+    private static final String DEFAULT_KEY = "default";
+
+    public enum Rule {
+        /**
+         * Treats the postgres and mysql null tokens \N, NULL and \NULL as null.
+         */
+        NULL_TOKENS,
+        /**
+         * Removes leading and trailing whitespace, returning null for blank values.
+         */
+        TRIM,
+        /**
+         * Removes control characters like zero width joiners, byte order marks or stray escapes.
+         */
+        CONTROL_CHARS,
+        /**
+         * Replaces runs of whitespace, including non breaking spaces, with a single space.
+         */
+        COLLAPSE_WHITESPACE
+    }
+
+    /**
+     * Null tokens and trimming for all terms, as used for identifiers.
+     */
+    public static final ValueNormalizer DEFAULT = new ValueNormalizer(EnumSet.of(Rule.NULL_TOKENS, Rule.TRIM),
+        Maps.<Term, Set<Rule>>newHashMap());
+
+    private final int defaultRules;
+    private final Map<Term, Integer> termRules = Maps.newHashMap();
+
+    public ValueNormalizer(Set<Rule> defaultRules, Map<Term, ? extends Set<Rule>> termRules) {
+        this.defaultRules = mask(defaultRules);
+        for (Map.Entry<Term, ? extends Set<Rule>> e : termRules.entrySet()) {
+            this.termRules.put(e.getKey(), mask(e.getValue()));
+        }
+    }
+
+    /**
+     * Reads the rules from properties named clbneo.norm.default and clbneo.norm.[term name].
+     */
+    public static ValueNormalizer create(Properties props) {
+        Set<Rule> defaults = rules(props.getProperty(PREFIX + DEFAULT_KEY), EnumSet.of(Rule.NULL_TOKENS, Rule.TRIM));
+        Map<Term, Set<Rule>> termRules = Maps.newHashMap();
+        for (String key : props.stringPropertyNames()) {
+            if (key.startsWith(PREFIX) && !key.equals(PREFIX + DEFAULT_KEY)) {
+                Term t = TermFactory.instance().findTerm(key.substring(PREFIX.length()));
+                termRules.put(t, rules(props.getProperty(key), defaults));
+            }
+        }
+        return new ValueNormalizer(defaults, termRules);
+    }
+
+    private static Set<Rule> rules(@Nullable String value, Set<Rule> defaults) {
+        if (value == null) {
+            return defaults;
+        }
+        Set<Rule> rules = EnumSet.noneOf(Rule.class);
+        for (String r : Splitter.on(',').trimResults().omitEmptyStrings().split(value)) {
+            rules.add(Rule.valueOf(r.toUpperCase()));
+        }
+        return rules;
+    }
+
+    private static int mask(Set<Rule> rules) {
+        int mask = 0;
+        for (Rule r : rules) {
+            mask |= 1 << r.ordinal();
+        }
+        return mask;
+    }
+
+    private static boolean has(int mask, Rule rule) {
+        return (mask & (1 << rule.ordinal())) != 0;
+    }
+
+    /**
+     * Normalises a value with the default rules.
+     */
+    @Nullable
+    public String norm(@Nullable String x) {
+        return norm(x, defaultRules);
+    }
+
+    /**
+     * Normalises a value with the rules configured for its term.
+     */
+    @Nullable
+    public String norm(Term term, @Nullable String x) {
+        Integer mask = termRules.get(term);
+        return norm(x, mask == null ? defaultRules : mask);
+    }
+
+    @Nullable
+    private static String norm(@Nullable String x, int rules) {
+        if (x == null || x.isEmpty()) {
+            return null;
+        }
+        int start = 0;
+        int end = x.length();
+        // whitespace as matched by \s in regular expressions
+        while (start < end && isSpace(x.charAt(start))) {
+            start++;
+        }
+        while (end > start && isSpace(x.charAt(end - 1))) {
+            end--;
+        }
+        if (has(rules, Rule.NULL_TOKENS) && isNullToken(x, start, end)) {
+            return null;
+        }
+        if (has(rules, Rule.TRIM)) {
+            if (start == end) {
+                return null;
+            }
+        } else {
+            start = 0;
+            end = x.length();
+        }
+        final boolean control = has(rules, Rule.CONTROL_CHARS);
+        final boolean collapse = has(rules, Rule.COLLAPSE_WHITESPACE);
+        if ((control || collapse) && needsCleaning(x, start, end, control, collapse)) {
+            return clean(x, start, end, control, collapse);
+        }
+        return start == 0 && end == x.length() ? x : x.substring(start, end);
+    }
+
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f' || c == '\u000B';
+    }
+
+    private static boolean isWhitespace(char c) {
+        return isSpace(c) || Character.isSpaceChar(c);
+    }
+
+    private static boolean isControl(char c) {
+        return !isSpace(c) && (Character.isISOControl(c) || c == '\uFEFF' || c == '\u200B' || c == '\u200D');
+    }
+
+    /**
+     * Matches \N, NULL and \NULL within the given range.
+     */
+    private static boolean isNullToken(String x, int start, int end) {
+        final int len = end - start;
+        if (len == 2) {
+            return x.charAt(start) == '\\' && x.charAt(start + 1) == 'N';
+        } else if (len == 4) {
+            return x.startsWith("NULL", start);
+        } else if (len == 5) {
+            return x.charAt(start) == '\\' && x.startsWith("NULL", start + 1);
+        }
+        return false;
+    }
+
+    private static boolean needsCleaning(String x, int start, int end, boolean control, boolean collapse) {
+        boolean prevSpace = false;
+        for (int i = start; i < end; i++) {
+            final char c = x.charAt(i);
+            if (control && isControl(c)) {
+                return true;
+            }
+            if (collapse) {
+                if (isWhitespace(c)) {
+                    if (prevSpace || c != ' ') {
+                        return true;
+                    }
+                    prevSpace = true;
+                } else {
+                    prevSpace = false;
+                }
+            }
+        }
+        return false;
+    }
+
+    @Nullable
+    private static String clean(String x, int start, int end, boolean control, boolean collapse) {
+        StringBuilder sb = new StringBuilder(end - start);
+        boolean prevSpace = false;
+        for (int i = start; i < end; i++) {
+            final char c = x.charAt(i);
+            if (control && isControl(c)) {
+                continue;
+            }
+            if (collapse && isWhitespace(c)) {
+                if (!prevSpace) {
+                    sb.append(' ');
+                }
+                prevSpace = true;
+            } else {
+                sb.append(c);
+                prevSpace = false;
+            }
+        }
+        return sb.length() == 0 ? null : sb.toString();
+    }
+}
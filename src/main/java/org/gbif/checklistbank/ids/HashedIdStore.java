@@ -0,0 +1,88 @@
+package org.gbif.checklistbank.ids;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Throwables;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Exact id store keeping a 64 bit hash of every identifier in a fixed width off heap table
+ * which points to an off heap log entry holding the identifier bytes and its node id.
+ * Lookups verify the identifier, so hash collisions and unknown identifiers never resolve to a wrong node.
+ * Takes 16 bytes per table slot plus 20 bytes and the UTF-8 identifier per entry, without any GC pressure.
+ */
+public class HashedIdStore implements IdStore {
+    private static final Logger LOG = LoggerFactory.getLogger(HashedIdStore.class);
+    private final LongHashTable table;
+    private final KeyLog keys;
+    private long size;
+
+    /**
+     * @param dir optional directory to memory map the table and identifiers in, if null direct memory is used
+     */
+    public HashedIdStore(long expectedSize, @Nullable File dir) throws IOException {
+        table = new LongHashTable(expectedSize, dir);
+        keys = new KeyLog(dir);
+    }
+
+    @Override
+    public void put(String id, long nodeId) {
+        final long h = hash(id);
+        final byte[] key = id.getBytes(Charsets.UTF_8);
+        final long head = table.get(h, KeyLog.NONE);
+        for (long e = head; e != KeyLog.NONE; e = keys.next(e)) {
+            if (keys.matches(e, key)) {
+                long prev = keys.node(e);
+                if (prev != nodeId) {
+                    LOG.warn("Identifier {} is not unique, overwriting node {} with {}", id, prev, nodeId);
+                    keys.setNode(e, nodeId);
+                }
+                return;
+            }
+        }
+        try {
+            table.put(h, keys.append(head, nodeId, key), KeyLog.NONE);
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+        size++;
+    }
+
+    @Override
+    public long get(String id) {
+        final byte[] key = id.getBytes(Charsets.UTF_8);
+        for (long e = table.get(hash(id), KeyLog.NONE); e != KeyLog.NONE; e = keys.next(e)) {
+            if (keys.matches(e, key)) {
+                return keys.node(e);
+            }
+        }
+        return NOT_FOUND;
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public void close() throws IOException {
+        table.close();
+        keys.close();
+    }
+
+    /**
+     * 64 bit FNV-1a hash of the chars, never zero.
+     */
+    static long hash(String id) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < id.length(); i++) {
+            h ^= id.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return h == 0 ? 1 : h;
+    }
+}
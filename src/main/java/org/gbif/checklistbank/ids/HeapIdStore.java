@@ -0,0 +1,34 @@
+package org.gbif.checklistbank.ids;
+
+import com.google.common.collect.Maps;
+
+import java.util.Map;
+
+/**
+ * Simple id store backed by a java HashMap.
+ * Fast and exact, but needs around 100 bytes of heap per entry so only suitable for small and medium sized archives.
+ */
+public class HeapIdStore implements IdStore {
+    private final Map<String, Long> ids = Maps.newHashMap();
+
+    @Override
+    public void put(String id, long nodeId) {
+        ids.put(id, nodeId);
+    }
+
+    @Override
+    public long get(String id) {
+        Long nodeId = ids.get(id);
+        return nodeId == null ? NOT_FOUND : nodeId;
+    }
+
+    @Override
+    public long size() {
+        return ids.size();
+    }
+
+    @Override
+    public void close() {
+        ids.clear();
+    }
+}
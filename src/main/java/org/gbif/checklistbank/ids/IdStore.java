@@ -0,0 +1,25 @@
+package org.gbif.checklistbank.ids;
+
+import java.io.Closeable;
+
+/**
+ * Resolves the string identifiers of an archive, e.g. taxonID, to neo4j node ids.
+ */
+public interface IdStore extends Closeable {
+    /**
+     * Value returned by get for unknown ids.
+     */
+    long NOT_FOUND = -1;
+
+    void put(String id, long nodeId);
+
+    /**
+     * @return the node id for the given identifier or NOT_FOUND
+     */
+    long get(String id);
+
+    /**
+     * @return number of stored identifiers
+     */
+    long size();
+}
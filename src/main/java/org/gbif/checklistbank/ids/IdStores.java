@@ -0,0 +1,55 @@
+package org.gbif.checklistbank.ids;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Factory for the various id store implementations.
+ */
+public class IdStores {
+
+    public enum Type {
+        /**
+         * Exact java HashMap, only for small archives.
+         */
+        HEAP,
+        /**
+         * Exact hashed identifiers in direct memory.
+         */
+        OFF_HEAP,
+        /**
+         * Exact hashed identifiers in memory mapped files.
+         */
+        MAPPED,
+        /**
+         * Exact numerical identifiers in a memory mapped file if a directory is given or direct memory otherwise.
+         */
+        NUMERIC
+    }
+
+    private IdStores() {
+    }
+
+    /**
+     * @param expectedSize expected number of identifiers to size the initial tables. Stores grow when needed
+     * @param dir          directory for memory mapped files, required for MAPPED
+     */
+    public static IdStore create(Type type, long expectedSize, @Nullable File dir) throws IOException {
+        switch (type) {
+            case HEAP:
+                return new HeapIdStore();
+            case OFF_HEAP:
+                return new HashedIdStore(expectedSize, null);
+            case MAPPED:
+                if (dir == null) {
+                    throw new IllegalArgumentException("Mapped id stores require a directory");
+                }
+                return new HashedIdStore(expectedSize, dir);
+            case NUMERIC:
+                return new NumericIdStore(expectedSize, dir);
+            default:
+                throw new IllegalArgumentException("Unsupported id store type " + type);
+        }
+    }
+}
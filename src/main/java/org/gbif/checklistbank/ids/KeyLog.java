@@ -0,0 +1,132 @@
+package org.gbif.checklistbank.ids;
+
+import com.google.common.collect.Lists;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+/**
+ * Append only log of identifier entries outside of the java heap, used to verify hashed lookups.
+ * Every entry holds the offset of the previous entry with the same hash, a node id and the identifier bytes,
+ * so colliding identifiers form a chain starting at the last one added.
+ * Entries live in fixed size segments, either direct byte buffers or, if a directory is given, memory mapped files,
+ * and never span two segments. Offsets encode the segment in their upper bits.
+ */
+class KeyLog implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(KeyLog.class);
+    static final long NONE = -1;
+    // 16MB segments keep the waste at segment ends and the initial allocation small
+    private static final int SEGMENT_SHIFT = 24;
+    private static final int SEGMENT_BYTES = 1 << SEGMENT_SHIFT;
+    private static final int HEADER_BYTES = 8 + 8 + 4;
+
+    private final File dir;
+    private final List<ByteBuffer> segments = Lists.newArrayList();
+    private final List<RandomAccessFile> files = Lists.newArrayList();
+    private ByteBuffer current;
+    private int pos;
+
+    /**
+     * @param dir optional directory for memory mapped segment files. If null direct buffers are used
+     */
+    KeyLog(@Nullable File dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * @param next offset of the previous entry with the same hash or NONE
+     * @return the offset of the new entry
+     */
+    long append(long next, long node, byte[] key) throws IOException {
+        final int len = HEADER_BYTES + key.length;
+        if (len > SEGMENT_BYTES) {
+            throw new IllegalArgumentException("Identifier too long: " + key.length + " bytes");
+        }
+        if (current == null || pos + len > SEGMENT_BYTES) {
+            addSegment();
+        }
+        final long offset = ((long) (segments.size() - 1) << SEGMENT_SHIFT) | pos;
+        current.putLong(pos, next);
+        current.putLong(pos + 8, node);
+        current.putInt(pos + 16, key.length);
+        for (int i = 0; i < key.length; i++) {
+            current.put(pos + HEADER_BYTES + i, key[i]);
+        }
+        pos += len;
+        return offset;
+    }
+
+    private void addSegment() throws IOException {
+        if (dir == null) {
+            current = ByteBuffer.allocateDirect(SEGMENT_BYTES);
+        } else {
+            File file = new File(dir, "idkeys-" + segments.size() + ".bin");
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            files.add(raf);
+            raf.setLength(SEGMENT_BYTES);
+            current = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_BYTES);
+            LOG.debug("Mapped id key segment {}", file.getAbsolutePath());
+        }
+        segments.add(current);
+        pos = 0;
+    }
+
+    private ByteBuffer segment(long offset) {
+        return segments.get((int) (offset >>> SEGMENT_SHIFT));
+    }
+
+    private static int position(long offset) {
+        return (int) (offset & (SEGMENT_BYTES - 1));
+    }
+
+    long next(long offset) {
+        return segment(offset).getLong(position(offset));
+    }
+
+    long node(long offset) {
+        return segment(offset).getLong(position(offset) + 8);
+    }
+
+    void setNode(long offset, long node) {
+        segment(offset).putLong(position(offset) + 8, node);
+    }
+
+    /**
+     * @return true if the entry holds exactly the given identifier bytes
+     */
+    boolean matches(long offset, byte[] key) {
+        final ByteBuffer seg = segment(offset);
+        final int p = position(offset);
+        if (seg.getInt(p + 16) != key.length) {
+            return false;
+        }
+        for (int i = 0; i < key.length; i++) {
+            if (seg.get(p + HEADER_BYTES + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        segments.clear();
+        current = null;
+        for (int i = 0; i < files.size(); i++) {
+            files.get(i).close();
+            File file = new File(dir, "idkeys-" + i + ".bin");
+            if (!file.delete()) {
+                LOG.warn("Failed to delete id key file {}", file.getAbsolutePath());
+            }
+        }
+        files.clear();
+    }
+}
@@ -0,0 +1,177 @@
+package org.gbif.checklistbank.ids;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Fixed width, open addressing hash table mapping long keys to long values outside of the java heap.
+ * Every slot takes 16 bytes and the table is kept at most 3/4 full, doubling its capacity when needed.
+ * Slots live either in direct byte buffers or, if a directory is given, in a memory mapped file.
+ * The key 0 is reserved to mark empty slots.
+ */
+class LongHashTable implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(LongHashTable.class);
+    private static final int SLOT_BYTES = 16;
+    // 2^26 slots make a 1GB segment, well below the 2GB limit of a single ByteBuffer
+    private static final int SEGMENT_SHIFT = 26;
+    private static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+    private static final long MIN_CAPACITY = 1024;
+
+    private final File dir;
+    private File file;
+    private RandomAccessFile raf;
+    private ByteBuffer[] segments;
+    private long capacity;
+    private long mask;
+    private long size;
+    private int generation = 0;
+
+    /**
+     * @param expectedSize number of entries to size the initial table for
+     * @param dir          optional directory for a memory mapped table file. If null direct buffers are used
+     */
+    LongHashTable(long expectedSize, @Nullable File dir) throws IOException {
+        this.dir = dir;
+        long cap = MIN_CAPACITY;
+        while (cap * 3 < expectedSize * 4) {
+            cap <<= 1;
+        }
+        allocate(cap);
+    }
+
+    private void allocate(long cap) throws IOException {
+        capacity = cap;
+        mask = cap - 1;
+        size = 0;
+        final long segSlots = Math.min(cap, 1L << SEGMENT_SHIFT);
+        final int segCount = (int) (cap / segSlots);
+        segments = new ByteBuffer[segCount];
+        if (dir == null) {
+            for (int i = 0; i < segCount; i++) {
+                segments[i] = ByteBuffer.allocateDirect((int) (segSlots * SLOT_BYTES));
+            }
+        } else {
+            file = new File(dir, "idtable-" + (generation++) + ".bin");
+            raf = new RandomAccessFile(file, "rw");
+            raf.setLength(cap * SLOT_BYTES);
+            FileChannel channel = raf.getChannel();
+            for (int i = 0; i < segCount; i++) {
+                segments[i] = channel.map(FileChannel.MapMode.READ_WRITE, i * segSlots * SLOT_BYTES, segSlots * SLOT_BYTES);
+            }
+            LOG.debug("Mapped id table {} with capacity {}", file.getAbsolutePath(), cap);
+        }
+    }
+
+    private long keyAt(long slot) {
+        return segments[(int) (slot >>> SEGMENT_SHIFT)].getLong((int) (slot & SEGMENT_MASK) * SLOT_BYTES);
+    }
+
+    private long valueAt(long slot) {
+        return segments[(int) (slot >>> SEGMENT_SHIFT)].getLong((int) (slot & SEGMENT_MASK) * SLOT_BYTES + 8);
+    }
+
+    private void write(long slot, long key, long value) {
+        ByteBuffer seg = segments[(int) (slot >>> SEGMENT_SHIFT)];
+        int offset = (int) (slot & SEGMENT_MASK) * SLOT_BYTES;
+        seg.putLong(offset, key);
+        seg.putLong(offset + 8, value);
+    }
+
+    /**
+     * @return the previous value for the key or noValue if it did not exist before
+     */
+    long put(long key, long value, long noValue) throws IOException {
+        if (key == 0) {
+            throw new IllegalArgumentException("Key 0 is reserved");
+        }
+        if ((size + 1) * 4 > capacity * 3) {
+            grow();
+        }
+        long slot = mix(key) & mask;
+        while (true) {
+            long k = keyAt(slot);
+            if (k == 0) {
+                write(slot, key, value);
+                size++;
+                return noValue;
+            } else if (k == key) {
+                long prev = valueAt(slot);
+                write(slot, key, value);
+                return prev;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    long get(long key, long noValue) {
+        long slot = mix(key) & mask;
+        while (true) {
+            long k = keyAt(slot);
+            if (k == 0) {
+                return noValue;
+            } else if (k == key) {
+                return valueAt(slot);
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    long size() {
+        return size;
+    }
+
+    private void grow() throws IOException {
+        final ByteBuffer[] oldSegments = segments;
+        final long oldCapacity = capacity;
+        final RandomAccessFile oldRaf = raf;
+        final File oldFile = file;
+        LOG.debug("Grow id table from {} to {} slots", oldCapacity, oldCapacity * 2);
+
+        allocate(oldCapacity * 2);
+        final long segSlots = Math.min(oldCapacity, 1L << SEGMENT_SHIFT);
+        for (ByteBuffer seg : oldSegments) {
+            for (int s = 0; s < segSlots; s++) {
+                long k = seg.getLong(s * SLOT_BYTES);
+                if (k != 0) {
+                    put(k, seg.getLong(s * SLOT_BYTES + 8), 0);
+                }
+            }
+        }
+        release(oldRaf, oldFile);
+    }
+
+    private static void release(@Nullable RandomAccessFile raf, @Nullable File file) throws IOException {
+        if (raf != null) {
+            raf.close();
+        }
+        if (file != null && !file.delete()) {
+            LOG.warn("Failed to delete id table file {}", file.getAbsolutePath());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        segments = null;
+        release(raf, file);
+    }
+
+    /**
+     * Murmur3 64 bit finalizer spreading the bits of the key.
+     */
+    static long mix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+}
@@ -0,0 +1,76 @@
+package org.gbif.checklistbank.ids;
+
+import com.google.common.base.Throwables;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Id store for archives using numerical identifiers, e.g. taxonID=12345.
+ * Numbers are used directly as exact keys of an off heap table taking 16 bytes per entry.
+ * Identifiers which are not plain numbers, e.g. with leading zeros or letters, are kept in a heap based overflow store.
+ */
+public class NumericIdStore implements IdStore {
+    // max number of digits that always fit into a long
+    private static final int MAX_DIGITS = 18;
+    private final LongHashTable table;
+    private final HeapIdStore overflow = new HeapIdStore();
+
+    /**
+     * @param dir optional directory to memory map the table in, if null direct memory is used
+     */
+    public NumericIdStore(long expectedSize, @Nullable File dir) throws IOException {
+        table = new LongHashTable(expectedSize, dir);
+    }
+
+    @Override
+    public void put(String id, long nodeId) {
+        long key = key(id);
+        if (key < 0) {
+            overflow.put(id, nodeId);
+        } else {
+            try {
+                table.put(key, nodeId, NOT_FOUND);
+            } catch (IOException e) {
+                throw Throwables.propagate(e);
+            }
+        }
+    }
+
+    @Override
+    public long get(String id) {
+        long key = key(id);
+        return key < 0 ? overflow.get(id) : table.get(key, NOT_FOUND);
+    }
+
+    @Override
+    public long size() {
+        return table.size() + overflow.size();
+    }
+
+    /**
+     * @return the table key for a plain number, shifted by one to keep 0 free, or -1 for any other identifier
+     */
+    static long key(String id) {
+        final int len = id.length();
+        if (len == 0 || len > MAX_DIGITS || (len > 1 && id.charAt(0) == '0')) {
+            return -1;
+        }
+        long x = 0;
+        for (int i = 0; i < len; i++) {
+            char c = id.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            x = x * 10 + (c - '0');
+        }
+        return x + 1;
+    }
+
+    @Override
+    public void close() throws IOException {
+        table.close();
+        overflow.close();
+    }
+}
@@ -0,0 +1,291 @@
+package org.gbif.checklistbank.names;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import org.gbif.api.vocabulary.Rank;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Read only, memory mapped index of canonical names written by the NameIndexWriter,
+ * resolving names to node ids in microseconds without neo4j or lucene.
+ *
+ * Names are normalised keys, lower case with single spaces, kept in a sorted front coded dictionary:
+ * blocks of BLOCK names each store their first name in full and all following names as the length of the prefix
+ * shared with the previous name plus the remaining suffix, much like the leaves of a compressed trie.
+ * Lookups binary search the block heads and scan a single block, prefix searches continue the scan in order.
+ * Every name has a range of postings with node id, rank and lft of all its nodes, ordered by lft,
+ * so results can be restricted to a rank and to the nested set range of a subtree.
+ *
+ * The file holds a header with the number of names, postings, blocks and dictionary bytes, followed by
+ * the block offsets, the posting start of every name, the posting node, lft and rank columns and the dictionary.
+ */
+public class NameIndex {
+    private static final Logger LOG = LoggerFactory.getLogger(NameIndex.class);
+    public static final String FILENAME = "names.index";
+    public static final int NONE = -1;
+    static final int MAGIC = 0x434c424e;
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 28;
+    static final int BLOCK = 16;
+
+    private final int size;
+    private final int postings;
+    private final LongBuffer blocks;
+    private final IntBuffer starts;
+    private final LongBuffer nodes;
+    private final IntBuffer lfts;
+    private final ByteBuffer ranks;
+    private final ByteBuffer dict;
+
+    private NameIndex(File file) throws IOException {
+        final long start = System.currentTimeMillis();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            FileChannel ch = raf.getChannel();
+            ByteBuffer header = ch.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            Preconditions.checkState(header.getInt() == MAGIC, "%s is no name index", file);
+            int version = header.getInt();
+            Preconditions.checkState(version == VERSION, "Unsupported name index version %s", version);
+            size = header.getInt();
+            postings = header.getInt();
+            final int blockCount = header.getInt();
+            final long dictBytes = header.getLong();
+            Preconditions.checkState(dictBytes < Integer.MAX_VALUE, "Name dictionary too large: %s", dictBytes);
+
+            long offset = HEADER_BYTES;
+            blocks = ch.map(FileChannel.MapMode.READ_ONLY, offset, 8L * blockCount).asLongBuffer();
+            offset += 8L * blockCount;
+            starts = ch.map(FileChannel.MapMode.READ_ONLY, offset, 4L * (size + 1)).asIntBuffer();
+            offset += 4L * (size + 1);
+            nodes = ch.map(FileChannel.MapMode.READ_ONLY, offset, 8L * postings).asLongBuffer();
+            offset += 8L * postings;
+            lfts = ch.map(FileChannel.MapMode.READ_ONLY, offset, 4L * postings).asIntBuffer();
+            offset += 4L * postings;
+            ranks = ch.map(FileChannel.MapMode.READ_ONLY, offset, postings);
+            offset += postings;
+            dict = ch.map(FileChannel.MapMode.READ_ONLY, offset, dictBytes);
+        }
+        LOG.info("Opened name index {} with {} names in {} ms", file.getAbsolutePath(), size, System.currentTimeMillis() - start);
+    }
+
+    public static NameIndex open(File file) throws IOException {
+        return new NameIndex(file);
+    }
+
+    /**
+     * Normalises a name into its index key: trimmed, lower case and with single spaces only.
+     */
+    public static String key(String name) {
+        StringBuilder sb = new StringBuilder(name.length());
+        boolean space = false;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c <= ' ' || Character.isWhitespace(c)) {
+                space = sb.length() > 0;
+            } else {
+                if (space) {
+                    sb.append(' ');
+                    space = false;
+                }
+                sb.append(c);
+            }
+        }
+        return sb.toString().toLowerCase(Locale.ENGLISH);
+    }
+
+    /**
+     * @return number of distinct names
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return number of postings, i.e. indexed nodes
+     */
+    public int postings() {
+        return postings;
+    }
+
+    /**
+     * @return the ordinal of the name in the sorted dictionary or NONE if it is not indexed
+     */
+    public int find(String name) {
+        final String k = key(name);
+        final int block = headBlock(k);
+        if (block == NONE) {
+            return NONE;
+        }
+        Cursor c = new Cursor(block);
+        do {
+            int cmp = c.key().compareTo(k);
+            if (cmp == 0) {
+                return c.ord;
+            } else if (cmp > 0) {
+                return NONE;
+            }
+        } while (c.next() && c.ord % BLOCK != 0);
+        return NONE;
+    }
+
+    /**
+     * @return the name key with the given ordinal
+     */
+    public String name(int ord) {
+        Preconditions.checkElementIndex(ord, size);
+        Cursor c = new Cursor(ord / BLOCK);
+        while (c.ord < ord) {
+            c.next();
+        }
+        return c.key();
+    }
+
+    /**
+     * @return all node ids of the name, empty if it is not indexed
+     */
+    public long[] lookup(String name) {
+        return lookup(name, null, NONE, NONE);
+    }
+
+    /**
+     * @param rank if given only nodes of that rank are returned
+     * @param lft  if not NONE only nodes with a lft between lft and rgt, i.e. within that subtree, are returned
+     * @return the matching node ids of the name ordered by lft, empty if there are none
+     */
+    public long[] lookup(String name, @Nullable Rank rank, int lft, int rgt) {
+        final int ord = find(name);
+        if (ord == NONE) {
+            return new long[0];
+        }
+        final int from = starts.get(ord);
+        final int to = starts.get(ord + 1);
+        long[] result = new long[to - from];
+        int count = 0;
+        for (int p = from; p < to; p++) {
+            if (rank != null && ranks.get(p) != rank.ordinal()) {
+                continue;
+            }
+            if (lft != NONE) {
+                final int l = lfts.get(p);
+                if (l < lft) {
+                    continue;
+                } else if (l > rgt) {
+                    break;
+                }
+            }
+            result[count++] = nodes.get(p);
+        }
+        return count == result.length ? result : Arrays.copyOf(result, count);
+    }
+
+    /**
+     * @return up to limit name keys starting with the given prefix in sorted order
+     */
+    public List<String> prefix(String prefix, int limit) {
+        final String k = key(prefix);
+        List<String> names = Lists.newArrayList();
+        if (size == 0 || limit <= 0) {
+            return names;
+        }
+        final int block = headBlock(k);
+        Cursor c = new Cursor(block == NONE ? 0 : block);
+        do {
+            String name = c.key();
+            if (name.startsWith(k)) {
+                names.add(name);
+            } else if (name.compareTo(k) > 0) {
+                break;
+            }
+        } while (names.size() < limit && c.next());
+        return names;
+    }
+
+    /**
+     * @return the last block whose first name is not greater than the key or NONE
+     */
+    private int headBlock(String k) {
+        int low = 0;
+        int high = blocks.capacity() - 1;
+        int found = NONE;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            if (new Cursor(mid).key().compareTo(k) <= 0) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Sequential decoder of the front coded dictionary, positioned on a single name.
+     */
+    private class Cursor {
+        private int pos;
+        private int ord;
+        private byte[] buf = new byte[64];
+        private int len;
+
+        private Cursor(int block) {
+            pos = (int) blocks.get(block);
+            ord = block * BLOCK;
+            read();
+        }
+
+        private void read() {
+            final int shared = varint();
+            final int suffix = varint();
+            len = shared + suffix;
+            if (len > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(len, buf.length * 2));
+            }
+            for (int i = shared; i < len; i++) {
+                buf[i] = dict.get(pos++);
+            }
+        }
+
+        private int varint() {
+            int val = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = dict.get(pos++);
+                val |= (b & 0x7f) << shift;
+                shift += 7;
+            } while (b < 0);
+            return val;
+        }
+
+        /**
+         * Moves to the next name, blocks being stored one after the other.
+         * @return false if there is none
+         */
+        private boolean next() {
+            if (ord + 1 >= size) {
+                return false;
+            }
+            ord++;
+            read();
+            return true;
+        }
+
+        private String key() {
+            return new String(buf, 0, len, Charsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package org.gbif.checklistbank.names;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
+import com.google.common.io.Closeables;
+import com.google.common.io.Files;
+import org.gbif.checklistbank.ExternalSorter;
+import org.gbif.checklistbank.Labels;
+import org.gbif.checklistbank.NeoUtils;
+import org.gbif.checklistbank.Ranks;
+import org.gbif.dwc.terms.DwcTerm;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.tooling.GlobalGraphOperations;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * Writes a NameIndex file for all taxa of a neo4j checklist.
+ * The canonical name of every taxon, falling back to its scientific name, is sorted together with its lft,
+ * rank and node id in an ExternalSorter, so memory stays bounded for the largest checklists.
+ * The sorted entries are streamed into temporary section files which are finally concatenated.
+ */
+public class NameIndexWriter {
+    private static final Logger LOG = LoggerFactory.getLogger(NameIndexWriter.class);
+    private static final int BUFFER = 64 * 1024;
+    private static final int SORT_MEGABYTES = 256;
+    private static final Splitter TAB = Splitter.on('\t');
+    private static final String[] SECTIONS = {"blocks", "starts", "nodes", "lfts", "ranks", "dict"};
+
+    private final File tmpDir;
+    private final DataOutputStream blocks;
+    private final DataOutputStream starts;
+    private final DataOutputStream nodes;
+    private final DataOutputStream lfts;
+    private final DataOutputStream ranks;
+    private final DataOutputStream dict;
+    private int size;
+    private int postings;
+    private int blockCount;
+    private long dictBytes;
+    private byte[] prev = new byte[0];
+
+    private NameIndexWriter() throws IOException {
+        tmpDir = Files.createTempDir();
+        try {
+            blocks = stream("blocks");
+            starts = stream("starts");
+            nodes = stream("nodes");
+            lfts = stream("lfts");
+            ranks = stream("ranks");
+            dict = stream("dict");
+        } catch (IOException e) {
+            cleanup();
+            throw e;
+        }
+    }
+
+    private DataOutputStream stream(String name) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(tmpDir, name)), BUFFER));
+    }
+
+    /**
+     * Indexes the names of all taxa into a new name index file.
+     */
+    public static void write(GraphDatabaseService db, File file) throws IOException {
+        final long start = System.currentTimeMillis();
+        NameIndexWriter writer = new NameIndexWriter();
+        try {
+            try (ExternalSorter sorter = new ExternalSorter(new File(writer.tmpDir, "sort"), SORT_MEGABYTES)) {
+                try (Transaction tx = db.beginTx()) {
+                    for (Node n : GlobalGraphOperations.at(db).getAllNodesWithLabel(Labels.TAXON)) {
+                        String name = (String) n.getProperty(NeoUtils.PROP_CANONICAL_NAME, null);
+                        if (name == null) {
+                            name = (String) n.getProperty(DwcTerm.scientificName.simpleName(), null);
+                        }
+                        if (name != null) {
+                            final String key = NameIndex.key(name);
+                            if (!key.isEmpty()) {
+                                // hex lft keeps postings in lft order, nodes without a nested set go last
+                                final int lft = (Integer) n.getProperty(NeoUtils.PROP_LFT, NameIndex.NONE);
+                                final int rank = Ranks.ordinal((String) n.getProperty(DwcTerm.taxonRank.simpleName(), null));
+                                sorter.add(key + '\t' + Strings.padStart(Integer.toHexString(lft), 8, '0')
+                                    + '\t' + (rank == Ranks.UNKNOWN_ORDINAL ? NameIndex.NONE : rank) + '\t' + n.getId());
+                            }
+                        }
+                    }
+                    tx.success();
+                }
+                Iterator<String> iter = sorter.sorted();
+                while (iter.hasNext()) {
+                    Iterator<String> cols = TAB.split(iter.next()).iterator();
+                    writer.add(cols.next(), (int) Long.parseLong(cols.next(), 16), Integer.parseInt(cols.next()),
+                        Long.parseLong(cols.next()));
+                }
+            }
+            writer.writeFile(file);
+        } finally {
+            writer.cleanup();
+        }
+        LOG.info("Wrote name index {} with {} names for {} taxa in {} ms", file.getAbsolutePath(), writer.size,
+            writer.postings, System.currentTimeMillis() - start);
+    }
+
+    private void add(String key, int lft, int rank, long node) throws IOException {
+        byte[] bytes = key.getBytes(Charsets.UTF_8);
+        if (postings == 0 || !Arrays.equals(bytes, prev)) {
+            addName(bytes);
+        }
+        nodes.writeLong(node);
+        lfts.writeInt(lft);
+        ranks.writeByte(rank);
+        postings++;
+    }
+
+    /**
+     * Front codes a new name against the previous one, starting a new block with the full name every BLOCK names.
+     */
+    private void addName(byte[] bytes) throws IOException {
+        int shared = 0;
+        if (size % NameIndex.BLOCK == 0) {
+            blocks.writeLong(dictBytes);
+            blockCount++;
+        } else {
+            final int max = Math.min(prev.length, bytes.length);
+            while (shared < max && prev[shared] == bytes[shared]) {
+                shared++;
+            }
+        }
+        writeVarint(shared);
+        writeVarint(bytes.length - shared);
+        dict.write(bytes, shared, bytes.length - shared);
+        dictBytes += bytes.length - shared;
+        starts.writeInt(postings);
+        prev = bytes;
+        size++;
+    }
+
+    private void writeVarint(int val) throws IOException {
+        while ((val & ~0x7f) != 0) {
+            dict.writeByte((val & 0x7f) | 0x80);
+            val >>>= 7;
+            dictBytes++;
+        }
+        dict.writeByte(val);
+        dictBytes++;
+    }
+
+    private void writeFile(File file) throws IOException {
+        // closing posting start
+        starts.writeInt(postings);
+        for (DataOutputStream out : new DataOutputStream[]{blocks, starts, nodes, lfts, ranks, dict}) {
+            out.close();
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER))) {
+            out.writeInt(NameIndex.MAGIC);
+            out.writeInt(NameIndex.VERSION);
+            out.writeInt(size);
+            out.writeInt(postings);
+            out.writeInt(blockCount);
+            out.writeLong(dictBytes);
+            for (String section : SECTIONS) {
+                Files.copy(new File(tmpDir, section), out);
+            }
+        }
+    }
+
+    /**
+     * Closes all temporary section files, which is a noop if they are closed already, and removes them.
+     */
+    private void cleanup() {
+        for (DataOutputStream out : new DataOutputStream[]{blocks, starts, nodes, lfts, ranks, dict}) {
+            try {
+                Closeables.close(out, true);
+            } catch (IOException e) {
+                // swallowed and logged by guava
+            }
+        }
+        for (File f : Files.fileTreeTraverser().postOrderTraversal(tmpDir)) {
+            if (!f.delete()) {
+                LOG.warn("Failed to remove {}", f.getAbsolutePath());
+            }
+        }
+    }
+}
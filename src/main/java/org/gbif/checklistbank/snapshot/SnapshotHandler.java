@@ -0,0 +1,17 @@
+package org.gbif.checklistbank.snapshot;
+
+/**
+ * Receives the depth first start and end events of a walk over a TreeSnapshot,
+ * the snapshot counterpart of the StartEndHandler.
+ */
+public interface SnapshotHandler {
+    /**
+     * @param taxon the snapshot index of the entered taxon
+     */
+    void start(int taxon);
+
+    /**
+     * @param taxon the snapshot index of the taxon whose descendants have all been visited
+     */
+    void end(int taxon);
+}
@@ -0,0 +1,274 @@
+package org.gbif.checklistbank.snapshot;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Read only, memory mapped snapshot of a taxonomy tree written by the TreeSnapshotWriter.
+ * Opening a snapshot only maps the file, so jobs can walk the tree at memory speed without starting neo4j.
+ *
+ * Taxa are addressed by their snapshot index, their position in the depth first taxonomic walk.
+ * Synonyms outside the parent child tree directly follow their accepted taxon.
+ * As descendants of a taxon form the contiguous range up to its end index, children are found by skipping
+ * from one sibling to the next and the whole tree is walked by a linear scan.
+ *
+ * The file holds a header with the number of taxa and the string heap size,
+ * followed by one column per Column, each with an entry for every taxon, and a heap of UTF8 strings.
+ */
+public class TreeSnapshot implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(TreeSnapshot.class);
+    public static final String FILENAME = "tree.snapshot";
+    public static final int NONE = -1;
+    static final int MAGIC = 0x434c4254;
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 20;
+    // strings never cross 1GB segments, well below the 2GB limit of a single mapped buffer
+    static final int SEGMENT_SHIFT = 30;
+    static final long SEGMENT_BYTES = 1L << SEGMENT_SHIFT;
+
+    enum Column {
+        NODE(8), PARENT(4), ACCEPTED(4), END(4), RANK(4), LFT(4), RGT(4), TAXON_ID(8), NAME(8);
+
+        final int width;
+
+        Column(int width) {
+            this.width = width;
+        }
+    }
+
+    private final File file;
+    private final int size;
+    private final LongBuffer node;
+    private final IntBuffer parent;
+    private final IntBuffer accepted;
+    private final IntBuffer end;
+    private final IntBuffer rank;
+    private final IntBuffer lft;
+    private final IntBuffer rgt;
+    private final LongBuffer taxonId;
+    private final LongBuffer name;
+    private final ByteBuffer[] heap;
+
+    private TreeSnapshot(File file) throws IOException {
+        this.file = file;
+        final long start = System.currentTimeMillis();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            FileChannel ch = raf.getChannel();
+            ByteBuffer header = ch.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            Preconditions.checkState(header.getInt() == MAGIC, "%s is no tree snapshot", file);
+            int version = header.getInt();
+            Preconditions.checkState(version == VERSION, "Unsupported tree snapshot version %s", version);
+            size = header.getInt();
+            final long heapBytes = header.getLong();
+
+            long offset = HEADER_BYTES;
+            ByteBuffer[] columns = new ByteBuffer[Column.values().length];
+            for (Column c : Column.values()) {
+                columns[c.ordinal()] = ch.map(FileChannel.MapMode.READ_ONLY, offset, (long) size * c.width);
+                offset += (long) size * c.width;
+            }
+            node = columns[Column.NODE.ordinal()].asLongBuffer();
+            parent = columns[Column.PARENT.ordinal()].asIntBuffer();
+            accepted = columns[Column.ACCEPTED.ordinal()].asIntBuffer();
+            end = columns[Column.END.ordinal()].asIntBuffer();
+            rank = columns[Column.RANK.ordinal()].asIntBuffer();
+            lft = columns[Column.LFT.ordinal()].asIntBuffer();
+            rgt = columns[Column.RGT.ordinal()].asIntBuffer();
+            taxonId = columns[Column.TAXON_ID.ordinal()].asLongBuffer();
+            name = columns[Column.NAME.ordinal()].asLongBuffer();
+
+            heap = new ByteBuffer[(int) ((heapBytes + SEGMENT_BYTES - 1) >>> SEGMENT_SHIFT)];
+            for (int i = 0; i < heap.length; i++) {
+                long segStart = (long) i << SEGMENT_SHIFT;
+                heap[i] = ch.map(FileChannel.MapMode.READ_ONLY, offset + segStart, Math.min(SEGMENT_BYTES, heapBytes - segStart));
+            }
+        }
+        LOG.info("Opened tree snapshot {} with {} taxa in {} ms", file.getAbsolutePath(), size, System.currentTimeMillis() - start);
+    }
+
+    public static TreeSnapshot open(File file) throws IOException {
+        return new TreeSnapshot(file);
+    }
+
+    /**
+     * @return number of taxa
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the neo4j node id the taxon was exported from
+     */
+    public long nodeId(int taxon) {
+        return node.get(taxon);
+    }
+
+    /**
+     * @return the snapshot index of the parent or NONE
+     */
+    public int parent(int taxon) {
+        return parent.get(taxon);
+    }
+
+    /**
+     * @return the snapshot index of the accepted taxon or NONE if the taxon is accepted
+     */
+    public int accepted(int taxon) {
+        return accepted.get(taxon);
+    }
+
+    public boolean isSynonym(int taxon) {
+        return accepted.get(taxon) != NONE;
+    }
+
+    /**
+     * @return the snapshot index after the last descendant
+     */
+    public int end(int taxon) {
+        return end.get(taxon);
+    }
+
+    /**
+     * @return the ordinal of the Rank enum or Ranks.UNKNOWN_ORDINAL
+     */
+    public int rankOrdinal(int taxon) {
+        return rank.get(taxon);
+    }
+
+    /**
+     * @return the nested set lft value or NONE
+     */
+    public int lft(int taxon) {
+        return lft.get(taxon);
+    }
+
+    /**
+     * @return the nested set rgt value or NONE
+     */
+    public int rgt(int taxon) {
+        return rgt.get(taxon);
+    }
+
+    @Nullable
+    public String taxonID(int taxon) {
+        return string(taxonId.get(taxon));
+    }
+
+    @Nullable
+    public String scientificName(int taxon) {
+        return string(name.get(taxon));
+    }
+
+    @Nullable
+    private String string(long offset) {
+        if (offset == NONE) {
+            return null;
+        }
+        ByteBuffer seg = heap[(int) (offset >>> SEGMENT_SHIFT)].duplicate();
+        seg.position((int) (offset & (SEGMENT_BYTES - 1)));
+        byte[] bytes = new byte[seg.getInt()];
+        seg.get(bytes);
+        return new String(bytes, Charsets.UTF_8);
+    }
+
+    /**
+     * @return snapshot indices of all root taxa in taxonomic order
+     */
+    public int[] roots() {
+        return children(NONE);
+    }
+
+    /**
+     * @param taxon the parent or NONE for the roots
+     * @return snapshot indices of all children in taxonomic order
+     */
+    public int[] children(int taxon) {
+        int[] result = new int[8];
+        int count = 0;
+        final int last = taxon == NONE ? size : end(taxon);
+        for (int c = taxon + 1; c < last; c = end(c)) {
+            if (parent(c) == taxon && !(taxon == NONE && isSynonym(c))) {
+                if (count == result.length) {
+                    result = Arrays.copyOf(result, count * 2);
+                }
+                result[count++] = c;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    /**
+     * @return snapshot indices of all synonyms without a parent of their own
+     */
+    public int[] synonyms(int taxon) {
+        int c = taxon + 1;
+        while (c < size && parent(c) == NONE && accepted(c) == taxon) {
+            c++;
+        }
+        int[] result = new int[c - taxon - 1];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = taxon + 1 + i;
+        }
+        return result;
+    }
+
+    /**
+     * Walks all taxa in the parent child tree depth first in taxonomic order.
+     */
+    public void walkAll(SnapshotHandler handler) {
+        for (int root : roots()) {
+            walk(root, handler);
+        }
+    }
+
+    /**
+     * Walks a single taxon and all its descendants, skipping synonyms without a parent.
+     */
+    public void walk(int root, SnapshotHandler handler) {
+        int[] stack = new int[64];
+        int depth = 0;
+        handler.start(root);
+        stack[depth++] = root;
+        int c = root + 1;
+        while (depth > 0) {
+            final int top = stack[depth - 1];
+            if (c < end(top)) {
+                if (parent(c) == top) {
+                    handler.start(c);
+                    if (depth == stack.length) {
+                        stack = Arrays.copyOf(stack, depth * 2);
+                    }
+                    stack[depth++] = c;
+                    c++;
+                } else {
+                    // synonym without a parent
+                    c = end(c);
+                }
+            } else {
+                handler.end(top);
+                depth--;
+                c = end(top);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        // mapped buffers are released by the garbage collector
+        LOG.debug("Closed tree snapshot {}", file.getAbsolutePath());
+    }
+}
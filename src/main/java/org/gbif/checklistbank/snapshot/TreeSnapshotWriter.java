@@ -0,0 +1,243 @@
+package org.gbif.checklistbank.snapshot;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Closeables;
+import com.google.common.io.Files;
+import org.gbif.checklistbank.NeoUtils;
+import org.gbif.checklistbank.Ranks;
+import org.gbif.checklistbank.RelType;
+import org.gbif.checklistbank.traverse.StartEndHandler;
+import org.gbif.checklistbank.traverse.TaxonWalker;
+import org.gbif.dwc.terms.DwcTerm;
+import org.gbif.dwc.terms.Term;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Writes the tree of a neo4j checklist into a TreeSnapshot file with a single depth first walk.
+ * Columns known when a taxon is entered are streamed into temporary column files,
+ * the end index and accepted taxon are kept in int arrays until the walk is done.
+ */
+public class TreeSnapshotWriter implements StartEndHandler {
+    private static final Logger LOG = LoggerFactory.getLogger(TreeSnapshotWriter.class);
+    private static final int BUFFER = 64 * 1024;
+
+    private final File tmpDir;
+    private final DataOutputStream[] columns = new DataOutputStream[TreeSnapshot.Column.values().length];
+    private final DataOutputStream heap;
+    private long heapBytes;
+    private int size;
+    private int[] end = new int[1024];
+    private int[] accepted = new int[1024];
+    // snapshot index by node id, resolving accepted taxa that are walked later
+    private int[] indexByNode = new int[1024];
+    private long[] pendingAccepted = new long[16];
+    private int pending;
+    private int[] stack = new int[64];
+    private int depth;
+
+    private TreeSnapshotWriter() throws IOException {
+        tmpDir = Files.createTempDir();
+        try {
+            for (TreeSnapshot.Column c : TreeSnapshot.Column.values()) {
+                columns[c.ordinal()] = stream(c.name());
+            }
+            heap = stream("heap");
+        } catch (IOException e) {
+            cleanup();
+            throw e;
+        }
+        Arrays.fill(indexByNode, TreeSnapshot.NONE);
+    }
+
+    private DataOutputStream stream(String name) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(tmpDir, name)), BUFFER));
+    }
+
+    /**
+     * Walks the entire tree and writes it into a new snapshot file.
+     */
+    public static void write(GraphDatabaseService db, File file) throws IOException {
+        final long start = System.currentTimeMillis();
+        TreeSnapshotWriter writer = new TreeSnapshotWriter();
+        try {
+            try (Transaction tx = db.beginTx()) {
+                TaxonWalker.walkAll(db, writer);
+                writer.resolveAccepted();
+                tx.success();
+            } catch (IllegalStateException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw e;
+            }
+            writer.writeFile(file);
+        } finally {
+            writer.cleanup();
+        }
+        LOG.info("Wrote tree snapshot {} with {} taxa in {} ms", file.getAbsolutePath(), writer.size, System.currentTimeMillis() - start);
+    }
+
+    @Override
+    public void start(Node n) {
+        try {
+            final int idx = add(n, depth == 0 ? TreeSnapshot.NONE : stack[depth - 1], TreeSnapshot.NONE);
+            Relationship acc = n.getSingleRelationship(RelType.SYNONYM_OF, Direction.OUTGOING);
+            if (acc != null) {
+                if (pending == pendingAccepted.length / 2) {
+                    pendingAccepted = Arrays.copyOf(pendingAccepted, pending * 4);
+                }
+                pendingAccepted[2 * pending] = idx;
+                pendingAccepted[2 * pending + 1] = acc.getEndNode().getId();
+                pending++;
+            }
+            if (depth == stack.length) {
+                stack = Arrays.copyOf(stack, depth * 2);
+            }
+            stack[depth++] = idx;
+            // synonyms outside the tree follow their accepted taxon
+            for (Relationship rel : n.getRelationships(RelType.SYNONYM_OF, Direction.INCOMING)) {
+                Node syn = rel.getStartNode();
+                if (syn.getSingleRelationship(RelType.PARENT_OF, Direction.INCOMING) == null) {
+                    int synIdx = add(syn, TreeSnapshot.NONE, idx);
+                    end[synIdx] = synIdx + 1;
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to write tree snapshot", e);
+        }
+    }
+
+    @Override
+    public void end(Node n) {
+        end[stack[--depth]] = size;
+    }
+
+    private int add(Node n, int parent, int acceptedIdx) throws IOException {
+        final int idx = size++;
+        if (idx == end.length) {
+            end = Arrays.copyOf(end, idx * 2);
+            accepted = Arrays.copyOf(accepted, idx * 2);
+        }
+        accepted[idx] = acceptedIdx;
+        final int nodeId = (int) n.getId();
+        if (nodeId >= indexByNode.length) {
+            int len = indexByNode.length;
+            indexByNode = Arrays.copyOf(indexByNode, Math.max(nodeId + 1, len * 2));
+            Arrays.fill(indexByNode, len, indexByNode.length, TreeSnapshot.NONE);
+        }
+        indexByNode[nodeId] = idx;
+
+        columns[TreeSnapshot.Column.NODE.ordinal()].writeLong(n.getId());
+        columns[TreeSnapshot.Column.PARENT.ordinal()].writeInt(parent);
+        columns[TreeSnapshot.Column.RANK.ordinal()].writeInt(Ranks.ordinal(prop(n, DwcTerm.taxonRank)));
+        columns[TreeSnapshot.Column.LFT.ordinal()].writeInt((Integer) n.getProperty(NeoUtils.PROP_LFT, TreeSnapshot.NONE));
+        columns[TreeSnapshot.Column.RGT.ordinal()].writeInt((Integer) n.getProperty(NeoUtils.PROP_RGT, TreeSnapshot.NONE));
+        columns[TreeSnapshot.Column.TAXON_ID.ordinal()].writeLong(string(prop(n, DwcTerm.taxonID)));
+        columns[TreeSnapshot.Column.NAME.ordinal()].writeLong(string(prop(n, DwcTerm.scientificName)));
+        return idx;
+    }
+
+    private static String prop(Node n, Term term) {
+        return (String) n.getProperty(term.simpleName(), null);
+    }
+
+    /**
+     * Appends a string to the heap, starting a new segment if it does not fit into the current one.
+     * @return the heap offset or NONE for null
+     */
+    private long string(String x) throws IOException {
+        if (x == null) {
+            return TreeSnapshot.NONE;
+        }
+        byte[] bytes = x.getBytes(Charsets.UTF_8);
+        final long segEnd = ((heapBytes >>> TreeSnapshot.SEGMENT_SHIFT) + 1) << TreeSnapshot.SEGMENT_SHIFT;
+        if (heapBytes + 4 + bytes.length > segEnd) {
+            while (heapBytes < segEnd) {
+                heap.write(0);
+                heapBytes++;
+            }
+        }
+        final long offset = heapBytes;
+        heap.writeInt(bytes.length);
+        heap.write(bytes);
+        heapBytes += 4 + bytes.length;
+        return offset;
+    }
+
+    private void resolveAccepted() {
+        for (int i = 0; i < pending; i++) {
+            int idx = (int) pendingAccepted[2 * i];
+            long accNode = pendingAccepted[2 * i + 1];
+            accepted[idx] = accNode < indexByNode.length ? indexByNode[(int) accNode] : TreeSnapshot.NONE;
+        }
+        indexByNode = null;
+    }
+
+    private void writeFile(File file) throws IOException {
+        for (DataOutputStream out : columns) {
+            out.close();
+        }
+        heap.close();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER))) {
+            out.writeInt(TreeSnapshot.MAGIC);
+            out.writeInt(TreeSnapshot.VERSION);
+            out.writeInt(size);
+            out.writeLong(heapBytes);
+            for (TreeSnapshot.Column c : TreeSnapshot.Column.values()) {
+                if (c == TreeSnapshot.Column.END) {
+                    writeInts(out, end);
+                } else if (c == TreeSnapshot.Column.ACCEPTED) {
+                    writeInts(out, accepted);
+                } else {
+                    Files.copy(new File(tmpDir, c.name()), out);
+                }
+            }
+            Files.copy(new File(tmpDir, "heap"), out);
+        }
+    }
+
+    /**
+     * Closes all temporary column files, which is a noop if they are closed already, and removes them.
+     */
+    private void cleanup() {
+        for (DataOutputStream out : columns) {
+            closeQuietly(out);
+        }
+        closeQuietly(heap);
+        for (File f : Files.fileTreeTraverser().postOrderTraversal(tmpDir)) {
+            if (!f.delete()) {
+                LOG.warn("Failed to remove {}", f.getAbsolutePath());
+            }
+        }
+    }
+
+    private static void closeQuietly(@Nullable Closeable out) {
+        try {
+            Closeables.close(out, true);
+        } catch (IOException e) {
+            // swallowed and logged by guava
+        }
+    }
+
+    private void writeInts(DataOutputStream out, int[] values) throws IOException {
+        for (int i = 0; i < size; i++) {
+            out.writeInt(values[i]);
+        }
+    }
+
+}
@@ -0,0 +1,238 @@
+package org.gbif.checklistbank.traverse;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import org.gbif.checklistbank.BatchTransaction;
+import org.gbif.checklistbank.RelType;
+import org.gbif.dwc.terms.DwcTerm;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Walks independent subtrees of the taxonomy concurrently in a fork join pool.
+ * The tree is split at a configurable depth, by default at the root nodes (depth 0).
+ * The nodes above the split depth are walked sequentially, each subtree at the split depth is walked by its own task.
+ * Subtree sizes are counted upfront so every task can start with the nested set index the sequential
+ * TaxonWalker would have reached at that point, making the merged result identical to a sequential walk.
+ * Each task commits its writes in chunks with its own BatchTransaction.
+ * Handlers must only write to the nodes they are called for, as other nodes like synonyms placed in a different
+ * subtree may be written concurrently by another task. Such writes need to be deferred until walkAll is done.
+ */
+public class ParallelTaxonWalker {
+    private static final Logger LOG = LoggerFactory.getLogger(ParallelTaxonWalker.class);
+
+    /**
+     * Creates new handlers for subtrees or single nodes.
+     */
+    public interface HandlerFactory {
+        /**
+         * @param startIdx  the first nested set index to be used by the handler
+         * @param ancestors all ancestors of the first node passed to the handler, starting with the root
+         */
+        StartEndHandler create(int startIdx, List<Node> ancestors);
+    }
+
+    private final GraphDatabaseService db;
+    private final int threads;
+    private final int splitDepth;
+
+    /**
+     * A node of the sequentially walked upper part of the tree.
+     */
+    private static class Split {
+        private final Node node;
+        private final List<Node> ancestors;
+        private final List<Split> children = Lists.newArrayList();
+        // subtrees at the split depth are walked by a task
+        private final boolean task;
+        private int size;
+        private int offset;
+
+        private Split(Node node, List<Node> ancestors, boolean task) {
+            this.node = node;
+            this.ancestors = ancestors;
+            this.task = task;
+        }
+    }
+
+    /**
+     * @param threads    number of threads of the fork join pool
+     * @param splitDepth depth of the nodes to walk in parallel, 0 for the roots, 1 for their children, etc
+     */
+    public ParallelTaxonWalker(GraphDatabaseService db, int threads, int splitDepth) {
+        this.db = db;
+        this.threads = threads;
+        this.splitDepth = splitDepth;
+    }
+
+    public void walkAll(final HandlerFactory factory) {
+        final TaxonomicOrderExpander expander = new TaxonomicOrderExpander();
+        final List<Split> roots = Lists.newArrayList();
+        final List<Split> tasks = Lists.newArrayList();
+        try (Transaction tx = db.beginTx()) {
+            for (Node root : TaxonWalker.roots(db, expander)) {
+                roots.add(split(root, ImmutableList.<Node>of(), 0, expander, tasks));
+            }
+            tx.success();
+        }
+        LOG.info("Walk {} subtrees at depth {} with {} threads", tasks.size(), splitDepth, threads);
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            // count subtree sizes in parallel
+            List<Callable<Void>> counts = Lists.newArrayList();
+            for (final Split s : tasks) {
+                counts.add(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        try (Transaction tx = db.beginTx()) {
+                            s.size = countNodes(s.node);
+                            tx.success();
+                        }
+                        return null;
+                    }
+                });
+            }
+            invokeAll(pool, counts);
+
+            // assign nested set offsets in sequential walk order
+            int idx = 0;
+            for (Split r : roots) {
+                size(r);
+                idx = offsets(r, idx);
+            }
+
+            // walk the upper part sequentially
+            try (Transaction tx = db.beginTx()) {
+                for (Split r : roots) {
+                    walkUpper(r, factory);
+                }
+                tx.success();
+            }
+
+            // walk all subtrees in parallel
+            List<Callable<Void>> walks = Lists.newArrayList();
+            for (final Split s : tasks) {
+                walks.add(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        try (BatchTransaction tx = new BatchTransaction(db)) {
+                            TaxonWalker.walk(s.node, expander,
+                                TaxonWalker.committing(factory.create(s.offset, s.ancestors), tx));
+                            tx.success();
+                        }
+                        return null;
+                    }
+                });
+            }
+            invokeAll(pool, walks);
+
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private Split split(Node n, List<Node> ancestors, int depth, TaxonomicOrderExpander expander, List<Split> tasks) {
+        if (depth >= splitDepth) {
+            Split s = new Split(n, ancestors, true);
+            tasks.add(s);
+            return s;
+        }
+        Split s = new Split(n, ancestors, false);
+        List<Node> childAncestors = ImmutableList.<Node>builder().addAll(ancestors).add(n).build();
+        for (Node c : expander.children(n)) {
+            s.children.add(split(c, childAncestors, depth + 1, expander, tasks));
+        }
+        return s;
+    }
+
+    /**
+     * Sums up the subtree sizes for the nodes above the split depth.
+     */
+    private static int size(Split s) {
+        if (!s.task) {
+            s.size = 1;
+            for (Split c : s.children) {
+                s.size += size(c);
+            }
+        }
+        return s.size;
+    }
+
+    /**
+     * Assigns the nested set index of the first event to every split node.
+     * @return the next free index after the split subtree
+     */
+    private static int offsets(Split s, int idx) {
+        s.offset = idx;
+        if (s.task) {
+            return idx + 2 * s.size;
+        }
+        idx++;
+        for (Split c : s.children) {
+            idx = offsets(c, idx);
+        }
+        return idx + 1;
+    }
+
+    private static void walkUpper(Split s, HandlerFactory factory) {
+        if (!s.task) {
+            factory.create(s.offset, s.ancestors).start(s.node);
+            for (Split c : s.children) {
+                walkUpper(c, factory);
+            }
+            factory.create(s.offset + 2 * s.size - 1, s.ancestors).end(s.node);
+        }
+    }
+
+    /**
+     * @return the number of distinct nodes in the subtree including the given node, as walked by the TaxonWalker
+     */
+    private static int countNodes(Node root) {
+        int count = 0;
+        BitSet visited = new BitSet();
+        Deque<Node> stack = new ArrayDeque<Node>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            Node n = stack.pop();
+            if (visited.get((int) n.getId())) {
+                continue;
+            }
+            visited.set((int) n.getId());
+            count++;
+            for (Relationship rel : n.getRelationships(RelType.PARENT_OF, Direction.OUTGOING)) {
+                stack.push(rel.getEndNode());
+            }
+        }
+        LOG.debug("Subtree {} with {} nodes", root.getProperty(DwcTerm.scientificName.simpleName(), null), count);
+        return count;
+    }
+
+    private static void invokeAll(ForkJoinPool pool, List<Callable<Void>> tasks) {
+        for (Future<Void> f : pool.invokeAll(tasks)) {
+            try {
+                f.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Parallel walk interrupted", e);
+            } catch (ExecutionException e) {
+                throw Throwables.propagate(e.getCause());
+            }
+        }
+    }
+}
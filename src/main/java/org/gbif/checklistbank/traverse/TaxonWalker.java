@@ -1,15 +1,23 @@
 package org.gbif.checklistbank.traverse;
 
-import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Iterators;
-import com.google.common.collect.PeekingIterator;
+import com.google.common.base.Preconditions;
+import org.gbif.checklistbank.BatchTransaction;
+import org.gbif.checklistbank.Labels;
 import org.gbif.dwc.terms.DwcTerm;
 import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.Node;
-import org.neo4j.graphdb.Path;
+import org.neo4j.graphdb.ResourceIterator;
+import org.neo4j.helpers.collection.IteratorUtil;
+import org.neo4j.tooling.GlobalGraphOperations;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+
 /**
  *
  */
@@ -17,51 +25,115 @@ public class TaxonWalker {
     private static final Logger LOG = LoggerFactory.getLogger(TaxonWalker.class);
 
     /**
+     * Walks all nodes depth first in taxonomic order, firing a start event when a node is entered
+     * and an end event once all its descendants have been visited.
+     * Uses an explicit stack of sorted child lists instead of comparing paths, so the work per node is constant.
+     * Every node is walked once only, even if it has several parents or a parent cycle leads back to it.
+     *
      * Make sure you walk within an open transaction!
      * @param db
      * @param handler
      */
     public static void walkAll(GraphDatabaseService db, StartEndHandler handler) {
-        Path lastPath = null;
-        for (Path p : TaxonomicIterator.all(db)) {
-            //logPath(p);
-            if (lastPath != null) {
-                PeekingIterator<Node> lIter = Iterators.peekingIterator(lastPath.nodes().iterator());
-                PeekingIterator<Node> cIter = Iterators.peekingIterator(p.nodes().iterator());
-                while (lIter.hasNext() && cIter.hasNext() && lIter.peek().equals(cIter.peek())) {
-                    lIter.next();
-                    cIter.next();
-                }
-                // only non shared nodes left.
-                // first close all old nodes, then open new ones
-                // reverse order for closing nodes...
-                for (Node n : ImmutableList.copyOf(lIter).reverse()) {
-                    handler.end(n);
-                }
-                while (cIter.hasNext()) {
-                    handler.start(cIter.next());
-                }
+        TaxonomicOrderExpander expander = new TaxonomicOrderExpander();
+        BitSet visited = new BitSet();
+        for (Node root : roots(db, expander)) {
+            walk(root, expander, handler, visited);
+        }
+    }
 
-            } else {
-                // only new nodes
-                for (Node n : p.nodes()) {
-                    handler.start(n);
-                }
+    /**
+     * Walks all nodes like walkAll(db, handler) but manages its own transaction, committing chunks of writes.
+     */
+    public static void walkAll(GraphDatabaseService db, StartEndHandler handler, int batchSize) {
+        try (BatchTransaction tx = new BatchTransaction(db, batchSize, BatchTransaction.DEFAULT_MEGABYTES)) {
+            walkAll(db, committing(handler, tx));
+            tx.success();
+        }
+    }
+
+    /**
+     * Wraps a handler that writes to the graph, ticking the batch transaction after every event.
+     */
+    public static StartEndHandler committing(final StartEndHandler handler, final BatchTransaction tx) {
+        return new StartEndHandler() {
+            @Override
+            public void start(Node n) {
+                handler.start(n);
+                tx.tick();
+            }
+
+            @Override
+            public void end(Node n) {
+                handler.end(n);
+                tx.tick();
             }
-            lastPath = p;
+        };
+    }
+
+    /**
+     * @return all root nodes sorted by rank and scientific name
+     */
+    public static List<Node> roots(GraphDatabaseService db, TaxonomicOrderExpander expander) {
+        try (ResourceIterator<Node> roots = GlobalGraphOperations.at(db).getAllNodesWithLabel(Labels.ROOT).iterator()) {
+            return expander.sort(IteratorUtil.asList(roots));
         }
     }
 
-    private static void logPath(Path p) {
-        StringBuilder sb = new StringBuilder();
-        for (Node n : p.nodes()) {
-            if (sb.length() > 0) {
-                sb.append(" -- ");
+    /**
+     * Walks a single root and all its descendants.
+     */
+    public static void walk(Node root, TaxonomicOrderExpander expander, StartEndHandler handler) {
+        walk(root, expander, handler, new BitSet());
+    }
+
+    /**
+     * Walks a single root and all its descendants not yet visited.
+     * @param visited ids of all nodes started so far, shared by the walks of all roots so no node is walked twice
+     * @return false if the root itself had been visited already and nothing was walked
+     */
+    public static boolean walk(Node root, TaxonomicOrderExpander expander, StartEndHandler handler, BitSet visited) {
+        if (!visit(root, visited)) {
+            LOG.warn("Root taxon {} has been walked already", root.getId());
+            return false;
+        }
+        LOG.debug("Walk a new root taxon: {}", root.getProperty(DwcTerm.scientificName.simpleName(), null));
+        Deque<Node> nodes = new ArrayDeque<Node>();
+        Deque<Iterator<Node>> children = new ArrayDeque<Iterator<Node>>();
+        handler.start(root);
+        nodes.push(root);
+        children.push(expander.children(root).iterator());
+        while (!nodes.isEmpty()) {
+            Iterator<Node> iter = children.peek();
+            if (iter.hasNext()) {
+                Node child = iter.next();
+                if (!visit(child, visited)) {
+                    LOG.debug("Skip taxon {} with several parents or in a parent cycle", child.getId());
+                    continue;
+                }
+                handler.start(child);
+                nodes.push(child);
+                children.push(expander.children(child).iterator());
+            } else {
+                children.pop();
+                handler.end(nodes.pop());
             }
-            sb.append((String) n.getProperty(DwcTerm.scientificName.simpleName()));
         }
-        sb.append(", " + p.endNode().getProperty(DwcTerm.taxonRank.simpleName()));
-        LOG.debug(sb.toString());
+        return true;
+    }
+
+    /**
+     * Marks a node as visited.
+     * @return false if it had been visited before
+     */
+    private static boolean visit(Node n, BitSet visited) {
+        Preconditions.checkState(n.getId() < Integer.MAX_VALUE, "Node id too large for the taxon walker: %s", n.getId());
+        final int id = (int) n.getId();
+        if (visited.get(id)) {
+            return false;
+        }
+        visited.set(id);
+        return true;
     }
 
 }
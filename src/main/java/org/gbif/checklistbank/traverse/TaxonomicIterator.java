@@ -1,13 +1,12 @@
 package org.gbif.checklistbank.traverse;
 
-import org.gbif.checklistbank.Labels;
 import org.gbif.dwc.terms.DwcTerm;
 import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Path;
 import org.neo4j.graphdb.ResourceIterator;
 import org.neo4j.graphdb.traversal.TraversalDescription;
-import org.neo4j.tooling.GlobalGraphOperations;
+import org.neo4j.kernel.Uniqueness;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -20,13 +19,12 @@ import java.util.Iterator;
 public class TaxonomicIterator implements AutoCloseable, Iterator<Path> {
     private static final Logger LOG = LoggerFactory.getLogger(TaxonomicIterator.class);
 
-    private final ResourceIterator<Node> roots;
+    private final Iterator<Node> roots;
     private ResourceIterator<Path> descendants;
     private TraversalDescription td;
 
-    private TaxonomicIterator(ResourceIterator<Node> roots, TraversalDescription td) {
+    private TaxonomicIterator(Iterator<Node> roots, TraversalDescription td) {
         this.td = td;
-        //TODO: sort root nodes by rank & sciName
         this.roots = roots;
     }
 
@@ -34,12 +32,21 @@ public class TaxonomicIterator implements AutoCloseable, Iterator<Path> {
         return new Iterable<Path>() {
             @Override
             public Iterator<Path> iterator() {
-                return new TaxonomicIterator(GlobalGraphOperations.at(db).getAllNodesWithLabel(Labels.ROOT).iterator(),
-                    db.traversalDescription().depthFirst().expand(new TaxonomicOrderExpander()));
+                return create(db);
             }
         };
     }
 
+    /**
+     * @return a new iterator over all nodes which must be closed when not fully consumed
+     */
+    public static TaxonomicIterator create(GraphDatabaseService db) {
+        TaxonomicOrderExpander expander = new TaxonomicOrderExpander();
+        // unrepaired trees can have nodes with several parents, global uniqueness returns each of them once only
+        return new TaxonomicIterator(TaxonWalker.roots(db, expander).iterator(),
+            db.traversalDescription().depthFirst().expand(expander).uniqueness(Uniqueness.NODE_GLOBAL));
+    }
+
     @Override
     public boolean hasNext() {
         return (descendants != null && descendants.hasNext()) || roots.hasNext();
@@ -65,11 +72,10 @@ public class TaxonomicIterator implements AutoCloseable, Iterator<Path> {
     }
 
     @Override
-    public void close() throws Exception {
+    public void close() {
         if (descendants != null) {
             descendants.close();
         }
-        roots.close();
     }
 
 }
@@ -1,57 +1,137 @@
 package org.gbif.checklistbank.traverse;
 
-import com.google.common.base.Function;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Ordering;
+import org.gbif.checklistbank.Ranks;
 import org.gbif.checklistbank.RelType;
 import org.gbif.dwc.terms.DwcTerm;
 import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Path;
 import org.neo4j.graphdb.PathExpander;
 import org.neo4j.graphdb.Relationship;
 import org.neo4j.graphdb.traversal.BranchState;
-import org.neo4j.helpers.collection.IteratorUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.annotation.Nullable;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 
 /**
  * depth first, rank then scientific name order based branching.
+ * The rank and name of each child are read only once and kept as a sort key while sorting.
+ * Ranks are ordered alphabetically by the verbatim rank string by default,
+ * or optionally by their GBIF Rank enum ordinal, i.e. kingdom before phylum.
+ * Both orders yield different sibling orders and therefore different nested sets.
  */
 public class TaxonomicOrderExpander implements PathExpander {
   private static final Logger LOG = LoggerFactory.getLogger(TaxonomicOrderExpander.class);
   private boolean reverse = false;
-  private final Ordering<Relationship> TAX_ORDER =
-    Ordering
-      .natural()
-      .onResultOf(new Function<Relationship, String>() {
-        @Nullable
-        @Override
-        public String apply(Relationship rel) {
-          return (String) rel.getEndNode().getProperty(DwcTerm.taxonRank.simpleName());
-        }
-      })
-      .compound(
-        Ordering
-          .natural()
-          .onResultOf(new Function<Relationship, String>() {
-            @Nullable
-            @Override
-            public String apply(Relationship rel) {
-              return (String) rel.getEndNode().getProperty(DwcTerm.scientificName.simpleName());
-            }
-          })
-      );
+  private final boolean rankOrdinal;
+
+  private static class SortKey {
+    private final Relationship rel;
+    private final Node node;
+    private final int rankOrdinal;
+    private final String rank;
+    private final String name;
+
+    private SortKey(Node node, Relationship rel, boolean useOrdinal) {
+      this.rel = rel;
+      this.node = node;
+      rank = (String) node.getProperty(DwcTerm.taxonRank.simpleName(), null);
+      rankOrdinal = useOrdinal ? Ranks.ordinal(rank) : Ranks.UNKNOWN_ORDINAL;
+      name = (String) node.getProperty(DwcTerm.scientificName.simpleName(), null);
+    }
+  }
+
+  private static final Comparator<SortKey> ORDINAL_ORDER = new Comparator<SortKey>() {
+    @Override
+    public int compare(SortKey k1, SortKey k2) {
+      int cmp = Integer.compare(k1.rankOrdinal, k2.rankOrdinal);
+      return cmp != 0 ? cmp : compareNullsLast(k1.name, k2.name);
+    }
+  };
+
+  private static final Comparator<SortKey> ALPHABETICAL_ORDER = new Comparator<SortKey>() {
+    @Override
+    public int compare(SortKey k1, SortKey k2) {
+      int cmp = compareNullsLast(k1.rank, k2.rank);
+      return cmp != 0 ? cmp : compareNullsLast(k1.name, k2.name);
+    }
+  };
+
+  /**
+   * Creates an expander ordering ranks alphabetically by the rank string.
+   */
+  public TaxonomicOrderExpander() {
+    this(false);
+  }
+
+  /**
+   * @param rankOrdinal if true order ranks by the GBIF Rank enum, otherwise alphabetically by the rank string
+   */
+  public TaxonomicOrderExpander(boolean rankOrdinal) {
+    this.rankOrdinal = rankOrdinal;
+  }
+
+  private static int compareNullsLast(String x1, String x2) {
+    if (x1 == null) {
+      return x2 == null ? 0 : 1;
+    }
+    return x2 == null ? -1 : x1.compareTo(x2);
+  }
 
   @Override
   public Iterable<Relationship> expand(Path path, BranchState state) {
-    List<Relationship> children = Lists.newArrayList(IteratorUtil.asCollection(
-        path.endNode().getRelationships(RelType.PARENT_OF, Direction.OUTGOING))
-    );
+    List<SortKey> keys = sortedKeys(path.endNode());
+    List<Relationship> rels = Lists.newArrayListWithCapacity(keys.size());
+    for (SortKey k : keys) {
+      rels.add(k.rel);
+    }
+    return rels;
+  }
+
+  /**
+   * @return all direct child nodes sorted by rank and scientific name
+   */
+  public List<Node> children(Node parent) {
+    List<SortKey> keys = sortedKeys(parent);
+    List<Node> children = Lists.newArrayListWithCapacity(keys.size());
+    for (SortKey k : keys) {
+      children.add(k.node);
+    }
+    return children;
+  }
+
+  private List<SortKey> sortedKeys(Node parent) {
+    List<SortKey> keys = Lists.newArrayList();
+    for (Relationship rel : parent.getRelationships(RelType.PARENT_OF, Direction.OUTGOING)) {
+      keys.add(new SortKey(rel.getEndNode(), rel, rankOrdinal));
+    }
+    return sort(keys);
+  }
+
+  private List<SortKey> sort(List<SortKey> keys) {
+    if (keys.size() > 1) {
+      Collections.sort(keys, rankOrdinal ? ORDINAL_ORDER : ALPHABETICAL_ORDER);
+    }
+    return keys;
+  }
 
-    return TAX_ORDER.sortedCopy(children);
+  /**
+   * @return a new list with the given nodes sorted by rank and scientific name
+   */
+  public List<Node> sort(Iterable<Node> nodes) {
+    List<SortKey> keys = Lists.newArrayList();
+    for (Node n : nodes) {
+      keys.add(new SortKey(n, null, rankOrdinal));
+    }
+    List<Node> sorted = Lists.newArrayListWithCapacity(keys.size());
+    for (SortKey k : sort(keys)) {
+      sorted.add(k.node);
+    }
+    return sorted;
   }
 
   @Override
@@ -0,0 +1,88 @@
+package org.gbif.checklistbank;
+
+import org.gbif.api.vocabulary.Rank;
+import org.gbif.dwc.terms.DwcTerm;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class BasionymGrouperTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private TestGraph g;
+
+    @Before
+    public void init() throws IOException {
+        g = new TestGraph(folder.newFolder("neo"));
+    }
+
+    @After
+    public void close() {
+        g.close();
+    }
+
+    private Node synonym(Node accepted, String name, String status) {
+        Node n = g.synonym(accepted, name, Rank.SPECIES);
+        n.setProperty(DwcTerm.taxonomicStatus.simpleName(), status);
+        return n;
+    }
+
+    private void assertGroup(long key, Node... nodes) {
+        for (Node n : nodes) {
+            assertEquals(n.getProperty(DwcTerm.scientificName.simpleName()).toString(),
+                (int) key, n.getProperty(NeoUtils.PROP_BASIONYM_GROUP));
+        }
+    }
+
+    private void assertNoGroup(Node... nodes) {
+        for (Node n : nodes) {
+            assertFalse(n.getProperty(DwcTerm.scientificName.simpleName()).toString(),
+                n.hasProperty(NeoUtils.PROP_BASIONYM_GROUP));
+        }
+    }
+
+    @Test
+    public void testGroups() {
+        Node root, acc, homo, objective, hetero, basionym, c1, c2, c3, stale;
+        try (Transaction tx = g.db.beginTx()) {
+            root = g.root("Pinus", Rank.GENUS);
+            acc = g.child(root, "Pinus nigra Arnold", Rank.SPECIES);
+            homo = synonym(acc, "Pinus austriaca Hoess", "homotypic synonym");
+            objective = synonym(acc, "Pinus laricio var. austriaca Endl.", "Objective Synonym");
+            hetero = synonym(acc, "Pinus maritima Mill.", "heterotypic synonym");
+            // the basionym of the homotypic synonym joins the whole group
+            basionym = g.taxon("Pinaster austriacus Endl.", Rank.SPECIES);
+            basionym.createRelationshipTo(homo, RelType.BASIONYM_OF);
+            // a chain of basionym relations created in reverse, so the smallest id is not a relation start
+            c3 = g.child(root, "Pinus pallasiana D.Don", Rank.SPECIES);
+            c2 = g.taxon("Pinus laricio var. pallasiana (D.Don) Endl.", Rank.VARIETY);
+            c1 = g.taxon("Pinus pallasii Endl.", Rank.SPECIES);
+            c1.createRelationshipTo(c2, RelType.BASIONYM_OF);
+            c2.createRelationshipTo(c3, RelType.BASIONYM_OF);
+            // a key left over from a previous run
+            stale = g.child(root, "Pinus sylvestris L.", Rank.SPECIES);
+            stale.setProperty(NeoUtils.PROP_BASIONYM_GROUP, 99);
+            tx.success();
+        }
+
+        // grouping twice gives the same result
+        for (int run = 0; run < 2; run++) {
+            new BasionymGrouper(g.db).run();
+            try (Transaction tx = g.db.beginTx()) {
+                assertGroup(acc.getId(), acc, homo, objective, basionym);
+                assertGroup(c3.getId(), c1, c2, c3);
+                assertNoGroup(root, hetero, stale);
+                tx.success();
+            }
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package org.gbif.checklistbank;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+import org.gbif.api.vocabulary.Rank;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.tooling.GlobalGraphOperations;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+public class BatchTransactionTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private TestGraph g;
+
+    @Before
+    public void init() throws IOException {
+        g = new TestGraph(folder.newFolder("neo"));
+    }
+
+    @After
+    public void close() {
+        g.close();
+    }
+
+    private int countNodes() {
+        try (Transaction tx = g.db.beginTx()) {
+            int count = Iterables.size(GlobalGraphOperations.at(g.db).getAllNodes());
+            tx.success();
+            return count;
+        }
+    }
+
+    /**
+     * Commits every 3 operations, calling the listener after each commit,
+     * and rolls back the last uncommitted chunk if success was never called.
+     */
+    @Test
+    public void testCommitOperations() {
+        final AtomicInteger calls = new AtomicInteger();
+        try (final BatchTransaction tx = new BatchTransaction(g.db, 3, BatchTransaction.DEFAULT_MEGABYTES)) {
+            tx.setCommitListener(new Runnable() {
+                @Override
+                public void run() {
+                    // called after the commit
+                    assertEquals(calls.incrementAndGet(), tx.getCommits());
+                }
+            });
+            for (int i = 0; i < 7; i++) {
+                g.taxon("Abies" + i, Rank.SPECIES);
+                tx.tick();
+            }
+            assertEquals(2, tx.getCommits());
+            assertEquals(2, calls.get());
+        }
+        assertEquals(6, countNodes());
+
+        try (BatchTransaction tx = new BatchTransaction(g.db, 3, BatchTransaction.DEFAULT_MEGABYTES)) {
+            g.taxon("Picea", Rank.GENUS);
+            tx.tick();
+            tx.success();
+        }
+        assertEquals(7, countNodes());
+    }
+
+    /**
+     * Commits once the estimated state exceeds the megabytes given, no matter how few operations were ticked.
+     */
+    @Test
+    public void testCommitMegabytes() {
+        try (BatchTransaction tx = new BatchTransaction(g.db, 1000, 1)) {
+            g.taxon("Abies", Rank.GENUS);
+            tx.tick(600 * 1024);
+            assertEquals(0, tx.getCommits());
+            g.taxon("Picea", Rank.GENUS);
+            tx.tick(600 * 1024);
+            assertEquals(1, tx.getCommits());
+            // the byte estimate starts over after a commit
+            g.taxon("Pinus", Rank.GENUS);
+            tx.tick(600 * 1024);
+            assertEquals(1, tx.getCommits());
+            for (int i = 0; i < 10; i++) {
+                tx.tick();
+            }
+            assertEquals(1, tx.getCommits());
+            tx.success();
+        }
+        assertEquals(3, countNodes());
+    }
+
+    @Test
+    public void testEstimateBytes() {
+        assertEquals(0, BatchTransaction.estimateBytes(ImmutableMap.<String, Object>of()));
+        assertEquals(100 + 2 + 40 + 6, BatchTransaction.estimateBytes(ImmutableMap.<String, Object>of("a", "xyz")));
+        assertEquals(100 + 2 + 40 + 4 + 40,
+            BatchTransaction.estimateBytes(ImmutableMap.<String, Object>of("b", new String[]{"ab", ""})));
+        assertEquals(100 + 2 + 24, BatchTransaction.estimateBytes(ImmutableMap.<String, Object>of("c", new long[3])));
+        assertEquals(100 + 2, BatchTransaction.estimateBytes(ImmutableMap.<String, Object>of("d", 17)));
+    }
+}
@@ -0,0 +1,81 @@
+package org.gbif.checklistbank;
+
+import com.google.common.collect.Lists;
+import org.gbif.api.vocabulary.NameType;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class CachingNameParserTest {
+
+    @Test
+    public void testCache() {
+        CachingNameParser parser = new CachingNameParser(100);
+        CachingNameParser.Result pn = parser.parse("Abies alba Mill.");
+        assertEquals("Abies alba", pn.getCanonicalName());
+        assertEquals("Mill.", pn.getAuthorship());
+        assertSame(pn, parser.parse("Abies alba Mill."));
+        assertEquals(1, parser.stats().missCount());
+        assertEquals(1, parser.stats().hitCount());
+    }
+
+    /**
+     * Unparsable names are cached with the name type of the exception, so they are not parsed again.
+     */
+    @Test
+    public void testUnparsable() {
+        CachingNameParser parser = new CachingNameParser(100);
+        CachingNameParser.Result pn = parser.parse("Tobacco mosaic virus");
+        assertNull(pn.getCanonicalName());
+        assertNull(pn.getAuthorship());
+        assertEquals(NameType.VIRUS, pn.getType());
+        assertSame(pn, parser.parse("Tobacco mosaic virus"));
+        assertEquals(1, parser.stats().missCount());
+        assertEquals(1, parser.stats().hitCount());
+    }
+
+    /**
+     * Parser threads share the cache and each parse a name only once.
+     */
+    @Test
+    public void testConcurrent() throws Exception {
+        final CachingNameParser parser = new CachingNameParser(100);
+        final String[] names = {"Abies alba Mill.", "Pinus nigra Arnold", "Tobacco mosaic virus", "Picea abies (L.) H.Karst."};
+        ExecutorService exec = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<List<CachingNameParser.Result>>> futures = Lists.newArrayList();
+            for (int t = 0; t < 4; t++) {
+                futures.add(exec.submit(new Callable<List<CachingNameParser.Result>>() {
+                    @Override
+                    public List<CachingNameParser.Result> call() {
+                        List<CachingNameParser.Result> results = Lists.newArrayList();
+                        for (int i = 0; i < 100; i++) {
+                            results.add(parser.parse(names[i % names.length]));
+                        }
+                        return results;
+                    }
+                }));
+            }
+            List<CachingNameParser.Result> expected = futures.get(0).get();
+            for (Future<List<CachingNameParser.Result>> f : futures) {
+                List<CachingNameParser.Result> results = f.get();
+                for (int i = 0; i < results.size(); i++) {
+                    assertSame(expected.get(i), results.get(i));
+                }
+            }
+        } finally {
+            exec.shutdown();
+        }
+        // threads waiting for a name loaded by another thread count as misses, but do not parse again
+        assertEquals(names.length, parser.stats().loadCount());
+        assertEquals(4 * 100, parser.stats().requestCount());
+    }
+}
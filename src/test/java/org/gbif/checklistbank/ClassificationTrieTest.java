@@ -0,0 +1,138 @@
+package org.gbif.checklistbank;
+
+import com.google.common.collect.ImmutableList;
+import org.gbif.api.vocabulary.Rank;
+import org.gbif.dwc.terms.DwcTerm;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ClassificationTrieTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private TestGraph g;
+    private Transaction tx;
+
+    @Before
+    public void init() throws IOException {
+        g = new TestGraph(folder.newFolder("neo"));
+        tx = g.db.beginTx();
+    }
+
+    @After
+    public void close() {
+        tx.close();
+        g.close();
+    }
+
+    /**
+     * Creates implicit higher taxa as nodes of the test graph.
+     */
+    private ClassificationTrie trie() {
+        return new ClassificationTrie(new ClassificationTrie.NodeCreator() {
+            @Override
+            public long create(Rank rank, String name, long parent) {
+                Node n = parent == ClassificationTrie.NONE
+                    ? g.root(name, rank)
+                    : g.child(g.db.getNodeById(parent), name, rank);
+                n.addLabel(Labels.IMPLICIT);
+                return n.getId();
+            }
+        });
+    }
+
+    private static String[] cl(String kingdom, String family, String genus) {
+        return new String[]{kingdom, null, null, null, family, genus};
+    }
+
+    private long record(ClassificationTrie trie, String name, Rank rank, String[] classification) {
+        Node n = g.taxon(name, rank);
+        long parent = trie.parent(n.getId(), rank, name, classification);
+        if (parent != ClassificationTrie.NONE) {
+            g.db.getNodeById(parent).createRelationshipTo(n, RelType.PARENT_OF);
+        }
+        return n.getId();
+    }
+
+    private String name(long node) {
+        return (String) g.db.getNodeById(node).getProperty(DwcTerm.scientificName.simpleName());
+    }
+
+    private long parent(long node) {
+        return g.db.getNodeById(node).getSingleRelationship(RelType.PARENT_OF, Direction.INCOMING).getStartNode().getId();
+    }
+
+    @Test
+    public void testReuseHigherTaxa() {
+        ClassificationTrie trie = trie();
+        long alba = record(trie, "Pinus alba", Rank.SPECIES, cl("Plantae", "Pinaceae", "Pinus"));
+        assertEquals(3, trie.getCreated());
+        long pinus = parent(alba);
+        assertEquals("Pinus", name(pinus));
+        assertEquals("Pinaceae", name(parent(pinus)));
+        assertEquals("Plantae", name(parent(parent(pinus))));
+        assertTrue(g.db.getNodeById(parent(parent(pinus))).hasLabel(Labels.ROOT));
+
+        // the same classification reuses all nodes
+        long nigra = record(trie, "Pinus nigra", Rank.SPECIES, cl("Plantae", "Pinaceae", "Pinus"));
+        assertEquals(pinus, parent(nigra));
+        assertEquals(3, trie.getCreated());
+
+        // a genus record becomes the parent of all following records classified in it
+        long abies = record(trie, "Abies", Rank.GENUS, cl("Plantae", "Pinaceae", null));
+        assertEquals(parent(pinus), parent(abies));
+        long abiesAlba = record(trie, "Abies alba", Rank.SPECIES, cl("Plantae", "Pinaceae", "Abies"));
+        assertEquals(abies, parent(abiesAlba));
+        assertEquals(3, trie.getCreated());
+
+        // columns at or below the rank of a record are ignored
+        long pinaceae = record(trie, "Pinaceae", Rank.FAMILY, cl("Plantae", "Pinaceae", "Pinus"));
+        assertEquals(parent(parent(pinus)), parent(pinaceae));
+        assertEquals(3, trie.getCreated());
+
+        // no classification, no parent
+        assertEquals(ClassificationTrie.NONE, trie.parent(-2, Rank.SPECIES, "Lostia", cl(null, null, null)));
+    }
+
+    /**
+     * Higher taxa of a previous import are registered with a new trie and not created again.
+     */
+    @Test
+    public void testRegister() {
+        ClassificationTrie trie = trie();
+        long pinus = parent(record(trie, "Pinus alba", Rank.SPECIES, cl("Plantae", "Pinaceae", "Pinus")));
+        long pinaceae = parent(pinus);
+        long plantae = parent(pinaceae);
+
+        ClassificationTrie reloaded = trie();
+        // registered in any order, descendants first
+        reloaded.register(ImmutableList.of("Plantae", "Pinaceae", "Pinus"), pinus);
+        reloaded.register(ImmutableList.of("Plantae"), plantae);
+        reloaded.register(ImmutableList.of("Plantae", "Pinaceae"), pinaceae);
+        long nigra = record(reloaded, "Pinus nigra", Rank.SPECIES, cl("Plantae", "Pinaceae", "Pinus"));
+        assertEquals(pinus, parent(nigra));
+        long abies = parent(record(reloaded, "Abies alba", Rank.SPECIES, cl("Plantae", "Pinaceae", "Abies")));
+        assertEquals(pinaceae, parent(abies));
+        assertEquals(1, reloaded.getCreated());
+
+        // an existing registration is kept
+        reloaded.register(ImmutableList.of("Plantae", "Pinaceae"), abies);
+        assertEquals(pinaceae, reloaded.parent(-2, Rank.GENUS, "Picea", cl("Plantae", "Pinaceae", null)));
+
+        // an unregistered ancestor is a placeholder without a node
+        reloaded.register(ImmutableList.of("Fungi", "Agaricaceae"), abies);
+        assertEquals(abies, reloaded.parent(-2, Rank.GENUS, "Agaricus", cl("Fungi", "Agaricaceae", null)));
+        assertEquals(ClassificationTrie.NONE, reloaded.parent(-2, Rank.FAMILY, "Amanitaceae", cl("Fungi", null, null)));
+        assertEquals(1, reloaded.getCreated());
+    }
+}
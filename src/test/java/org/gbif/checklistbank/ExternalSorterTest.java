@@ -0,0 +1,90 @@
+package org.gbif.checklistbank;
+
+import com.google.common.collect.Lists;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ExternalSorterTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private List<String> sort(ExternalSorter sorter, List<String> lines) throws IOException {
+        for (String line : lines) {
+            sorter.add(line);
+        }
+        assertEquals(lines.size(), sorter.size());
+        List<String> sorted = Lists.newArrayList();
+        Iterator<String> iter = sorter.sorted();
+        while (iter.hasNext()) {
+            sorted.add(iter.next());
+        }
+        return sorted;
+    }
+
+    @Test
+    public void testInMemory() throws IOException {
+        File dir = folder.newFolder();
+        try (ExternalSorter sorter = new ExternalSorter(dir, 16)) {
+            List<String> sorted = sort(sorter, Lists.newArrayList("b\t2", "a\t1", "", "B\t3", "a\t0", "\u00e4\t4"));
+            assertEquals(Lists.newArrayList("", "B\t3", "a\t0", "a\t1", "b\t2", "\u00e4\t4"), sorted);
+            assertEquals(0, dir.list().length);
+        }
+    }
+
+    /**
+     * Sorts enough lines to spill many runs, including duplicates and runs of different sizes.
+     */
+    @Test
+    public void testMergeRuns() throws IOException {
+        Random rnd = new Random(17);
+        List<String> lines = Lists.newArrayList();
+        for (int i = 0; i < 100000; i++) {
+            lines.add(Integer.toHexString(rnd.nextInt(50000)) + '\t' + i);
+        }
+        File dir = folder.newFolder();
+        try (ExternalSorter sorter = new ExternalSorter(dir, 1)) {
+            List<String> sorted = sort(sorter, lines);
+            assertTrue("expected spilled runs", dir.list().length > 2);
+            Collections.sort(lines);
+            assertEquals(lines, sorted);
+        }
+        assertEquals(0, dir.list().length);
+    }
+
+    @Test
+    public void testEmpty() throws IOException {
+        try (ExternalSorter sorter = new ExternalSorter(folder.newFolder(), 1)) {
+            assertFalse(sorter.sorted().hasNext());
+            assertEquals(0, sorter.size());
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testAddAfterSort() throws IOException {
+        try (ExternalSorter sorter = new ExternalSorter(folder.newFolder(), 1)) {
+            sorter.add("a");
+            sorter.sorted();
+            sorter.add("b");
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testSortTwice() throws IOException {
+        try (ExternalSorter sorter = new ExternalSorter(folder.newFolder(), 1)) {
+            sorter.sorted();
+            sorter.sorted();
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package org.gbif.checklistbank;
+
+import com.google.common.collect.Maps;
+import org.gbif.api.vocabulary.Rank;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class NeoExportIT {
+    private static final String NAME = "export-it";
+    private static final String SPECIES = "Abies alba\tMill. \\ x\nnova";
+    private static final UUID DATASET = UUID.fromString("6d3a2c8c-4f0e-4c3e-8a0b-3c6f5c4b2a11");
+    private static final UUID OTHER_DATASET = UUID.fromString("0b6a1e74-90cf-4d2a-9d8a-6a1b7b1c9f02");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private String storeDir;
+    private Connection con;
+
+    @Before
+    public void init() throws Exception {
+        con = TestDatabase.connect();
+        TestDatabase.createClbSchema(con);
+        storeDir = System.getProperty(NeoConfiguration.STORE_DIR);
+        System.setProperty(NeoConfiguration.STORE_DIR, folder.getRoot().getAbsolutePath());
+        buildGraph();
+    }
+
+    @After
+    public void close() throws SQLException {
+        if (storeDir == null) {
+            System.clearProperty(NeoConfiguration.STORE_DIR);
+        } else {
+            System.setProperty(NeoConfiguration.STORE_DIR, storeDir);
+        }
+        if (con != null) {
+            con.close();
+        }
+    }
+
+    /**
+     * Kingdom Plantae with a species, its synonym which is also its basionym, and a synonym of a genus outside the tree.
+     */
+    private void buildGraph() {
+        try (TestGraph g = new TestGraph(NeoUtils.neoDir(NAME));
+             Transaction tx = g.db.beginTx()) {
+            Node k = g.root("Plantae", Rank.KINGDOM);
+            Node sp = g.child(k, SPECIES, Rank.SPECIES);
+            Node syn = g.synonym(sp, "Picea alba", Rank.SPECIES);
+            syn.createRelationshipTo(sp, RelType.BASIONYM_OF);
+            Node lost = g.taxon("Lostia", Rank.GENUS);
+            g.synonym(lost, "Lostia nova", Rank.GENUS);
+
+            final int none = NeoUtils.NO_KEY;
+            TestGraph.nestedSet(k, 1, 4);
+            k.setProperty(NeoUtils.PROP_CHILDREN, 1);
+            NeoUtils.setClassification(k, new int[]{(int) k.getId(), none, none, none, none, none, none});
+            TestGraph.nestedSet(sp, 2, 3);
+            sp.setProperty(NeoUtils.PROP_SYNONYMS, 1);
+            NeoUtils.setClassification(sp, new int[]{(int) k.getId(), none, none, none, none, none, (int) sp.getId()});
+            sp.setProperty(NeoUtils.PROP_CANONICAL_NAME, "Abies alba");
+            tx.success();
+        }
+    }
+
+    private Map<String, Usage> usages(UUID datasetKey) throws SQLException {
+        Map<String, Usage> usages = Maps.newHashMap();
+        try (Statement st = con.createStatement();
+             ResultSet rs = st.executeQuery("SELECT u.id, u.parent_fk, u.basionym_fk, u.is_synonym, u.rank, "
+                 + "u.lft, u.rgt, u.kingdom_fk, u.species_fk, n.scientific_name, n.canonical_name, "
+                 + "m.count_children, m.count_synonyms FROM name_usage u JOIN name n ON n.id = u.name_fk "
+                 + "JOIN name_usage_metrics m ON m.usage_fk = u.id WHERE u.dataset_key = '" + datasetKey + "'")) {
+            while (rs.next()) {
+                Usage u = new Usage();
+                u.id = rs.getInt("id");
+                u.parent = (Integer) rs.getObject("parent_fk");
+                u.basionym = (Integer) rs.getObject("basionym_fk");
+                u.synonym = rs.getBoolean("is_synonym");
+                u.rank = rs.getString("rank");
+                u.lft = (Integer) rs.getObject("lft");
+                u.rgt = (Integer) rs.getObject("rgt");
+                u.kingdom = (Integer) rs.getObject("kingdom_fk");
+                u.species = (Integer) rs.getObject("species_fk");
+                u.canonical = rs.getString("canonical_name");
+                u.children = rs.getInt("count_children");
+                u.synonyms = rs.getInt("count_synonyms");
+                usages.put(rs.getString("scientific_name"), u);
+            }
+        }
+        return usages;
+    }
+
+    private int count(String sql) throws SQLException {
+        try (Statement st = con.createStatement();
+             ResultSet rs = st.executeQuery(sql)) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+
+    private void export(UUID datasetKey) throws SQLException {
+        new NeoExport(TestDatabase.url(), TestDatabase.username(), TestDatabase.password()).exportClb(NAME, datasetKey);
+    }
+
+    @Test
+    public void testExport() throws SQLException {
+        export(DATASET);
+        Map<String, Usage> usages = usages(DATASET);
+        assertEquals(5, usages.size());
+
+        Usage k = usages.get("Plantae");
+        Usage sp = usages.get(SPECIES);
+        Usage syn = usages.get("Picea alba");
+        Usage lost = usages.get("Lostia");
+        Usage lostSyn = usages.get("Lostia nova");
+
+        assertNull(k.parent);
+        assertFalse(k.synonym);
+        assertEquals("KINGDOM", k.rank);
+        assertEquals(1, (int) k.lft);
+        assertEquals(4, (int) k.rgt);
+        assertEquals(k.id, (int) k.kingdom);
+        assertEquals(1, k.children);
+
+        assertEquals(k.id, (int) sp.parent);
+        assertFalse(sp.synonym);
+        assertEquals("SPECIES", sp.rank);
+        assertEquals("Abies alba", sp.canonical);
+        assertEquals(syn.id, (int) sp.basionym);
+        assertEquals(2, (int) sp.lft);
+        assertEquals(3, (int) sp.rgt);
+        assertEquals(k.id, (int) sp.kingdom);
+        assertEquals(sp.id, (int) sp.species);
+        assertEquals(1, sp.synonyms);
+        assertEquals(0, sp.children);
+
+        // synonyms point to their accepted usage
+        assertTrue(syn.synonym);
+        assertEquals(sp.id, (int) syn.parent);
+        assertNull(syn.lft);
+
+        // taxa outside the tree are still exported
+        assertNull(lost.parent);
+        assertFalse(lost.synonym);
+        assertTrue(lostSyn.synonym);
+        assertEquals(lost.id, (int) lostSyn.parent);
+
+        assertEquals(5, count("SELECT count(*) FROM name"));
+    }
+
+    @Test
+    public void testReexport() throws SQLException {
+        export(DATASET);
+        export(OTHER_DATASET);
+        final int spId = usages(DATASET).get(SPECIES).id;
+        export(DATASET);
+
+        Map<String, Usage> usages = usages(DATASET);
+        assertEquals(5, usages.size());
+        Usage sp = usages.get(SPECIES);
+        assertNotEquals(spId, sp.id);
+        assertEquals(usages.get("Plantae").id, (int) sp.parent);
+        assertEquals(5, usages(OTHER_DATASET).size());
+
+        assertEquals(10, count("SELECT count(*) FROM name_usage"));
+        assertEquals(10, count("SELECT count(*) FROM name_usage_metrics"));
+        // names are shared across datasets and exports
+        assertEquals(5, count("SELECT count(*) FROM name"));
+    }
+
+    private static class Usage {
+        int id;
+        Integer parent;
+        Integer basionym;
+        boolean synonym;
+        String rank;
+        Integer lft;
+        Integer rgt;
+        Integer kingdom;
+        Integer species;
+        String canonical;
+        int children;
+        int synonyms;
+    }
+}
@@ -0,0 +1,105 @@
+package org.gbif.checklistbank;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.Resources;
+import org.gbif.checklistbank.ids.IdStores;
+import org.gbif.dwc.terms.DwcTerm;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.tooling.GlobalGraphOperations;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class NeoImportTest {
+    // positions of the values listed by tree()
+    private static final int LFT = 0;
+    private static final int PARENT = 4;
+    private static final int ACCEPTED = 5;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static File archive(String name) throws Exception {
+        return new File(Resources.getResource(name).toURI());
+    }
+
+    private static String name(Node n) {
+        return (String) n.getProperty(DwcTerm.scientificName.simpleName());
+    }
+
+    private static String name(Iterable<Relationship> rels, boolean start) {
+        for (Relationship rel : rels) {
+            return name(start ? rel.getStartNode() : rel.getEndNode());
+        }
+        return null;
+    }
+
+    /**
+     * @return lft, rgt, children and synonym counts, parent and accepted name of all taxa by their scientific name,
+     * with implicit taxa suffixed by implicit
+     */
+    private static Map<String, List<Object>> tree(File storeDir) {
+        Map<String, List<Object>> tree = Maps.newHashMap();
+        try (TestGraph g = new TestGraph(storeDir); Transaction tx = g.db.beginTx()) {
+            for (Node n : GlobalGraphOperations.at(g.db).getAllNodesWithLabel(Labels.TAXON)) {
+                List<Object> values = Lists.newArrayList();
+                values.add(n.getProperty(NeoUtils.PROP_LFT, null));
+                values.add(n.getProperty(NeoUtils.PROP_RGT, null));
+                values.add(n.getProperty(NeoUtils.PROP_CHILDREN, null));
+                values.add(n.getProperty(NeoUtils.PROP_SYNONYMS, null));
+                values.add(name(n.getRelationships(RelType.PARENT_OF, Direction.INCOMING), true));
+                values.add(name(n.getRelationships(RelType.SYNONYM_OF, Direction.OUTGOING), false));
+                tree.put(name(n) + (n.hasLabel(Labels.IMPLICIT) ? " implicit" : ""), values);
+            }
+            tx.success();
+        }
+        return tree;
+    }
+
+    /**
+     * Updates an import with a changed, a new, a deleted and a reclassified record
+     * and compares the result with a fresh import of the new archive version.
+     */
+    @Test
+    public void testUpdate() throws Exception {
+        File store = folder.newFolder("update");
+        new NeoImport(archive("dwca-update-1"), store, true, IdStores.Type.HEAP).run();
+        Map<String, List<Object>> before = tree(store);
+        assertEquals(10, before.size());
+        assertTrue(before.containsKey("Pinus alba"));
+        assertEquals("Abietaceae implicit", before.get("Abies alba").get(PARENT));
+        assertEquals(0, before.get("Abietaceae implicit").get(LFT));
+
+        new NeoImport(archive("dwca-update-2"), store, true, IdStores.Type.HEAP).update();
+        Map<String, List<Object>> updated = tree(store);
+        assertEquals(9, updated.size());
+        assertFalse(updated.containsKey("Pinus alba"));
+        assertFalse(updated.containsKey("Pinus nigra"));
+        assertEquals("Pinus", updated.get("Pinus sylvestris").get(PARENT));
+        assertEquals("Pinus nigra Arnold", updated.get("Pinus austriaca").get(ACCEPTED));
+        assertNull(updated.get("Pinus austriaca").get(PARENT));
+        // the implicit family lost its only child, the other implicit family moved to the first nested set index
+        assertEquals("Pinus", updated.get("Abies alba").get(PARENT));
+        assertFalse(updated.containsKey("Abietaceae implicit"));
+        assertEquals(0, updated.get("Cupressaceae implicit").get(LFT));
+        assertEquals(Lists.<Object>newArrayList(4, 15, 1, 0, null, null), updated.get("Plantae"));
+        assertEquals(Lists.<Object>newArrayList(6, 13, 3, 0, "Pinaceae", null), updated.get("Pinus"));
+
+        File fresh = folder.newFolder("fresh");
+        new NeoImport(archive("dwca-update-2"), fresh, true, IdStores.Type.HEAP).run();
+        assertEquals(tree(fresh), updated);
+    }
+}
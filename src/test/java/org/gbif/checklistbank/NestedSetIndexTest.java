@@ -0,0 +1,122 @@
+package org.gbif.checklistbank;
+
+import org.gbif.api.vocabulary.Rank;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class NestedSetIndexTest {
+    @ClassRule
+    public static TemporaryFolder folder = new TemporaryFolder();
+    private static TestGraph g;
+    private static NestedSetIndex idx;
+    private static long plantae, abies, alba, nordmanniana, pinus, nigra, animalia, aves, synonym;
+
+    /**
+     * Plantae 1-12 with Abies 2-7 (alba 3-4, nordmanniana 5-6) and Pinus 8-11 (nigra 9-10),
+     * Animalia 13-16 with Aves 14-15 and a synonym of alba without a nested set.
+     */
+    @BeforeClass
+    public static void init() throws IOException {
+        g = new TestGraph(folder.newFolder("neo"));
+        try (Transaction tx = g.db.beginTx()) {
+            // created in reverse order so node ids do not follow the lft order
+            animalia = node(g.root("Animalia", Rank.KINGDOM), 13, 16);
+            aves = node(g.taxon("Aves", Rank.CLASS), 14, 15);
+            pinus = node(g.taxon("Pinus", Rank.GENUS), 8, 11);
+            nigra = node(g.taxon("Pinus nigra", Rank.SPECIES), 9, 10);
+            nordmanniana = node(g.taxon("Abies nordmanniana", Rank.SPECIES), 5, 6);
+            alba = node(g.taxon("Abies alba", Rank.SPECIES), 3, 4);
+            abies = node(g.taxon("Abies", Rank.GENUS), 2, 7);
+            plantae = node(g.root("Plantae", Rank.KINGDOM), 1, 12);
+            synonym = g.synonym(g.db.getNodeById(alba), "Picea alba", Rank.SPECIES).getId();
+            tx.success();
+        }
+        idx = NestedSetIndex.load(g.db);
+    }
+
+    private static long node(Node n, int lft, int rgt) {
+        TestGraph.nestedSet(n, lft, rgt);
+        return n.getId();
+    }
+
+    @AfterClass
+    public static void close() {
+        g.close();
+    }
+
+    @Test
+    public void testSize() {
+        assertEquals(8, idx.size());
+        assertTrue(idx.contains(alba));
+        assertFalse(idx.contains(synonym));
+    }
+
+    @Test
+    public void testDescendants() {
+        assertArrayEquals(new long[]{abies, alba, nordmanniana, pinus, nigra}, idx.descendants(plantae));
+        assertArrayEquals(new long[]{alba, nordmanniana}, idx.descendants(abies));
+        assertArrayEquals(new long[]{nigra}, idx.descendants(pinus));
+        assertArrayEquals(new long[]{aves}, idx.descendants(animalia));
+        // leaves within, at the end of a subtree and at the very end of the index
+        assertArrayEquals(new long[0], idx.descendants(alba));
+        assertArrayEquals(new long[0], idx.descendants(nordmanniana));
+        assertArrayEquals(new long[0], idx.descendants(nigra));
+        assertArrayEquals(new long[0], idx.descendants(aves));
+
+        assertEquals(5, idx.countDescendants(plantae));
+        assertEquals(2, idx.countDescendants(abies));
+        assertEquals(1, idx.countDescendants(animalia));
+        assertEquals(0, idx.countDescendants(nordmanniana));
+        assertEquals(0, idx.countDescendants(aves));
+    }
+
+    @Test
+    public void testAncestors() {
+        assertArrayEquals(new long[]{plantae, abies}, idx.ancestors(alba));
+        assertArrayEquals(new long[]{plantae, pinus}, idx.ancestors(nigra));
+        assertArrayEquals(new long[]{plantae}, idx.ancestors(pinus));
+        assertArrayEquals(new long[]{animalia}, idx.ancestors(aves));
+        assertArrayEquals(new long[0], idx.ancestors(animalia));
+
+        assertEquals(abies, idx.parent(nordmanniana));
+        assertEquals(plantae, idx.parent(pinus));
+        assertEquals(animalia, idx.parent(aves));
+        assertEquals(NestedSetIndex.NOT_FOUND, idx.parent(plantae));
+        assertEquals(NestedSetIndex.NOT_FOUND, idx.parent(animalia));
+    }
+
+    @Test
+    public void testSubtree() {
+        assertTrue(idx.isInSubtree(nigra, plantae));
+        assertTrue(idx.isInSubtree(abies, abies));
+        assertFalse(idx.isInSubtree(nigra, abies));
+        assertFalse(idx.isInSubtree(plantae, abies));
+        assertFalse(idx.isInSubtree(aves, plantae));
+    }
+
+    @Test
+    public void testNodeByLft() {
+        assertEquals(plantae, idx.nodeByLft(1));
+        assertEquals(nordmanniana, idx.nodeByLft(5));
+        assertEquals(aves, idx.nodeByLft(14));
+        assertEquals(NestedSetIndex.NOT_FOUND, idx.nodeByLft(4));
+        assertEquals(NestedSetIndex.NOT_FOUND, idx.nodeByLft(17));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownNode() {
+        idx.descendants(synonym);
+    }
+}
@@ -0,0 +1,97 @@
+package org.gbif.checklistbank;
+
+import com.google.common.base.Strings;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PgCopyWriterIT {
+    private Connection con;
+
+    @Before
+    public void init() throws SQLException {
+        con = TestDatabase.connect();
+        try (Statement st = con.createStatement()) {
+            st.execute("CREATE TEMP TABLE copy_test (id integer, val text)");
+        }
+    }
+
+    @After
+    public void close() throws SQLException {
+        if (con != null) {
+            con.close();
+        }
+    }
+
+    private void copy(String... values) throws SQLException {
+        try (PgCopyWriter writer = new PgCopyWriter(con, "copy_test", "id", "val")) {
+            for (int i = 0; i < values.length; i++) {
+                writer.write(i, values[i]);
+            }
+            assertEquals(values.length, writer.getRows());
+        }
+    }
+
+    private String read(int id) throws SQLException {
+        try (Statement st = con.createStatement();
+             ResultSet rs = st.executeQuery("SELECT val FROM copy_test WHERE id = " + id)) {
+            assertTrue(rs.next());
+            return rs.getString(1);
+        }
+    }
+
+    @Test
+    public void testEscaping() throws SQLException {
+        final String[] values = {"Abies alba", "back\\slash", "tab\tbed", "new\nline", "carriage\rreturn",
+            "\\N", "", null, "Ab\u00efes \u00f1 \u4e2d\u6587 \ud83d\udc1d", "mixed \\t\t\\n\n"};
+        copy(values);
+        for (int i = 0; i < values.length; i++) {
+            assertEquals(values[i], read(i));
+        }
+    }
+
+    @Test
+    public void testLargeRows() throws SQLException {
+        // rows larger than the buffer are written directly, smaller ones around them still buffered
+        final String large = Strings.repeat("Abies alba\t\\", 20000);
+        copy("before", large, "after", large + large);
+        assertEquals("before", read(0));
+        assertEquals(large, read(1));
+        assertEquals("after", read(2));
+        assertEquals(large + large, read(3));
+    }
+
+    @Test
+    public void testCancel() throws SQLException {
+        PgCopyWriter writer = new PgCopyWriter(con, "copy_test", "id", "val");
+        writer.write(1, "cancelled");
+        writer.cancel();
+        try (Statement st = con.createStatement();
+             ResultSet rs = st.executeQuery("SELECT count(*) FROM copy_test")) {
+            rs.next();
+            assertEquals(0, rs.getInt(1));
+        }
+    }
+
+    @Test
+    public void testNull() throws SQLException {
+        copy((String) null);
+        try (Statement st = con.createStatement();
+             ResultSet rs = st.executeQuery("SELECT val IS NULL FROM copy_test WHERE id = 0")) {
+            assertTrue(rs.next());
+            assertTrue(rs.getBoolean(1));
+            assertFalse(rs.next());
+        }
+        assertNull(read(0));
+    }
+}
@@ -0,0 +1,48 @@
+package org.gbif.checklistbank;
+
+import com.google.common.io.Resources;
+import org.gbif.checklistbank.ids.IdStores;
+import org.gbif.dwc.text.Archive;
+import org.gbif.dwc.text.ArchiveFactory;
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+
+public class TaxonomicOrderTest {
+    /**
+     * Expected ordinal of every core row of the dwca-order archive:
+     * kingdoms by name, Plantae genera depth first with the synonym Picea alba right below its accepted species,
+     * followed by the two genera caught in a parent cycle.
+     */
+    private static final long[] ORDINALS = {3, 1, 2, 4, 5, 6, 7, 8, 0};
+
+    private Archive archive() throws Exception {
+        return ArchiveFactory.openArchive(new File(Resources.getResource("dwca-order").toURI()));
+    }
+
+    @Test
+    public void testOrder() throws Exception {
+        for (IdStores.Type type : new IdStores.Type[]{IdStores.Type.HEAP, IdStores.Type.MAPPED, IdStores.Type.NUMERIC}) {
+            try (TaxonomicOrder order = TaxonomicOrder.build(archive(), false, type, 1)) {
+                assertEquals(ORDINALS.length, order.size());
+                for (int row = 0; row < ORDINALS.length; row++) {
+                    assertEquals(type + " row " + row, ORDINALS[row], order.ordinal(row));
+                }
+            }
+        }
+    }
+
+    /**
+     * The core id column holds the same identifiers, so the order must not change.
+     */
+    @Test
+    public void testCoreId() throws Exception {
+        try (TaxonomicOrder order = TaxonomicOrder.build(archive(), true, IdStores.Type.HEAP, 1)) {
+            for (int row = 0; row < ORDINALS.length; row++) {
+                assertEquals(ORDINALS[row], order.ordinal(row));
+            }
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package org.gbif.checklistbank;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
+import com.google.common.io.Files;
+import com.google.common.io.Resources;
+import org.gbif.api.vocabulary.Rank;
+import org.junit.Assume;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Access to a throwaway postgres database for integration tests, configured with the system properties
+ * clbneo.test.db.url, clbneo.test.db.username and clbneo.test.db.password.
+ * The optional clbneo.test.db.schema names a DDL file of the real checklistbank schema used instead of
+ * the hand written subset in clb-schema.sql.
+ * Tests using it are skipped if no url is given. The database is modified freely, never point it to real data!
+ */
+public class TestDatabase {
+    public static final String URL = "clbneo.test.db.url";
+    public static final String USERNAME = "clbneo.test.db.username";
+    public static final String PASSWORD = "clbneo.test.db.password";
+    public static final String SCHEMA = "clbneo.test.db.schema";
+
+    private TestDatabase() {
+    }
+
+    public static String url() {
+        String url = System.getProperty(URL);
+        Assume.assumeTrue("No test database configured in " + URL, !Strings.isNullOrEmpty(url));
+        return url;
+    }
+
+    public static String username() {
+        return System.getProperty(USERNAME);
+    }
+
+    public static String password() {
+        return System.getProperty(PASSWORD);
+    }
+
+    public static Connection connect() throws SQLException {
+        return DriverManager.getConnection(url(), username(), password());
+    }
+
+    /**
+     * Recreates the checklistbank schema.
+     * If clbneo.test.db.schema is given the entire public schema is dropped and the DDL file executed as a whole,
+     * so dollar quoted function bodies survive. Otherwise the subset of clb-schema.sql is created
+     * with a rank enum of all Rank values.
+     */
+    public static void createClbSchema(Connection con) throws SQLException, IOException {
+        String ddl = System.getProperty(SCHEMA);
+        try (Statement st = con.createStatement()) {
+            if (!Strings.isNullOrEmpty(ddl)) {
+                st.execute("DROP SCHEMA public CASCADE");
+                st.execute("CREATE SCHEMA public");
+                st.execute(Files.toString(new File(ddl), Charsets.UTF_8));
+                // pg_dump clears the search path for its session
+                st.execute("RESET ALL");
+                return;
+            }
+            StringBuilder ranks = new StringBuilder();
+            for (Rank r : Rank.values()) {
+                ranks.append(ranks.length() == 0 ? "" : ", ").append('\'').append(r.name()).append('\'');
+            }
+            String sql = Resources.toString(Resources.getResource("clb-schema.sql"), Charsets.UTF_8)
+                .replace("{RANKS}", ranks);
+            for (String stmt : Splitter.on(';').trimResults().omitEmptyStrings().split(sql)) {
+                st.execute(stmt);
+            }
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package org.gbif.checklistbank;
+
+import org.gbif.api.vocabulary.Rank;
+import org.gbif.dwc.terms.DwcTerm;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+
+import java.io.File;
+
+/**
+ * Small embedded neo4j checklist for tests, opened with the traversal profile.
+ * All node methods need to be called within an open transaction.
+ */
+public class TestGraph implements AutoCloseable {
+    public final GraphDatabaseService db;
+
+    public TestGraph(File storeDir) {
+        db = NeoConfiguration.open(storeDir, NeoConfiguration.Profile.TRAVERSAL);
+    }
+
+    /**
+     * Creates a taxon node with the TAXON label, a scientific name and rank and any additional labels.
+     */
+    public Node taxon(String name, Rank rank, Label... labels) {
+        Node n = db.createNode(Labels.TAXON);
+        for (Label l : labels) {
+            n.addLabel(l);
+        }
+        n.setProperty(DwcTerm.scientificName.simpleName(), name);
+        n.setProperty(DwcTerm.taxonRank.simpleName(), rank.name().toLowerCase());
+        return n;
+    }
+
+    public Node root(String name, Rank rank) {
+        return taxon(name, rank, Labels.ROOT);
+    }
+
+    public Node child(Node parent, String name, Rank rank) {
+        Node n = taxon(name, rank);
+        parent.createRelationshipTo(n, RelType.PARENT_OF);
+        return n;
+    }
+
+    /**
+     * Creates a synonym of the accepted taxon outside of the parent child tree.
+     */
+    public Node synonym(Node accepted, String name, Rank rank) {
+        Node n = taxon(name, rank, Labels.SYNONYM);
+        n.createRelationshipTo(accepted, RelType.SYNONYM_OF);
+        return n;
+    }
+
+    public static void nestedSet(Node n, int lft, int rgt) {
+        n.setProperty(NeoUtils.PROP_LFT, lft);
+        n.setProperty(NeoUtils.PROP_RGT, rgt);
+    }
+
+    @Override
+    public void close() {
+        db.shutdown();
+    }
+}
@@ -0,0 +1,196 @@
+package org.gbif.checklistbank;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Iterables;
+import com.google.common.io.Files;
+import org.gbif.api.vocabulary.Rank;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TreeValidatorTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private TestGraph g;
+    private File report;
+    private Node root;
+
+    @Before
+    public void init() throws IOException {
+        g = new TestGraph(folder.newFolder("neo"));
+        report = new File(folder.getRoot(), "report.txt");
+        try (Transaction tx = g.db.beginTx()) {
+            root = g.root("Plantae", Rank.KINGDOM);
+            Node genus = g.child(root, "Abies", Rank.GENUS);
+            Node sp = g.child(genus, "Abies alba", Rank.SPECIES);
+            g.synonym(sp, "Picea alba", Rank.SPECIES);
+            tx.success();
+        }
+    }
+
+    @After
+    public void close() {
+        g.close();
+    }
+
+    private TreeValidator validate(boolean repair, boolean valid) throws IOException {
+        TreeValidator validator = new TreeValidator(g.db, repair);
+        assertEquals(valid, validator.validate(report));
+        return validator;
+    }
+
+    private List<String> issues() throws IOException {
+        return Files.readLines(report, Charsets.UTF_8);
+    }
+
+    @Test
+    public void testValidTree() throws IOException {
+        TreeValidator v = validate(true, true);
+        assertEquals(0, v.getCycles());
+        assertEquals(0, v.getOrphans());
+        assertEquals(0, v.getChainedSynonyms());
+        assertEquals(0, v.getMultipleParents());
+        assertEquals(0, v.getRootsWithParent());
+        assertTrue(issues().isEmpty());
+    }
+
+    @Test
+    public void testCycle() throws IOException {
+        Node[] cycle = new Node[3];
+        try (Transaction tx = g.db.beginTx()) {
+            cycle[0] = g.taxon("A", Rank.GENUS);
+            cycle[1] = g.child(cycle[0], "B", Rank.GENUS);
+            cycle[2] = g.child(cycle[1], "C", Rank.GENUS);
+            cycle[2].createRelationshipTo(cycle[0], RelType.PARENT_OF);
+            g.child(cycle[2], "D", Rank.SPECIES);
+            tx.success();
+        }
+        TreeValidator v = validate(false, false);
+        assertEquals(1, v.getCycles());
+        // the cycle nodes are no orphans and the species hanging off the cycle is no second cycle
+        assertEquals(0, v.getOrphans());
+        assertEquals(1, issues().size());
+        assertTrue(issues().get(0).startsWith("CYCLE\t"));
+        // without repair the graph stays unchanged
+        assertEquals(1, validate(false, false).getCycles());
+
+        validate(true, false);
+        validate(false, true);
+        try (Transaction tx = g.db.beginTx()) {
+            int roots = 0;
+            for (Node n : cycle) {
+                if (n.hasLabel(Labels.ROOT)) {
+                    roots++;
+                    assertNull(n.getSingleRelationship(RelType.PARENT_OF, Direction.INCOMING));
+                } else {
+                    assertNotNull(n.getSingleRelationship(RelType.PARENT_OF, Direction.INCOMING));
+                }
+            }
+            assertEquals(1, roots);
+            tx.success();
+        }
+    }
+
+    @Test
+    public void testOrphan() throws IOException {
+        Node orphan;
+        try (Transaction tx = g.db.beginTx()) {
+            orphan = g.taxon("Lostia", Rank.GENUS);
+            g.child(orphan, "Lostia nova", Rank.SPECIES);
+            // synonyms without a parent are no orphans
+            g.synonym(orphan, "Lostella", Rank.GENUS);
+            tx.success();
+        }
+        TreeValidator v = validate(true, false);
+        assertEquals(1, v.getOrphans());
+        assertEquals(0, v.getCycles());
+        assertEquals(1, issues().size());
+        assertTrue(issues().get(0).startsWith("ORPHAN\t" + orphan.getId() + "\t"));
+
+        validate(false, true);
+        try (Transaction tx = g.db.beginTx()) {
+            assertTrue(orphan.hasLabel(Labels.ROOT));
+            tx.success();
+        }
+    }
+
+    @Test
+    public void testChainedSynonyms() throws IOException {
+        Node syn2;
+        try (Transaction tx = g.db.beginTx()) {
+            Node acc = g.child(root, "Pinus", Rank.GENUS);
+            Node syn1 = g.synonym(acc, "Pinea", Rank.GENUS);
+            syn2 = g.synonym(syn1, "Pinella", Rank.GENUS);
+            tx.success();
+        }
+        TreeValidator v = validate(true, false);
+        assertEquals(1, v.getChainedSynonyms());
+        assertEquals(0, v.getOrphans());
+        assertTrue(issues().get(0).startsWith("CHAINED_SYNONYM\t" + syn2.getId() + "\t"));
+        // chained synonyms are reported only, never repaired
+        v = validate(true, false);
+        assertEquals(1, v.getChainedSynonyms());
+    }
+
+    @Test
+    public void testMultipleParents() throws IOException {
+        Node child;
+        try (Transaction tx = g.db.beginTx()) {
+            Node p1 = g.child(root, "Pinus", Rank.GENUS);
+            Node p2 = g.child(root, "Picea", Rank.GENUS);
+            child = g.child(p1, "Pinus alba", Rank.SPECIES);
+            p2.createRelationshipTo(child, RelType.PARENT_OF);
+            tx.success();
+        }
+        TreeValidator v = validate(true, false);
+        assertEquals(1, v.getMultipleParents());
+        assertEquals(0, v.getCycles());
+        assertTrue(issues().get(0).startsWith("MULTIPLE_PARENTS\t" + child.getId() + "\t"));
+
+        validate(false, true);
+        try (Transaction tx = g.db.beginTx()) {
+            assertEquals(1, Iterables.size(child.getRelationships(RelType.PARENT_OF, Direction.INCOMING)));
+            tx.success();
+        }
+    }
+
+    @Test
+    public void testRootWithParent() throws IOException {
+        Node genus;
+        try (Transaction tx = g.db.beginTx()) {
+            genus = g.child(root, "Pinus", Rank.GENUS);
+            genus.addLabel(Labels.ROOT);
+            g.child(genus, "Pinus nigra", Rank.SPECIES);
+            tx.success();
+        }
+        TreeValidator v = validate(false, false);
+        assertEquals(1, v.getRootsWithParent());
+        assertEquals(0, v.getOrphans());
+        assertEquals(1, issues().size());
+        assertTrue(issues().get(0).startsWith("ROOT_WITH_PARENT\t" + genus.getId() + "\t"));
+
+        validate(true, false);
+        validate(false, true);
+        try (Transaction tx = g.db.beginTx()) {
+            assertFalse(genus.hasLabel(Labels.ROOT));
+            assertTrue(root.hasLabel(Labels.ROOT));
+            assertNotNull(genus.getSingleRelationship(RelType.PARENT_OF, Direction.INCOMING));
+            tx.success();
+        }
+    }
+}
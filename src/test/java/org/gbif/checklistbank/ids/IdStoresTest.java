@@ -0,0 +1,129 @@
+package org.gbif.checklistbank.ids;
+
+import com.google.common.base.Charsets;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class IdStoresTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testAllTypes() throws IOException {
+        for (IdStores.Type type : IdStores.Type.values()) {
+            File dir = folder.newFolder(type.name());
+            try (IdStore store = IdStores.create(type, 10, dir)) {
+                testStore(type, store);
+            }
+            assertEquals(type.name(), 0, dir.list().length);
+        }
+    }
+
+    @Test
+    public void testDirectMemory() throws IOException {
+        try (IdStore store = IdStores.create(IdStores.Type.NUMERIC, 10, null)) {
+            testStore(IdStores.Type.NUMERIC, store);
+        }
+        try (IdStore store = IdStores.create(IdStores.Type.OFF_HEAP, 10, null)) {
+            testStore(IdStores.Type.OFF_HEAP, store);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMappedWithoutDir() throws IOException {
+        IdStores.create(IdStores.Type.MAPPED, 10, null);
+    }
+
+    private void testStore(IdStores.Type type, IdStore store) {
+        final int size = 50000;
+        // numerical, zero padded and alphanumerical ids of various length
+        for (int i = 0; i < size; i++) {
+            store.put(String.valueOf(i), i);
+            store.put("0" + i, size + i);
+            store.put("urn:lsid:example.org:taxname:" + i, 2 * size + i);
+        }
+        store.put("Abi\u00e9s \u4e2d\u6587", 7);
+        store.put("", 8);
+        assertEquals(type.name(), 3 * size + 2, store.size());
+
+        for (int i = 0; i < size; i++) {
+            assertEquals(type.name(), i, store.get(String.valueOf(i)));
+            assertEquals(type.name(), size + i, store.get("0" + i));
+            assertEquals(type.name(), 2 * size + i, store.get("urn:lsid:example.org:taxname:" + i));
+        }
+        assertEquals(7, store.get("Abi\u00e9s \u4e2d\u6587"));
+        assertEquals(8, store.get(""));
+
+        assertEquals(IdStore.NOT_FOUND, store.get(String.valueOf(size)));
+        assertEquals(IdStore.NOT_FOUND, store.get("urn:lsid:example.org:taxname:"));
+        assertEquals(IdStore.NOT_FOUND, store.get("Abies"));
+
+        // duplicate ids keep the last node
+        store.put("17", 99);
+        assertEquals(99, store.get("17"));
+        assertEquals(3 * size + 2, store.size());
+    }
+
+    /**
+     * Identifiers with the same hash are chained in the key log and only resolved by their exact bytes.
+     */
+    @Test
+    public void testKeyLogChain() throws IOException {
+        final byte[] a = "Abies".getBytes(Charsets.UTF_8);
+        final byte[] b = "Abies alba".getBytes(Charsets.UTF_8);
+        try (KeyLog log = new KeyLog(folder.newFolder())) {
+            long ea = log.append(KeyLog.NONE, 1, a);
+            long eb = log.append(ea, 2, b);
+            assertEquals(ea, log.next(eb));
+            assertEquals(KeyLog.NONE, log.next(ea));
+            assertTrue(log.matches(ea, a));
+            assertFalse(log.matches(ea, b));
+            assertTrue(log.matches(eb, b));
+            assertFalse(log.matches(eb, "Abies albb".getBytes(Charsets.UTF_8)));
+            assertEquals(1, log.node(ea));
+            assertEquals(2, log.node(eb));
+            log.setNode(ea, 3);
+            assertEquals(3, log.node(ea));
+            assertEquals(2, log.node(eb));
+        }
+    }
+
+    /**
+     * Entries never span two segments and stay readable once new segments are added.
+     */
+    @Test
+    public void testKeyLogSegments() throws IOException {
+        final byte[] key = new byte[1024 * 1024];
+        key[0] = 1;
+        try (KeyLog log = new KeyLog(null)) {
+            long[] entries = new long[40];
+            long prev = KeyLog.NONE;
+            for (int i = 0; i < entries.length; i++) {
+                key[key.length - 1] = (byte) i;
+                entries[i] = log.append(prev, i, key);
+                prev = entries[i];
+            }
+            for (int i = entries.length - 1; i >= 0; i--) {
+                key[key.length - 1] = (byte) i;
+                assertTrue(log.matches(entries[i], key));
+                assertEquals(i, log.node(entries[i]));
+                assertEquals(i == 0 ? KeyLog.NONE : entries[i - 1], log.next(entries[i]));
+            }
+        }
+    }
+
+    @Test
+    public void testHash() {
+        assertEquals(HashedIdStore.hash("Abies"), HashedIdStore.hash("Abies"));
+        assertFalse(HashedIdStore.hash("Abies") == HashedIdStore.hash("Abies "));
+        assertFalse(HashedIdStore.hash("") == 0);
+    }
+}
@@ -0,0 +1,105 @@
+package org.gbif.checklistbank.ids;
+
+import com.google.common.collect.Lists;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class LongHashTableTest {
+    private static final long NO_VALUE = -1;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testGrowthDirect() throws IOException {
+        testGrowth(null);
+    }
+
+    @Test
+    public void testGrowthMapped() throws IOException {
+        File dir = folder.newFolder();
+        testGrowth(dir);
+        // only the current table file is left and removed on close
+        assertEquals(0, dir.list().length);
+    }
+
+    private void testGrowth(@Nullable File dir) throws IOException {
+        final int size = 100000;
+        try (LongHashTable table = new LongHashTable(10, dir)) {
+            for (long k = 1; k <= size; k++) {
+                assertEquals(NO_VALUE, table.put(k * 7919, k, NO_VALUE));
+            }
+            assertEquals(size, table.size());
+            if (dir != null) {
+                assertEquals(1, dir.list().length);
+            }
+            for (long k = 1; k <= size; k++) {
+                assertEquals(k, table.get(k * 7919, NO_VALUE));
+            }
+            assertEquals(NO_VALUE, table.get(7918, NO_VALUE));
+            assertEquals(NO_VALUE, table.get(-7919, NO_VALUE));
+        }
+    }
+
+    @Test
+    public void testOverwrite() throws IOException {
+        try (LongHashTable table = new LongHashTable(10, null)) {
+            assertEquals(NO_VALUE, table.put(Long.MAX_VALUE, 1, NO_VALUE));
+            assertEquals(NO_VALUE, table.put(Long.MIN_VALUE, 2, NO_VALUE));
+            assertEquals(1, table.put(Long.MAX_VALUE, 3, NO_VALUE));
+            assertEquals(2, table.size());
+            assertEquals(3, table.get(Long.MAX_VALUE, NO_VALUE));
+            assertEquals(2, table.get(Long.MIN_VALUE, NO_VALUE));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testReservedKey() throws IOException {
+        try (LongHashTable table = new LongHashTable(10, null)) {
+            table.put(0, 1, NO_VALUE);
+        }
+    }
+
+    /**
+     * Keys all hashing to the same slot of the initial table are probed linearly and must survive its growth.
+     */
+    @Test
+    public void testCollisions() throws IOException {
+        final long mask = 1023;
+        final long slot = LongHashTable.mix(1) & mask;
+        List<Long> keys = Lists.newArrayList();
+        for (long k = 1; keys.size() < 1000; k++) {
+            if ((LongHashTable.mix(k) & mask) == slot) {
+                keys.add(k);
+            }
+        }
+        try (LongHashTable table = new LongHashTable(10, null)) {
+            for (int i = 0; i < keys.size(); i++) {
+                table.put(keys.get(i), i, NO_VALUE);
+                // colliding lookups of keys not yet added must not match the probed neighbours
+                if (i + 1 < keys.size()) {
+                    assertEquals(NO_VALUE, table.get(keys.get(i + 1), NO_VALUE));
+                }
+            }
+            assertEquals(keys.size(), table.size());
+            for (int i = 0; i < keys.size(); i++) {
+                assertEquals(i, table.get(keys.get(i), NO_VALUE));
+            }
+        }
+    }
+
+    @Test
+    public void testMix() {
+        assertFalse(LongHashTable.mix(1) == LongHashTable.mix(2));
+        assertEquals(0, LongHashTable.mix(0));
+    }
+}
@@ -0,0 +1,127 @@
+package org.gbif.checklistbank.names;
+
+import com.google.common.collect.Lists;
+import org.gbif.api.vocabulary.Rank;
+import org.gbif.checklistbank.NeoUtils;
+import org.gbif.checklistbank.TestGraph;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class NameIndexTest {
+    // enough names sharing long prefixes to fill several front coded blocks
+    private static final int GENERATED = 3 * NameIndex.BLOCK + 5;
+
+    @ClassRule
+    public static TemporaryFolder folder = new TemporaryFolder();
+    private static NameIndex idx;
+    private static List<String> names = Lists.newArrayList();
+    private static long species1, species2, variety, canonical;
+
+    @BeforeClass
+    public static void init() throws IOException {
+        try (TestGraph g = new TestGraph(folder.newFolder("neo"))) {
+            try (Transaction tx = g.db.beginTx()) {
+                for (int i = 0; i < GENERATED; i++) {
+                    String name = String.format("abies alba var. x%03d", i);
+                    g.taxon(name, Rank.VARIETY);
+                    names.add(name);
+                }
+                // the same name three times with and without nested set, written out of lft order
+                Node n = g.taxon("Pinus nigra", Rank.SPECIES);
+                TestGraph.nestedSet(n, 30, 31);
+                species2 = n.getId();
+                n = g.taxon("Pinus nigra", Rank.VARIETY);
+                variety = n.getId();
+                n = g.taxon("PINUS   nigra ", Rank.SPECIES);
+                TestGraph.nestedSet(n, 10, 11);
+                species1 = n.getId();
+                names.add("pinus nigra");
+                // canonical names win over scientific names
+                n = g.taxon("Picea abies (L.) H.Karst.", Rank.SPECIES);
+                n.setProperty(NeoUtils.PROP_CANONICAL_NAME, "Picea abies");
+                canonical = n.getId();
+                names.add("picea abies");
+                // names sharing no prefix with their block neighbours
+                g.taxon("Zea mays", Rank.SPECIES);
+                names.add("zea mays");
+                g.taxon("\u00c4pfel", Rank.SPECIES);
+                names.add("\u00e4pfel");
+                tx.success();
+            }
+            File file = new File(folder.getRoot(), NameIndex.FILENAME);
+            NameIndexWriter.write(g.db, file);
+            idx = NameIndex.open(file);
+        }
+        Collections.sort(names);
+    }
+
+    @Test
+    public void testKey() {
+        assertEquals("abies alba", NameIndex.key("  Abies\t ALBA\n"));
+        assertEquals("", NameIndex.key(" "));
+    }
+
+    @Test
+    public void testDictionary() {
+        assertEquals(names.size(), idx.size());
+        assertEquals(GENERATED + 6, idx.postings());
+        // every name decodes from its block, including block heads and the last names of a block
+        for (int ord = 0; ord < names.size(); ord++) {
+            assertEquals(names.get(ord), idx.name(ord));
+            assertEquals(ord, idx.find(names.get(ord)));
+        }
+        assertEquals(idx.find("pinus nigra"), idx.find(" Pinus  NIGRA"));
+    }
+
+    @Test
+    public void testMissing() {
+        assertEquals(NameIndex.NONE, idx.find("Aa"));
+        assertEquals(NameIndex.NONE, idx.find("abies alba"));
+        assertEquals(NameIndex.NONE, idx.find("abies alba var. x0005"));
+        assertEquals(NameIndex.NONE, idx.find("abies alba var. x999"));
+        assertEquals(NameIndex.NONE, idx.find("zzz"));
+        assertEquals(0, idx.lookup("Pinus").length);
+    }
+
+    @Test
+    public void testPrefix() {
+        // crossing the first block boundary
+        List<String> x01 = idx.prefix("Abies alba var. x01", 100);
+        assertEquals(10, x01.size());
+        assertEquals(names.subList(10, 20), x01);
+        assertEquals(names.subList(0, GENERATED), idx.prefix("abies", 1000));
+        assertEquals(names.subList(0, 3), idx.prefix("abies", 3));
+        assertEquals(names.subList(0, 5), idx.prefix("", 5));
+        assertEquals(Lists.newArrayList("picea abies", "pinus nigra"), idx.prefix("Pi", 10));
+        assertTrue(idx.prefix("b", 10).isEmpty());
+        assertTrue(idx.prefix("\u00e4pfelbaum", 10).isEmpty());
+        assertTrue(idx.prefix("abies", 0).isEmpty());
+    }
+
+    @Test
+    public void testLookup() {
+        // ordered by lft with nodes without a nested set last
+        assertArrayEquals(new long[]{species1, species2, variety}, idx.lookup("Pinus nigra"));
+        assertArrayEquals(new long[]{species1, species2}, idx.lookup("Pinus nigra", Rank.SPECIES, NameIndex.NONE, NameIndex.NONE));
+        assertArrayEquals(new long[]{variety}, idx.lookup("Pinus nigra", Rank.VARIETY, NameIndex.NONE, NameIndex.NONE));
+        assertArrayEquals(new long[0], idx.lookup("Pinus nigra", Rank.GENUS, NameIndex.NONE, NameIndex.NONE));
+        assertArrayEquals(new long[]{species2}, idx.lookup("Pinus nigra", null, 20, 40));
+        assertArrayEquals(new long[]{species1, species2}, idx.lookup("Pinus nigra", null, 10, 31));
+        assertArrayEquals(new long[0], idx.lookup("Pinus nigra", Rank.SPECIES, 12, 29));
+        assertArrayEquals(new long[]{canonical}, idx.lookup("picea abies"));
+        assertArrayEquals(new long[0], idx.lookup("Picea abies (L.) H.Karst."));
+    }
+}
@@ -0,0 +1,175 @@
+package org.gbif.checklistbank.snapshot;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.gbif.api.vocabulary.Rank;
+import org.gbif.checklistbank.Labels;
+import org.gbif.checklistbank.Ranks;
+import org.gbif.checklistbank.RelType;
+import org.gbif.checklistbank.TestGraph;
+import org.gbif.checklistbank.traverse.StartEndHandler;
+import org.gbif.checklistbank.traverse.TaxonWalker;
+import org.gbif.dwc.terms.DwcTerm;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TreeSnapshotTest {
+    @ClassRule
+    public static TemporaryFolder folder = new TemporaryFolder();
+    private static TestGraph g;
+    private static TreeSnapshot snapshot;
+    private static Map<String, Integer> index = Maps.newHashMap();
+
+    /**
+     * Animalia and Plantae with the genera Abies and Pinus.
+     * Abies alba and Pinus nigra have a synonym each outside the tree,
+     * Abies nigra is a synonym placed in the tree below Abies but accepted as Pinus nigra, which is walked later.
+     */
+    @BeforeClass
+    public static void init() throws IOException {
+        g = new TestGraph(folder.newFolder("neo"));
+        try (Transaction tx = g.db.beginTx()) {
+            Node plantae = g.root("Plantae", Rank.KINGDOM);
+            plantae.setProperty(DwcTerm.taxonID.simpleName(), "p1");
+            TestGraph.nestedSet(plantae, 1, 14);
+            g.root("Animalia", Rank.KINGDOM);
+            Node pinus = g.child(plantae, "Pinus", Rank.GENUS);
+            Node nigra = g.child(pinus, "Pinus nigra", Rank.SPECIES);
+            g.synonym(nigra, "Pinus austriaca", Rank.SPECIES);
+            Node abies = g.child(plantae, "Abies", Rank.GENUS);
+            Node alba = g.child(abies, "Abies alba", Rank.SPECIES);
+            g.synonym(alba, "Picea alb\u00e1", Rank.SPECIES);
+            Node abiesNigra = g.child(abies, "Abies nigra", Rank.SPECIES);
+            abiesNigra.addLabel(Labels.SYNONYM);
+            abiesNigra.createRelationshipTo(nigra, RelType.SYNONYM_OF);
+            tx.success();
+        }
+        File file = new File(folder.getRoot(), TreeSnapshot.FILENAME);
+        TreeSnapshotWriter.write(g.db, file);
+        snapshot = TreeSnapshot.open(file);
+        for (int i = 0; i < snapshot.size(); i++) {
+            index.put(snapshot.scientificName(i), i);
+        }
+    }
+
+    @AfterClass
+    public static void close() {
+        snapshot.close();
+        g.close();
+    }
+
+    private static int idx(String name) {
+        return index.get(name);
+    }
+
+    @Test
+    public void testColumns() {
+        assertEquals(9, snapshot.size());
+        assertEquals(9, index.size());
+        final int plantae = idx("Plantae");
+        assertEquals("p1", snapshot.taxonID(plantae));
+        assertNull(snapshot.taxonID(idx("Abies")));
+        assertEquals(1, snapshot.lft(plantae));
+        assertEquals(14, snapshot.rgt(plantae));
+        assertEquals(TreeSnapshot.NONE, snapshot.lft(idx("Abies")));
+        assertEquals(Rank.KINGDOM.ordinal(), snapshot.rankOrdinal(plantae));
+        assertEquals(Rank.GENUS.ordinal(), snapshot.rankOrdinal(idx("Abies")));
+        assertEquals(Ranks.ordinal("species"), snapshot.rankOrdinal(idx("Picea alb\u00e1")));
+        try (Transaction tx = g.db.beginTx()) {
+            for (int i = 0; i < snapshot.size(); i++) {
+                Node n = g.db.getNodeById(snapshot.nodeId(i));
+                assertEquals(n.getProperty(DwcTerm.scientificName.simpleName()), snapshot.scientificName(i));
+            }
+            tx.success();
+        }
+    }
+
+    @Test
+    public void testTree() {
+        assertArrayEquals(new int[]{idx("Animalia"), idx("Plantae")}, snapshot.roots());
+        assertArrayEquals(new int[]{idx("Abies"), idx("Pinus")}, snapshot.children(idx("Plantae")));
+        assertArrayEquals(new int[]{idx("Abies alba"), idx("Abies nigra")}, snapshot.children(idx("Abies")));
+        assertArrayEquals(new int[0], snapshot.children(idx("Animalia")));
+        assertEquals(idx("Abies"), snapshot.parent(idx("Abies nigra")));
+        assertEquals(TreeSnapshot.NONE, snapshot.parent(idx("Plantae")));
+        assertEquals(snapshot.size(), snapshot.end(idx("Plantae")));
+        assertEquals(idx("Plantae"), snapshot.end(idx("Animalia")));
+    }
+
+    @Test
+    public void testSynonyms() {
+        final int alba = idx("Abies alba");
+        final int syn = idx("Picea alb\u00e1");
+        // synonyms outside the tree directly follow their accepted taxon
+        assertEquals(alba + 1, syn);
+        assertArrayEquals(new int[]{syn}, snapshot.synonyms(alba));
+        assertTrue(snapshot.isSynonym(syn));
+        assertEquals(alba, snapshot.accepted(syn));
+        assertEquals(TreeSnapshot.NONE, snapshot.parent(syn));
+        assertEquals(syn + 1, snapshot.end(syn));
+        assertFalse(snapshot.isSynonym(alba));
+
+        final int nigra = idx("Pinus nigra");
+        assertArrayEquals(new int[]{idx("Pinus austriaca")}, snapshot.synonyms(nigra));
+        assertEquals(nigra, snapshot.accepted(idx("Pinus austriaca")));
+
+        // synonyms within the tree resolve accepted taxa walked after them
+        final int abiesNigra = idx("Abies nigra");
+        assertTrue(abiesNigra < nigra);
+        assertTrue(snapshot.isSynonym(abiesNigra));
+        assertEquals(nigra, snapshot.accepted(abiesNigra));
+        assertArrayEquals(new int[0], snapshot.synonyms(abiesNigra));
+    }
+
+    /**
+     * Walking the snapshot fires the same events for the same nodes as walking the graph.
+     */
+    @Test
+    public void testWalkAll() {
+        final List<String> expected = Lists.newArrayList();
+        try (Transaction tx = g.db.beginTx()) {
+            TaxonWalker.walkAll(g.db, new StartEndHandler() {
+                @Override
+                public void start(Node n) {
+                    expected.add("start " + n.getId());
+                }
+
+                @Override
+                public void end(Node n) {
+                    expected.add("end " + n.getId());
+                }
+            });
+            tx.success();
+        }
+        final List<String> events = Lists.newArrayList();
+        snapshot.walkAll(new SnapshotHandler() {
+            @Override
+            public void start(int taxon) {
+                events.add("start " + snapshot.nodeId(taxon));
+            }
+
+            @Override
+            public void end(int taxon) {
+                events.add("end " + snapshot.nodeId(taxon));
+            }
+        });
+        assertEquals(14, expected.size());
+        assertEquals(expected, events);
+    }
+}
@@ -0,0 +1,136 @@
+package org.gbif.checklistbank.traverse;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.gbif.api.vocabulary.Rank;
+import org.gbif.checklistbank.ImportTaxonMetricsHandler;
+import org.gbif.checklistbank.Labels;
+import org.gbif.checklistbank.NeoUtils;
+import org.gbif.checklistbank.RelType;
+import org.gbif.checklistbank.TestGraph;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.tooling.GlobalGraphOperations;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class ParallelTaxonWalkerTest {
+    private static final String[] KINGDOMS = {"Plantae", "Fungi", "Animalia"};
+    private static final String[] METRICS = {NeoUtils.PROP_LFT, NeoUtils.PROP_RGT, NeoUtils.PROP_CHILDREN,
+        NeoUtils.PROP_SYNONYMS, "kKey", "pKey", "cKey", "oKey", "fKey", "gKey", "sKey"};
+
+    @ClassRule
+    public static TemporaryFolder folder = new TemporaryFolder();
+    private static TestGraph g;
+
+    /**
+     * Three kingdoms with families, genera and species created out of taxonomic order, each species with a synonym.
+     * A synonym placed in the Plantae tree is accepted in Animalia and a pro parte synonym outside the tree
+     * is accepted in all kingdoms, so their classification is passed on from other subtrees.
+     */
+    @BeforeClass
+    public static void init() throws IOException {
+        g = new TestGraph(folder.newFolder("neo"));
+        try (Transaction tx = g.db.beginTx()) {
+            List<Node> species = Lists.newArrayList();
+            List<Node> genera = Lists.newArrayList();
+            for (String k : KINGDOMS) {
+                Node kingdom = g.root(k, Rank.KINGDOM);
+                for (int f = 3; f > 0; f--) {
+                    Node family = g.child(kingdom, k + "aceae" + f, Rank.FAMILY);
+                    for (int gen = 3; gen > 0; gen--) {
+                        Node genus = g.child(family, k + f + "us" + gen, Rank.GENUS);
+                        genera.add(genus);
+                        for (int sp = 3; sp > 0; sp--) {
+                            Node s = g.child(genus, k + f + "us" + gen + " sp" + sp, Rank.SPECIES);
+                            g.synonym(s, k + f + "us" + gen + " syn" + sp, Rank.SPECIES);
+                            species.add(s);
+                        }
+                    }
+                }
+            }
+            Node misplaced = g.child(genera.get(0), "Plantae1us1 misplaced", Rank.SPECIES);
+            misplaced.addLabel(Labels.SYNONYM);
+            misplaced.createRelationshipTo(species.get(species.size() - 1), RelType.SYNONYM_OF);
+            Node proParte = g.synonym(species.get(0), "Pro parte", Rank.SPECIES);
+            proParte.createRelationshipTo(species.get(30), RelType.SYNONYM_OF);
+            proParte.createRelationshipTo(species.get(60), RelType.SYNONYM_OF);
+            tx.success();
+        }
+    }
+
+    @AfterClass
+    public static void close() {
+        g.close();
+    }
+
+    /**
+     * @return all metrics properties of all nodes by node id
+     */
+    private static Map<Long, List<Object>> metrics() {
+        Map<Long, List<Object>> metrics = Maps.newHashMap();
+        try (Transaction tx = g.db.beginTx()) {
+            for (Node n : GlobalGraphOperations.at(g.db).getAllNodes()) {
+                List<Object> values = Lists.newArrayList();
+                for (String p : METRICS) {
+                    values.add(n.getProperty(p, null));
+                }
+                metrics.put(n.getId(), values);
+            }
+            tx.success();
+        }
+        return metrics;
+    }
+
+    private static void clearMetrics() {
+        try (Transaction tx = g.db.beginTx()) {
+            for (Node n : GlobalGraphOperations.at(g.db).getAllNodes()) {
+                for (String p : METRICS) {
+                    n.removeProperty(p);
+                }
+            }
+            tx.success();
+        }
+    }
+
+    private static void walkParallel(int threads, int splitDepth) {
+        final List<ImportTaxonMetricsHandler.SynonymUpdate> synonyms =
+            Collections.synchronizedList(Lists.<ImportTaxonMetricsHandler.SynonymUpdate>newArrayList());
+        new ParallelTaxonWalker(g.db, threads, splitDepth).walkAll(new ParallelTaxonWalker.HandlerFactory() {
+            @Override
+            public StartEndHandler create(int startIdx, List<Node> ancestors) {
+                ImportTaxonMetricsHandler handler = new ImportTaxonMetricsHandler(g.db, startIdx, ancestors);
+                handler.deferSynonyms(synonyms);
+                return handler;
+            }
+        });
+        ImportTaxonMetricsHandler.updateSynonyms(g.db, synonyms);
+    }
+
+    @Test
+    public void testSameAsSequential() {
+        clearMetrics();
+        TaxonWalker.walkAll(g.db, new ImportTaxonMetricsHandler(g.db), 100);
+        Map<Long, List<Object>> expected = metrics();
+
+        for (int depth = 0; depth < 4; depth++) {
+            clearMetrics();
+            walkParallel(3, depth);
+            Map<Long, List<Object>> actual = metrics();
+            for (Map.Entry<Long, List<Object>> e : expected.entrySet()) {
+                assertEquals("node " + e.getKey() + " split at depth " + depth, e.getValue(), actual.get(e.getKey()));
+            }
+            assertEquals(expected.size(), actual.size());
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package org.gbif.checklistbank.traverse;
+
+import com.google.common.collect.Lists;
+import org.gbif.api.vocabulary.Rank;
+import org.gbif.checklistbank.ImportTaxonMetricsHandler;
+import org.gbif.checklistbank.NeoUtils;
+import org.gbif.checklistbank.RelType;
+import org.gbif.checklistbank.TestGraph;
+import org.gbif.dwc.terms.DwcTerm;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class TaxonWalkerTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Records start and end events by scientific name and passes them on to a metrics handler.
+     */
+    private static class Recorder implements StartEndHandler {
+        private final List<String> events = Lists.newArrayList();
+        private final StartEndHandler handler;
+
+        private Recorder(StartEndHandler handler) {
+            this.handler = handler;
+        }
+
+        @Override
+        public void start(Node n) {
+            events.add("start " + n.getProperty(DwcTerm.scientificName.simpleName()));
+            handler.start(n);
+        }
+
+        @Override
+        public void end(Node n) {
+            events.add("end " + n.getProperty(DwcTerm.scientificName.simpleName()));
+            handler.end(n);
+        }
+    }
+
+    private static void assertNestedSet(Node n, int lft, int rgt) {
+        assertEquals(lft, n.getProperty(NeoUtils.PROP_LFT));
+        assertEquals(rgt, n.getProperty(NeoUtils.PROP_RGT));
+    }
+
+    /**
+     * Nodes are created out of taxonomic order. Siblings are sorted by the rank string first,
+     * so the class Aves comes before the kingdom Plantae and species before subgenera,
+     * and a synonym outside the tree is not walked.
+     * The expected events and nested set are the ones the former path comparing walker produced.
+     */
+    @Test
+    public void testTaxonomicOrder() throws IOException {
+        try (TestGraph g = new TestGraph(folder.newFolder())) {
+            try (Transaction tx = g.db.beginTx()) {
+                Node plantae = g.root("Plantae", Rank.KINGDOM);
+                Node taxus = g.child(plantae, "Taxus baccata", Rank.SPECIES);
+                Node pinus = g.child(plantae, "Pinus", Rank.GENUS);
+                Node strobus = g.child(pinus, "Pinus subg. Strobus", Rank.SUBGENUS);
+                Node nigra = g.child(pinus, "Pinus nigra", Rank.SPECIES);
+                Node abies = g.child(plantae, "Abies", Rank.GENUS);
+                Node alba = g.child(abies, "Abies alba", Rank.SPECIES);
+                Node syn = g.synonym(alba, "Picea alba", Rank.SPECIES);
+                Node aves = g.root("Aves", Rank.CLASS);
+                Node passer = g.child(aves, "Passer domesticus", Rank.SPECIES);
+
+                Recorder rec = new Recorder(new ImportTaxonMetricsHandler(g.db));
+                TaxonWalker.walkAll(g.db, rec);
+                assertEquals(Lists.newArrayList(
+                    "start Aves",
+                    "start Passer domesticus",
+                    "end Passer domesticus",
+                    "end Aves",
+                    "start Plantae",
+                    "start Abies",
+                    "start Abies alba",
+                    "end Abies alba",
+                    "end Abies",
+                    "start Pinus",
+                    "start Pinus nigra",
+                    "end Pinus nigra",
+                    "start Pinus subg. Strobus",
+                    "end Pinus subg. Strobus",
+                    "end Pinus",
+                    "start Taxus baccata",
+                    "end Taxus baccata",
+                    "end Plantae"), rec.events);
+
+                assertNestedSet(aves, 0, 3);
+                assertNestedSet(passer, 1, 2);
+                assertNestedSet(plantae, 4, 17);
+                assertNestedSet(abies, 5, 8);
+                assertNestedSet(alba, 6, 7);
+                assertNestedSet(pinus, 9, 14);
+                assertNestedSet(nigra, 10, 11);
+                assertNestedSet(strobus, 12, 13);
+                assertNestedSet(taxus, 15, 16);
+                assertFalse(syn.hasProperty(NeoUtils.PROP_LFT));
+                tx.success();
+            }
+        }
+    }
+
+    /**
+     * A parent cycle below a root and a node with two parents are walked once only.
+     */
+    @Test
+    public void testCycle() throws IOException {
+        try (TestGraph g = new TestGraph(folder.newFolder())) {
+            try (Transaction tx = g.db.beginTx()) {
+                Node root = g.root("Abies", Rank.GENUS);
+                Node alba = g.child(root, "Abies alba", Rank.SPECIES);
+                Node var = g.child(alba, "Abies alba var. alba", Rank.VARIETY);
+                var.createRelationshipTo(alba, RelType.PARENT_OF);
+                Node grandis = g.child(root, "Abies grandis", Rank.SPECIES);
+                grandis.createRelationshipTo(var, RelType.PARENT_OF);
+
+                Recorder rec = new Recorder(new ImportTaxonMetricsHandler(g.db));
+                TaxonWalker.walkAll(g.db, rec);
+                assertEquals(Lists.newArrayList(
+                    "start Abies",
+                    "start Abies alba",
+                    "start Abies alba var. alba",
+                    "end Abies alba var. alba",
+                    "end Abies alba",
+                    "start Abies grandis",
+                    "end Abies grandis",
+                    "end Abies"), rec.events);
+                assertNestedSet(root, 0, 7);
+                assertNestedSet(var, 2, 3);
+                tx.success();
+            }
+        }
+    }
+}
@@ -0,0 +1,45 @@
+-- Hand written subset of the checklistbank schema, NOT a copy of the real DDL.
+-- It only has the tables and columns NeoExport writes, typed after the values it fills in,
+-- and a rank enum of all Rank values filled in by TestDatabase.
+-- The real schema of checklistbank-mybatis-service (checklistbank.version in the pom) has more columns,
+-- NOT NULL and foreign key constraints, indexes and its own rank type, none of which are checked against here.
+-- Pass a DDL of the real schema, e.g. from pg_dump --schema-only, with -Dclbneo.test.db.schema to test against it.
+DROP TABLE IF EXISTS name_usage_metrics;
+DROP TABLE IF EXISTS name_usage;
+DROP TABLE IF EXISTS name;
+DROP TYPE IF EXISTS rank;
+
+CREATE TYPE rank AS ENUM ({RANKS});
+
+CREATE TABLE name (
+  id serial PRIMARY KEY,
+  scientific_name text NOT NULL,
+  canonical_name text
+);
+
+CREATE TABLE name_usage (
+  id serial PRIMARY KEY,
+  dataset_key uuid NOT NULL,
+  name_fk integer NOT NULL REFERENCES name,
+  rank rank,
+  parent_fk integer,
+  basionym_fk integer,
+  is_synonym boolean NOT NULL,
+  taxon_id text,
+  lft integer,
+  rgt integer,
+  kingdom_fk integer,
+  phylum_fk integer,
+  class_fk integer,
+  order_fk integer,
+  family_fk integer,
+  genus_fk integer,
+  species_fk integer
+);
+
+CREATE TABLE name_usage_metrics (
+  usage_fk integer PRIMARY KEY REFERENCES name_usage,
+  dataset_key uuid NOT NULL,
+  count_children integer,
+  count_synonyms integer
+);